@@ -0,0 +1,369 @@
+package raytracing;
+
+import raytracing.maths.Vec3d;
+import raytracing.rendering.BoundingVolumeHierarchy;
+import raytracing.rendering.Camera;
+import raytracing.rendering.Scene;
+import raytracing.rendering.Tile;
+import raytracing.solids.Solid;
+import raytracing.utils.SceneLoader;
+
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Allocation regression check of the rendering hot paths : traces fixed tiles of every scene of the
+ * {@link SceneLoader} and compares the bytes allocated per pixel and per ray with a budget file, so that new garbage
+ * in the vector, color, solid or scene code is caught before it shows in the render times.
+ * <p>
+ * The tiles are the central band of a 320 x 180 frame, from the floor to the sky. Their primary rays are computed
+ * beforehand, then each path is run a few times to warm the JIT up (its escape analysis removes most temporary
+ * vectors) and measured over several runs on the calling thread, with the thread allocation counter of the JVM :
+ * <ul>
+ *     <li>getRayColor : the whole trace of a pixel (depth 5), per pixel and per ray (primary, secondary and shadow rays);</li>
+ *     <li>shade : the shaders of the primary hits (depth 1, so without secondary rays), per hit and per shadow ray;</li>
+ *     <li>getIntersection : the intersection of every primary ray with each solid, per ray, grouped by class of solid;</li>
+ *     <li>hierarchy.getRayColor : the whole trace again, the scene resolving its rays through its
+ *     {@link BoundingVolumeHierarchy}, per pixel and per ray (measured after the other paths of every scene).</li>
+ * </ul>
+ * The check fails (exit code 1) when a measure exceeds its budget by more than the tolerance, or when a path has no
+ * budget. Budgets are recorded with the -r option; unlike the wall times of the {@link Benchmark}, they do not
+ * depend on the machine, but may depend on the JVM and its compiler.
+ * @author Mathieu Niord
+ */
+public class AllocationBudget {
+
+    private static final int WIDTH = 320, HEIGHT = 180, DEPTH = 5;
+    private static final int FIRST_COLUMN = 4, LAST_COLUMN = 5; // Columns of tiles measured
+    private static final int SCENES = 5;
+
+    /**
+     * Bytes per unit allowed over a budget whatever the tolerance, absorbing the noise of the counter
+     * (a late compilation, a lock inflation...) on the paths which allocate nothing.
+     */
+    private static final double SLACK = 0.5D;
+
+    private static String budgetName = "benchmark/allocation.properties";
+    private static boolean record = false;
+    private static int warmups = 20, runs = 5;
+    private static double tolerance = 0.10D;
+
+    private static final com.sun.management.ThreadMXBean THREADS = Benchmark.allocationCounter();
+
+    /**
+     * The bytes allocated by a path, per unit of work.
+     */
+    private static class Measure {
+        final String name;
+        final double bytesPerUnit;
+
+        Measure(String name, double bytesPerUnit) {
+            this.name = name;
+            this.bytesPerUnit = bytesPerUnit;
+        }
+    }
+
+    /**
+     * The primary rays of the measured tiles of a scene, and their nearest intersections.
+     */
+    private static class Rays {
+        final Vec3d origin;
+        final Vec3d[] directions;
+        final double[] t;
+        final Solid[] hits;
+        int hitCount = 0;
+
+        Rays(Scene scene, Camera camera) {
+
+            final List<Vec3d> rays = new ArrayList<>();
+            for (Tile tile : Tile.split(WIDTH, HEIGHT, Tile.DEFAULT_SIZE)) {
+                final int column = tile.x / Tile.DEFAULT_SIZE;
+                if (column < FIRST_COLUMN || column > LAST_COLUMN) continue;
+                for (int row = tile.y; row < tile.y + tile.height; ++row)
+                    for (int col = tile.x; col < tile.x + tile.width; ++col)
+                        rays.add(camera.getDirection(col, row));
+            }
+
+            origin = camera.getOrigin();
+            directions = rays.toArray(new Vec3d[0]);
+            t = new double[directions.length];
+            hits = new Solid[directions.length];
+
+            for (int i = 0; i < directions.length; ++i) {
+                t[i] = Double.MAX_VALUE;
+                for (Solid solid : scene.getObjects()) {
+                    final double delta = solid.getIntersection(origin, directions[i]);
+                    if (delta > 0.0D && delta < t[i]) {
+                        t[i] = delta;
+                        hits[i] = solid;
+                    }
+                }
+                if (hits[i] != null) ++hitCount;
+            }
+        }
+    }
+
+    public static void main(String[] args) {
+
+        try {
+            parseCommandLine(args);
+        }
+        catch (IllegalArgumentException | ArrayIndexOutOfBoundsException e) {
+            System.err.println("\nCommand Line Exception: " + e.getMessage());
+            printUsage();
+            System.exit(1);
+        }
+        catch (Main.HelpException e) {
+            printUsage();
+            System.exit(0);
+        }
+
+        if (THREADS == null) {
+            System.err.println("This JVM does not count the bytes allocated by the threads");
+            System.exit(1);
+        }
+
+        List<Measure> measures = new ArrayList<>();
+        for (int sceneId = 0; sceneId < SCENES; ++sceneId) measures.addAll(measure(sceneId));
+        for (int sceneId = 0; sceneId < SCENES; ++sceneId) measures.addAll(measureHierarchy(sceneId));
+        for (Measure measure : measures)
+            System.out.println(String.format(Locale.ROOT, "%-52s %10.2f", measure.name, measure.bytesPerUnit));
+
+        try {
+            if (record) {
+                save(measures);
+                System.out.println("\nBudgets recorded in " + budgetName);
+            }
+            else if (!compare(measures, load())) {
+                System.out.println("\nAllocation budget exceeded against " + budgetName);
+                System.exit(1);
+            }
+            else System.out.println("\nAllocations within " + budgetName);
+        }
+        catch (IOException e) {
+            System.err.println("Budget file not accessible :" + e);
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Measure every path of a scene.
+     */
+    private static List<Measure> measure(int sceneId) {
+
+        final Scene scene = new SceneLoader(sceneId).scene;
+        final Camera camera = new Camera(WIDTH, HEIGHT, (sceneId == 3) ? -0.2D : -1.5D);
+        scene.setPixelSpread(camera.getPixelSpread());
+        final Rays rays = new Rays(scene, camera);
+        final String prefix = "scene" + sceneId + ".";
+        final List<Measure> measures = new ArrayList<>();
+
+        // Whole trace of the pixels
+        Benchmark.RayCounter counter = new Benchmark.RayCounter();
+        for (Vec3d direction : rays.directions) scene.getRayColor(rays.origin, direction, DEPTH, counter);
+        final double traced = measure(() -> {
+            for (Vec3d direction : rays.directions) scene.getRayColor(rays.origin, direction, DEPTH, null);
+        });
+        measures.add(new Measure(prefix + "getRayColor.bytes-per-pixel", traced / rays.directions.length));
+        measures.add(new Measure(prefix + "getRayColor.bytes-per-ray", traced / counter.rays));
+
+        // Shaders of the primary hits
+        counter = new Benchmark.RayCounter();
+        for (int i = 0; i < rays.directions.length; ++i)
+            if (rays.hits[i] != null) scene.shade(rays.origin, rays.directions[i], rays.t[i], rays.hits[i], 1, counter);
+        final double shaded = measure(() -> {
+            for (int i = 0; i < rays.directions.length; ++i)
+                if (rays.hits[i] != null) scene.shade(rays.origin, rays.directions[i], rays.t[i], rays.hits[i], 1, null);
+        });
+        measures.add(new Measure(prefix + "shade.bytes-per-hit", shaded / Math.max(1, rays.hitCount)));
+        measures.add(new Measure(prefix + "shade.bytes-per-shadow-ray", shaded / Math.max(1L, counter.rays)));
+
+        // Intersections, the solids of a class measured together
+        final Map<String, List<Solid>> classes = new LinkedHashMap<>();
+        for (Solid solid : scene.getObjects())
+            classes.computeIfAbsent(solid.getClass().getSimpleName(), name -> new ArrayList<>()).add(solid);
+        for (Map.Entry<String, List<Solid>> entry : classes.entrySet()) {
+            final List<Solid> solids = entry.getValue();
+            final double intersected = measure(() -> {
+                for (Solid solid : solids)
+                    for (Vec3d direction : rays.directions) solid.getIntersection(rays.origin, direction);
+            });
+            measures.add(new Measure(prefix + "getIntersection." + entry.getKey() + ".bytes-per-ray",
+                    intersected / ((long) solids.size() * rays.directions.length)));
+        }
+
+        return measures;
+    }
+
+    /**
+     * Measure the whole trace of the pixels of a scene resolving its rays through its hierarchy. Measured after the
+     * paths of every scene, the compiled code of the scene then having seen both ways of resolving the rays.
+     */
+    private static List<Measure> measureHierarchy(int sceneId) {
+
+        final Scene scene = new SceneLoader(sceneId).scene;
+        final Camera camera = new Camera(WIDTH, HEIGHT, (sceneId == 3) ? -0.2D : -1.5D);
+        scene.setPixelSpread(camera.getPixelSpread());
+        scene.buildHierarchy(BoundingVolumeHierarchy.DEFAULT_REBUILD_THRESHOLD);
+        final Rays rays = new Rays(scene, camera);
+        final String prefix = "scene" + sceneId + ".hierarchy.";
+        final List<Measure> measures = new ArrayList<>();
+
+        Benchmark.RayCounter counter = new Benchmark.RayCounter();
+        for (Vec3d direction : rays.directions) scene.getRayColor(rays.origin, direction, DEPTH, counter);
+        final double traced = measure(() -> {
+            for (Vec3d direction : rays.directions) scene.getRayColor(rays.origin, direction, DEPTH, null);
+        });
+        measures.add(new Measure(prefix + "getRayColor.bytes-per-pixel", traced / rays.directions.length));
+        measures.add(new Measure(prefix + "getRayColor.bytes-per-ray", traced / counter.rays));
+        return measures;
+    }
+
+    /**
+     * Warm a path up, then measure it.
+     * @return The fewest bytes allocated by a run.
+     */
+    private static double measure(Runnable path) {
+
+        for (int i = 0; i < warmups; ++i) path.run();
+
+        long allocated = Long.MAX_VALUE;
+        for (int i = 0; i < runs; ++i) {
+            final long bytes = allocatedBytes();
+            path.run();
+            allocated = Math.min(allocated, allocatedBytes() - bytes);
+        }
+        return allocated;
+    }
+
+    /**
+     * Compare the measures with the budgets and print every excess.
+     * @return Whether every measure is within its budget.
+     */
+    private static boolean compare(List<Measure> measures, Properties budgets) {
+
+        boolean passed = true;
+        for (Measure measure : measures) {
+
+            final String budget = budgets.getProperty(measure.name);
+            if (budget == null) {
+                System.out.println(measure.name + " : no budget");
+                passed = false;
+                continue;
+            }
+
+            final double allowed = Double.parseDouble(budget);
+            if (measure.bytesPerUnit > allowed * (1.0D + tolerance) + SLACK) {
+                System.out.println(String.format(Locale.ROOT, "%s : %.2f bytes instead of %.2f",
+                        measure.name, measure.bytesPerUnit, allowed));
+                passed = false;
+            }
+        }
+        return passed;
+    }
+
+    private static Properties load() throws IOException {
+        Properties budgets = new Properties();
+        try (InputStream in = new FileInputStream(budgetName)) { budgets.load(in); }
+        catch (FileNotFoundException e) { throw new IOException("No budgets, record them with -r", e); }
+        return budgets;
+    }
+
+    private static void save(List<Measure> measures) throws IOException {
+        // Written in the order of the paths, rounded up to the hundredth, so that budgets diff well
+        try (PrintWriter out = new PrintWriter(new FileWriter(budgetName))) {
+            out.println("# Allocation budgets in bytes (" + WIDTH + "x" + HEIGHT + " frame, tile columns "
+                    + FIRST_COLUMN + " to " + LAST_COLUMN + ", " + warmups + " warm-up and " + runs + " measured runs per path)");
+            for (Measure measure : measures)
+                out.println(String.format(Locale.ROOT, "%s=%.2f", measure.name, Math.ceil(measure.bytesPerUnit * 100.0D) / 100.0D));
+        }
+    }
+
+    private static long allocatedBytes() {
+        return THREADS.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /**
+     * Parse the command line arguments.
+     * @param args The command line arguments.
+     * @throws IllegalArgumentException If an argument is invalid.
+     * @throws Main.HelpException If the help argument is given.
+     */
+    private static void parseCommandLine(String[] args) throws IllegalArgumentException, ArrayIndexOutOfBoundsException, Main.HelpException {
+
+        for (int i = 0; i < args.length; ++i) {
+
+            switch (args[i]) {
+
+                case "-b" :
+                    try { budgetName = args[++i]; }
+                    catch (ArrayIndexOutOfBoundsException e) {
+                        throw new ArrayIndexOutOfBoundsException("The [budgets] option must be followed by a file name");
+                    }
+                break;
+
+                case "-r" :
+                    record = true;
+                break;
+
+                case "-n" :
+                    try { runs = Integer.parseInt(args[++i]); }
+                    catch (NumberFormatException e) {
+                        throw new NumberFormatException("The [runs] option must be an integer : " + args[i]);
+                    }
+                    catch (ArrayIndexOutOfBoundsException e) {
+                        throw new ArrayIndexOutOfBoundsException("The [runs] option must be followed by an integer");
+                    }
+                    if (runs < 1) throw new IllegalArgumentException("The [runs] option must be at least 1");
+                break;
+
+                case "-W" :
+                    try { warmups = Integer.parseInt(args[++i]); }
+                    catch (NumberFormatException e) {
+                        throw new NumberFormatException("The [warmups] option must be an integer : " + args[i]);
+                    }
+                    catch (ArrayIndexOutOfBoundsException e) {
+                        throw new ArrayIndexOutOfBoundsException("The [warmups] option must be followed by an integer");
+                    }
+                break;
+
+                case "-a" :
+                    try { tolerance = Double.parseDouble(args[++i]); }
+                    catch (NumberFormatException e) {
+                        throw new NumberFormatException("The [tolerance] option must be a double : " + args[i]);
+                    }
+                    catch (ArrayIndexOutOfBoundsException e) {
+                        throw new ArrayIndexOutOfBoundsException("The [tolerance] option must be followed by a double value");
+                    }
+                break;
+
+                case "--help" : throw new Main.HelpException();
+
+                default : throw new IllegalArgumentException("Unknown option : " + args[i]);
+            }
+        }
+    }
+
+    private static void printUsage() {
+        System.out.println(
+                "\nUsage : java raytracing.AllocationBudget [options]"
+                + "\n\nOptions :"
+                + "\n\t-b <budgets>\t\tBudget file (default benchmark/allocation.properties)."
+                + "\n\t-r\t\t\tRecord the budgets instead of comparing with them."
+                + "\n\t-n <runs>\t\tMeasured runs per path (default 5)."
+                + "\n\t-W <warmups>\t\tWarm-up runs per path (default 20)."
+                + "\n\t-a <tolerance>\t\tAllowed relative increase of the allocated bytes (default 0.10)."
+                + "\n\t--help\t\t\tPrint this help.\n"
+        );
+    }
+}
@@ -0,0 +1,539 @@
+package raytracing;
+
+import raytracing.maths.Vec3d;
+import raytracing.maths.Vec3f;
+import raytracing.rendering.BoundingVolumeHierarchy;
+import raytracing.rendering.Camera;
+import raytracing.rendering.Light;
+import raytracing.rendering.RayObserver;
+import raytracing.rendering.Scene;
+import raytracing.rendering.Tile;
+import raytracing.rendering.TileOrder;
+import raytracing.solids.Solid;
+import raytracing.utils.Color;
+import raytracing.utils.SceneLoader;
+
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.zip.CRC32;
+
+/**
+ * Performance regression harness : renders every scene of the {@link SceneLoader} at fixed sizes and depths and
+ * compares the measures with a baseline file.
+ * <p>
+ * Each case is rendered a few times to warm the JIT up, then measured over several runs on the calling thread :
+ * <ul>
+ *     <li>the fastest wall time, the least disturbed by the other processes, and the rays per second it gives
+ *     (primary, secondary and shadow rays);</li>
+ *     <li>the bytes allocated by a render, read from the thread allocation counter of the JVM when available;</li>
+ *     <li>a CRC-32 checksum of the image, so that an optimisation cannot change the output unnoticed.</li>
+ * </ul>
+ * Every case is rendered by the double precision kernel, then by the single precision one (the cases suffixed by
+ * -f), whose image is also compared byte for byte with the double precision image : the share of differing bytes
+ * must stay below a maximum, so that the float kernel cannot drift from the reference kernel unnoticed. The float
+ * kernel must also be faster : over all the cases, its total time must stay below the total time of the double
+ * kernel, measured in the same run (a sum, each case alone being too short to tell the kernels apart reliably).
+ * This gate is lifted through the hierarchy (-j), where both kernels traverse the same double precision boxes.
+ * <p>
+ * The tile order is another dimension of the cases (-q) : the double precision image is then also traced tile by
+ * tile along each given {@link TileOrder}, and must be identical to the image traced by scanlines. The locality of
+ * the orders shows on scenes of many solids traced through their hierarchy : -m adds a grid of small spheres to
+ * every scene and -j builds its {@link BoundingVolumeHierarchy}, which both kernels then trace, these cases being
+ * named after their options so that they are recorded in a baseline of their own.
+ * The harness fails (exit code 1) when a checksum differs, when an allocation exceeds its baseline by more than the
+ * tolerance, when a float image differs from the double one by more than the maximum share, when the float kernel
+ * is not faster than the double one, or when a case has no baseline. The wall times are not compared as such : a calibration workload
+ * (floating point arithmetic, independent of the renderer) is timed along the cases, and the time of a case
+ * relative to the calibration is compared with the relative time of the baseline, so that a baseline recorded on
+ * another machine still applies. A slower case is reported, and only fails the harness when a time tolerance is
+ * given (-t) : the times of a shared machine vary far more than its checksums and allocations. Baselines are
+ * recorded with the -r option.
+ * @author Mathieu Niord
+ */
+public class Benchmark {
+
+    private static final int[][] SIZES = { {320, 180}, {640, 360} };
+    private static final int[] DEPTHS = { 1, 5 };
+    private static final int SCENES = 4;
+    private static final int CALIBRATION_STEPS = 4000000;
+    private static final String CALIBRATION = "calibration.time.ns";
+
+    private static String baselineName = "benchmark/baseline.properties";
+    private static boolean record = false;
+    private static int warmups = 20, runs = 5;
+    private static volatile double sink; // Keeps the calibration from being optimised away
+    private static double timeTolerance = 0.25D, allocationTolerance = 0.10D;
+    private static boolean timeGated = false;
+    private static double floatDifference = 0.01D;
+    private static final List<TileOrder> tileOrders = new ArrayList<>();
+    private static boolean hierarchy = false;
+    private static int spheres = 0;
+
+    private static final com.sun.management.ThreadMXBean THREADS = allocationCounter();
+
+    /**
+     * The measures of a case.
+     */
+    private static class Result {
+        final String name;
+        final long timeNanos, rays, allocatedBytes;
+        final String checksum;
+        final byte[] image;
+        final double differing, allowed; // Share of the bytes differing from the scanline double precision image
+
+        Result(String name, long timeNanos, long rays, long allocatedBytes, String checksum, byte[] image, double differing, double allowed) {
+            this.name = name;
+            this.timeNanos = timeNanos;
+            this.rays = rays;
+            this.allocatedBytes = allocatedBytes;
+            this.checksum = checksum;
+            this.image = image;
+            this.differing = differing;
+            this.allowed = allowed;
+        }
+
+        double raysPerSecond() {
+            return rays * 1e9D / timeNanos;
+        }
+    }
+
+    /**
+     * Counts the rays traced by the scene.
+     */
+    static class RayCounter implements RayObserver {
+        long rays = 0;
+
+        @Override
+        public void onRay(Vec3d P, Vec3d v, int depth, Solid hit, double t) { ++rays; }
+
+        @Override
+        public void onShadowRay(Vec3d I, Vec3d IS, Light light, Solid occluder) { ++rays; }
+    }
+
+    public static void main(String[] args) {
+
+        try {
+            parseCommandLine(args);
+        }
+        catch (IllegalArgumentException | ArrayIndexOutOfBoundsException e) {
+            System.err.println("\nCommand Line Exception: " + e.getMessage());
+            printUsage();
+            System.exit(1);
+        }
+        catch (Main.HelpException e) {
+            printUsage();
+            System.exit(0);
+        }
+
+        final long calibration = calibrate();
+        System.out.println(String.format(Locale.ROOT, "%-34s %9.2f ms", "calibration", calibration / 1e6D));
+
+        List<Result> results = new ArrayList<>();
+        long doubleNanos = 0L, floatNanos = 0L;
+        for (int sceneId = 0; sceneId < SCENES; ++sceneId)
+            for (int[] size : SIZES)
+                for (int depth : DEPTHS) {
+                    final Result reference = measure(sceneId, size[0], size[1], depth, false, null, null);
+                    final List<Result> variants = new ArrayList<>();
+                    variants.add(reference);
+                    final Result single = measure(sceneId, size[0], size[1], depth, true, null, reference);
+                    variants.add(single);
+                    doubleNanos += reference.timeNanos;
+                    floatNanos += single.timeNanos;
+                    for (TileOrder order : tileOrders) variants.add(measure(sceneId, size[0], size[1], depth, false, order, reference));
+
+                    for (Result result : variants) {
+                        System.out.println(String.format(Locale.ROOT, "%-34s %9.2f ms %8.2f Mrays/s %12d bytes  %s %7.3f %% differing",
+                                result.name, result.timeNanos / 1e6D, result.raysPerSecond() / 1e6D,
+                                result.allocatedBytes, result.checksum, 100.0D * result.differing));
+                        results.add(result);
+                    }
+                }
+
+        // The float kernel only earns its place by being faster. Through the hierarchy, the traversal of its double
+        // precision boxes dominates and both kernels run at the same speed : only the scans of the solids are gated
+        final boolean faster = hierarchy || floatNanos < doubleNanos;
+        System.out.println(String.format(Locale.ROOT, "\nfloat kernel : %.2f ms for %.2f ms by the double kernel (%.2fx)%s",
+                floatNanos / 1e6D, doubleNanos / 1e6D, (double) doubleNanos / floatNanos,
+                hierarchy ? ", not gated through the hierarchy" : faster ? "" : ", not faster"));
+
+        try {
+            if (record) {
+                save(calibration, results);
+                System.out.println("\nBaseline recorded in " + baselineName);
+                if (!faster) System.exit(1);
+            }
+            else if (!compare(calibration, results, load()) || !faster) {
+                System.out.println("\nPerformance regression against " + baselineName);
+                System.exit(1);
+            }
+            else System.out.println("\nNo regression against " + baselineName);
+        }
+        catch (IOException e) {
+            System.err.println("Baseline file not accessible :" + e);
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Warm up then measure a case.
+     * @param singlePrecision true to measure the single precision kernel.
+     * @param order The order of the tiles traced, null to trace the frame by scanlines {@link TileOrder}.
+     * @param reference The result of the double precision kernel tracing the case by scanlines, compared with the
+     * image of the case; null to measure this reference.
+     */
+    private static Result measure(int sceneId, int width, int height, int depth, boolean singlePrecision, TileOrder order, Result reference) {
+
+        Scene scene = load(sceneId);
+        Camera camera = new Camera(width, height, (sceneId == 3) ? -0.2D : -1.5D);
+
+        // The float kernel reports no rays : it traces the ray tree of the double kernel, up to the rounding
+        RayCounter counter = new RayCounter();
+        byte[] image = render(scene, camera, depth, singlePrecision, order, counter);
+        final long rays = singlePrecision ? reference.rays : counter.rays;
+        for (int i = 0; i < warmups; ++i) render(scene, camera, depth, singlePrecision, order, null);
+
+        long[] times = new long[runs];
+        long allocated = Long.MAX_VALUE;
+        for (int i = 0; i < runs; ++i) {
+            final long bytes = allocatedBytes();
+            final long start = System.nanoTime();
+            render(scene, camera, depth, singlePrecision, order, null);
+            times[i] = System.nanoTime() - start;
+            allocated = Math.min(allocated, allocatedBytes() - bytes);
+        }
+        Arrays.sort(times);
+
+        CRC32 crc = new CRC32();
+        crc.update(image, 0, image.length);
+        int differing = 0;
+        if (reference != null) for (int i = 0; i < image.length; ++i) if (image[i] != reference.image[i]) ++differing;
+
+        final String name = "scene" + sceneId + "-" + width + "x" + height + "-d" + depth
+                + ((spheres > 0) ? "-m" + spheres : "") + (hierarchy ? "-bvh" : "")
+                + (singlePrecision ? "-f" : "") + ((order != null) ? "-" + order.name().replace("_", "").toLowerCase(Locale.ROOT) : "");
+        return new Result(name, times[0], rays, (THREADS == null) ? -1L : allocated, String.format("%08x", crc.getValue()),
+                image, (double) differing / image.length, singlePrecision ? floatDifference : 0.0D);
+    }
+
+    /**
+     * Load a scene, with the spheres and hierarchy of the options.
+     */
+    private static Scene load(int sceneId) {
+        final Scene scene = new SceneLoader(sceneId).scene;
+        addSpheres(scene, spheres);
+        if (hierarchy) scene.buildHierarchy(BoundingVolumeHierarchy.DEFAULT_REBUILD_THRESHOLD);
+        return scene;
+    }
+
+    /**
+     * Add a grid of small spheres behind the solids of a scene, from its floor upward, so that the rays of the
+     * background cross many solids.
+     */
+    private static void addSpheres(Scene scene, int count) {
+        if (count == 0) return;
+        final Color[] colors = { Color.RED, Color.GREEN, Color.BLUE };
+        final int columns = (int) Math.ceil(Math.sqrt(count));
+        final double step = 1600.0D / columns, radius = 0.4D * step;
+        for (int i = 0; i < count; ++i) {
+            final Vec3d center = new Vec3d(-800.0D + (i % columns + 0.5D) * step, -100.0D + radius + (i / columns) * step, -1500.0D);
+            scene.addSphere(radius, center, colors[i % colors.length], Color.WHITE, 100.0D, 0.2D, 0.0D, 1.0D);
+        }
+    }
+
+    /**
+     * Warm up then measure the calibration workload.
+     * @return Its fastest wall time, in nanoseconds.
+     */
+    private static long calibrate() {
+
+        for (int i = 0; i < warmups; ++i) sink = calibration();
+
+        long[] times = new long[runs];
+        for (int i = 0; i < runs; ++i) {
+            final long start = System.nanoTime();
+            sink = calibration();
+            times[i] = System.nanoTime() - start;
+        }
+        Arrays.sort(times);
+        return times[0];
+    }
+
+    /**
+     * Roots of ray-sphere like quadratics along a chaotic sequence, which the compiler can neither fold nor
+     * vectorise : the dependent floating point operations and square roots of the tracing, without its memory.
+     */
+    private static double calibration() {
+        double x = 0.3D, sum = 0.0D;
+        for (int i = 0; i < CALIBRATION_STEPS; ++i) {
+            x = 3.9D * x * (1.0D - x);
+            final double b = x - 0.5D, delta = b * b - 0.25D * x + 0.1D;
+            if (delta > 0.0D) sum += -b - Math.sqrt(delta);
+        }
+        return sum;
+    }
+
+    /**
+     * Trace every pixel of a frame on the calling thread, as the main program does.
+     * @param order The order of the tiles traced, null to trace the frame by scanlines {@link TileOrder}.
+     * @param observer The observer of the rays of the double precision kernel, may be null.
+     */
+    private static byte[] render(Scene scene, Camera camera, int depth, boolean singlePrecision, TileOrder order, RayObserver observer) {
+
+        final int width = camera.getWidth(), height = camera.getHeight();
+        byte[] buffer = new byte[3 * width * height];
+        final Vec3f originF = new Vec3f(camera.getOrigin());
+
+        // The scanlines are a single tile covering the frame
+        final List<Tile> tiles = (order != null) ? Tile.split(width, height, Tile.DEFAULT_SIZE)
+                : Collections.singletonList(new Tile(0, 0, 0, width, height));
+        final int[] sequence = (order != null) ? order.order(tiles, Tile.DEFAULT_SIZE) : new int[] { 0 };
+
+        for (int t : sequence) {
+            final Tile tile = tiles.get(t);
+            for (int row = tile.y; row < tile.y + tile.height; ++row)
+                for (int col = tile.x; col < tile.x + tile.width; ++col) {
+
+                    final int index = 3 * ((row * width) + col);
+                    Color color = (singlePrecision)
+                            ? scene.getRayColor(originF, new Vec3f(camera.getDirection(col, row)), depth)
+                            : scene.getRayColor(camera.getOrigin(), camera.getDirection(col, row), depth, observer);
+
+                    buffer[index] = (byte)color.getBlue();      // Blue
+                    buffer[index+1] = (byte)color.getGreen();   // Green
+                    buffer[index+2] = (byte)color.getRed();     // Red
+                }
+        }
+
+        return buffer;
+    }
+
+    /**
+     * Compare the results with the baseline and print every regression.
+     * @return Whether no regression was found.
+     */
+    private static boolean compare(long calibration, List<Result> results, Properties baseline) {
+
+        final String reference = baseline.getProperty(CALIBRATION);
+        if (reference == null) {
+            System.out.println(CALIBRATION + " : no baseline");
+            return false;
+        }
+        // The speed of this machine relative to the one which recorded the baseline
+        final double scale = (double) calibration / Long.parseLong(reference);
+
+        boolean passed = true;
+        for (Result result : results) {
+
+            final String time = baseline.getProperty(result.name + ".time.ns");
+            final String allocated = baseline.getProperty(result.name + ".allocated.bytes");
+            final String checksum = baseline.getProperty(result.name + ".checksum");
+            if (time == null || allocated == null || checksum == null) {
+                System.out.println(result.name + " : no baseline");
+                passed = false;
+                continue;
+            }
+
+            if (!checksum.equals(result.checksum)) {
+                System.out.println(result.name + " : image checksum " + result.checksum + " instead of " + checksum);
+                passed = false;
+            }
+            if (result.differing > result.allowed) {
+                System.out.println(String.format(Locale.ROOT, "%s : %.3f %% of the bytes differ from the double precision image (%.3f %% allowed)",
+                        result.name, 100.0D * result.differing, 100.0D * result.allowed));
+                passed = false;
+            }
+            final double expected = Long.parseLong(time) * scale;
+            if (result.timeNanos > expected * (1.0D + timeTolerance)) {
+                System.out.println(String.format(Locale.ROOT, "%s : %.2f ms instead of %.2f ms (%.2f ms on the baseline machine)%s",
+                        result.name, result.timeNanos / 1e6D, expected / 1e6D, Long.parseLong(time) / 1e6D, timeGated ? "" : ", not gated"));
+                if (timeGated) passed = false;
+            }
+            final long baselineBytes = Long.parseLong(allocated);
+            if (result.allocatedBytes >= 0 && baselineBytes >= 0 && result.allocatedBytes > baselineBytes * (1.0D + allocationTolerance)) {
+                System.out.println(result.name + " : " + result.allocatedBytes + " bytes allocated instead of " + baselineBytes);
+                passed = false;
+            }
+        }
+        return passed;
+    }
+
+    private static Properties load() throws IOException {
+        Properties baseline = new Properties();
+        try (InputStream in = new FileInputStream(baselineName)) { baseline.load(in); }
+        catch (FileNotFoundException e) { throw new IOException("No baseline, record one with -r", e); }
+        return baseline;
+    }
+
+    private static void save(long calibration, List<Result> results) throws IOException {
+        // Written in the order of the cases rather than with Properties.store, so that baselines diff well
+        try (PrintWriter out = new PrintWriter(new FileWriter(baselineName))) {
+            out.println("# Render benchmark baseline (" + warmups + " warm-up and " + runs + " measured runs per case)");
+            out.println(CALIBRATION + "=" + calibration);
+            for (Result result : results) {
+                out.println(result.name + ".time.ns=" + result.timeNanos);
+                out.println(result.name + ".rays=" + result.rays);
+                out.println(result.name + ".allocated.bytes=" + result.allocatedBytes);
+                out.println(result.name + ".checksum=" + result.checksum);
+            }
+        }
+    }
+
+    /**
+     * @return The allocation counter of the JVM threads, null if the JVM does not provide it.
+     */
+    static com.sun.management.ThreadMXBean allocationCounter() {
+        try {
+            java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+            if (!(threads instanceof com.sun.management.ThreadMXBean)) return null;
+            com.sun.management.ThreadMXBean counter = (com.sun.management.ThreadMXBean) threads;
+            if (!counter.isThreadAllocatedMemorySupported()) return null;
+            counter.setThreadAllocatedMemoryEnabled(true);
+            return counter;
+        }
+        catch (LinkageError | UnsupportedOperationException e) {
+            return null;
+        }
+    }
+
+    private static long allocatedBytes() {
+        return (THREADS == null) ? 0L : THREADS.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /**
+     * Parse the command line arguments.
+     * @param args The command line arguments.
+     * @throws IllegalArgumentException If an argument is invalid.
+     * @throws Main.HelpException If the help argument is given.
+     */
+    private static void parseCommandLine(String[] args) throws IllegalArgumentException, ArrayIndexOutOfBoundsException, Main.HelpException {
+
+        for (int i = 0; i < args.length; ++i) {
+
+            switch (args[i]) {
+
+                case "-b" :
+                    try { baselineName = args[++i]; }
+                    catch (ArrayIndexOutOfBoundsException e) {
+                        throw new ArrayIndexOutOfBoundsException("The [baseline] option must be followed by a file name");
+                    }
+                break;
+
+                case "-r" :
+                    record = true;
+                break;
+
+                case "-n" :
+                    try { runs = Integer.parseInt(args[++i]); }
+                    catch (NumberFormatException e) {
+                        throw new NumberFormatException("The [runs] option must be an integer : " + args[i]);
+                    }
+                    catch (ArrayIndexOutOfBoundsException e) {
+                        throw new ArrayIndexOutOfBoundsException("The [runs] option must be followed by an integer");
+                    }
+                    if (runs < 1) throw new IllegalArgumentException("The [runs] option must be at least 1");
+                break;
+
+                case "-W" :
+                    try { warmups = Integer.parseInt(args[++i]); }
+                    catch (NumberFormatException e) {
+                        throw new NumberFormatException("The [warmups] option must be an integer : " + args[i]);
+                    }
+                    catch (ArrayIndexOutOfBoundsException e) {
+                        throw new ArrayIndexOutOfBoundsException("The [warmups] option must be followed by an integer");
+                    }
+                break;
+
+                case "-t" :
+                    try {
+                        timeTolerance = Double.parseDouble(args[++i]);
+                        timeGated = true;
+                    }
+                    catch (NumberFormatException e) {
+                        throw new NumberFormatException("The [tolerance] option must be a double : " + args[i]);
+                    }
+                    catch (ArrayIndexOutOfBoundsException e) {
+                        throw new ArrayIndexOutOfBoundsException("The [tolerance] option must be followed by a double value");
+                    }
+                break;
+
+                case "-a" :
+                    try { allocationTolerance = Double.parseDouble(args[++i]); }
+                    catch (NumberFormatException e) {
+                        throw new NumberFormatException("The [allocation] option must be a double : " + args[i]);
+                    }
+                    catch (ArrayIndexOutOfBoundsException e) {
+                        throw new ArrayIndexOutOfBoundsException("The [allocation] option must be followed by a double value");
+                    }
+                break;
+
+                case "-f" :
+                    try { floatDifference = Double.parseDouble(args[++i]); }
+                    catch (NumberFormatException e) {
+                        throw new NumberFormatException("The [share] option must be a double : " + args[i]);
+                    }
+                    catch (ArrayIndexOutOfBoundsException e) {
+                        throw new ArrayIndexOutOfBoundsException("The [share] option must be followed by a double value");
+                    }
+                break;
+
+                case "-q" :
+                    try {
+                        for (String name : args[++i].split(",")) tileOrders.add(TileOrder.fromName(name.trim()));
+                    }
+                    catch (ArrayIndexOutOfBoundsException e) {
+                        throw new ArrayIndexOutOfBoundsException("The [orders] option must be followed by a list of order names");
+                    }
+                break;
+
+                case "-j" :
+                    hierarchy = true;
+                break;
+
+                case "-m" :
+                    try { spheres = Integer.parseInt(args[++i]); }
+                    catch (NumberFormatException e) {
+                        throw new NumberFormatException("The [spheres] option must be an integer : " + args[i]);
+                    }
+                    catch (ArrayIndexOutOfBoundsException e) {
+                        throw new ArrayIndexOutOfBoundsException("The [spheres] option must be followed by an integer");
+                    }
+                    if (spheres < 0) throw new IllegalArgumentException("The [spheres] option must be positive");
+                break;
+
+                case "--help" : throw new Main.HelpException();
+
+                default : throw new IllegalArgumentException("Unknown option : " + args[i]);
+            }
+        }
+    }
+
+    private static void printUsage() {
+        System.out.println(
+                "\nUsage : java raytracing.Benchmark [options]"
+                + "\n\nOptions :"
+                + "\n\t-b <baseline>\t\tBaseline file (default benchmark/baseline.properties)."
+                + "\n\t-r\t\t\tRecord the baseline instead of comparing with it."
+                + "\n\t-n <runs>\t\tMeasured runs per case (default 5)."
+                + "\n\t-W <warmups>\t\tWarm-up runs per case (default 20)."
+                + "\n\t-t <tolerance>\t\tFail when a calibrated wall time increases by more than <tolerance> (reported above 0.25 otherwise)."
+                + "\n\t-a <allocation>\t\tAllowed relative increase of the allocated bytes (default 0.10)."
+                + "\n\t-f <share>\t\tMaximum share of the bytes of a float image differing from the double one (default 0.01)."
+                + "\n\t-q <orders>\t\tAlso trace each case tile by tile in these orders, e.g. rowmajor,morton,hilbert."
+                + "\n\t-m <spheres>\t\tAdd a grid of small spheres to every scene."
+                + "\n\t-j\t\t\tTrace the scenes through their bounding volume hierarchy."
+                + "\n\t--help\t\t\tPrint this help.\n"
+        );
+    }
+}
@@ -0,0 +1,195 @@
+package raytracing;
+
+import raytracing.rendering.Camera;
+import raytracing.rendering.Checkpoint;
+import raytracing.rendering.Renderer;
+import raytracing.rendering.Scene;
+import raytracing.rendering.Tile;
+import raytracing.utils.SceneLoader;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Resume check of the {@link Checkpoint} : renders every scene of the {@link SceneLoader} once without a checkpoint,
+ * then resumes partial checkpoint files of the same frame and compares the images byte for byte.
+ * <p>
+ * A partial checkpoint holds the records of the first half of the tiles, the last one being damaged as a crash
+ * during a write would leave it :
+ * <ul>
+ *     <li>truncated : the file is cut in the middle of the pixels of the last record, which must be dropped;</li>
+ *     <li>corrupt : a byte of the pixels of the last record is flipped, so that its CRC no longer matches and it
+ *     must be dropped;</li>
+ *     <li>torn : a few bytes of a record which was never completed follow the last record, which must be kept.</li>
+ * </ul>
+ * Each file is resumed through {@link Renderer#render(raytracing.rendering.FrameSink,
+ * raytracing.rendering.ProgressListener, Checkpoint, byte[])}, which traces the missing tiles only, and the
+ * completed checkpoint is then opened again to check it now holds every tile. The check fails (exit code 1) when a
+ * resumed image differs from the plain one, or when a checkpoint does not resume the expected number of tiles.
+ * @author Mathieu Niord
+ */
+public class CheckpointCheck {
+
+    private static final int WIDTH = 320, HEIGHT = 180, DEPTH = 5;
+    private static final int SCENES = 5;
+    private static final long KEY = 0x5EEDL;
+    private static final String[] DAMAGES = { "truncated", "corrupt", "torn" };
+
+    private static int sceneId = -1;
+
+    public static void main(String[] args) {
+
+        try {
+            parseCommandLine(args);
+        }
+        catch (IllegalArgumentException | ArrayIndexOutOfBoundsException e) {
+            System.err.println("\nCommand Line Exception: " + e.getMessage());
+            printUsage();
+            System.exit(1);
+        }
+        catch (Main.HelpException e) {
+            printUsage();
+            System.exit(0);
+        }
+
+        boolean passed = true;
+        try {
+            for (int id = 0; id < SCENES; ++id) {
+                if (sceneId >= 0 && id != sceneId) continue;
+                for (String damage : DAMAGES) passed &= check(id, damage);
+            }
+        }
+        catch (IOException e) {
+            System.err.println("Checkpoint file not accessible :" + e);
+            System.exit(1);
+        }
+
+        if (!passed) {
+            System.out.println("\nA resumed render differs from the plain render");
+            System.exit(1);
+        }
+        System.out.println("\nEvery resumed render matches the plain render");
+    }
+
+    /**
+     * Write a damaged partial checkpoint of a scene, resume it and compare the image with the plain render.
+     * @return Whether the resumed image and tiles are the expected ones.
+     */
+    private static boolean check(int id, String damage) throws IOException {
+
+        final Scene scene = new SceneLoader(id).scene;
+        final Camera camera = new Camera(WIDTH, HEIGHT, (id == 3) ? -0.2D : -1.5D);
+        scene.setPixelSpread(camera.getPixelSpread());
+        final byte[] plain = new Renderer(scene, camera, DEPTH).render(null, null).join();
+
+        final List<Tile> tiles = Tile.split(WIDTH, HEIGHT, Tile.DEFAULT_SIZE);
+        final int written = tiles.size() / 2;
+        final Path file = Files.createTempFile("checkpoint", ".bin");
+        try {
+            // The first half of the tiles, as left by a render stopped midway
+            try (Checkpoint checkpoint = Checkpoint.open(file.toString(), WIDTH, HEIGHT, Tile.DEFAULT_SIZE, KEY, false, null)) {
+                for (int index = 0; index < written; ++index) checkpoint.append(tiles.get(index), plain);
+            }
+            final Tile last = tiles.get(written - 1);
+            final int expected = damage(file, damage, 3 * last.width * last.height) ? written - 1 : written;
+
+            final byte[] buffer = new byte[3 * WIDTH * HEIGHT];
+            final int resumed;
+            final byte[] image;
+            try (Checkpoint checkpoint = Checkpoint.open(file.toString(), WIDTH, HEIGHT, Tile.DEFAULT_SIZE, KEY, true, buffer)) {
+                resumed = checkpoint.getCompletedCount();
+                image = new Renderer(scene, camera, DEPTH).render(null, null, checkpoint, buffer).join();
+            }
+
+            final int completed;
+            try (Checkpoint checkpoint = Checkpoint.open(file.toString(), WIDTH, HEIGHT, Tile.DEFAULT_SIZE, KEY, true, new byte[buffer.length])) {
+                completed = checkpoint.getCompletedCount();
+            }
+
+            final boolean identical = Arrays.equals(plain, image);
+            System.out.println(String.format(Locale.ROOT, "scene%d %-10s : %2d of %2d tiles resumed (%2d expected), %2d completed, %s",
+                    id, damage, resumed, tiles.size(), expected, completed, identical ? "identical" : "DIFFERENT"));
+            return identical && resumed == expected && completed == tiles.size();
+        }
+        finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    /**
+     * Damage the end of a checkpoint file.
+     * @param length The length of the pixels of the last record.
+     * @return Whether the last record is lost.
+     */
+    private static boolean damage(Path file, String damage, int length) throws IOException {
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            final long size = channel.size();
+            final long pixel = size - Integer.BYTES - length / 2; // A byte in the middle of the pixels of the last record
+            switch (damage) {
+
+                case "truncated" :
+                    channel.truncate(pixel);
+                return true;
+
+                case "corrupt" :
+                    final ByteBuffer value = ByteBuffer.allocate(1);
+                    channel.read(value, pixel);
+                    value.put(0, (byte) ~value.get(0));
+                    value.rewind();
+                    channel.write(value, pixel);
+                return true;
+
+                default :
+                    channel.write(ByteBuffer.wrap(new byte[] { 7, 0, 0, 0, 0, 12 }), size);
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Parse the command line arguments.
+     * @param args The command line arguments.
+     * @throws IllegalArgumentException If an argument is invalid.
+     * @throws Main.HelpException If the help argument is given.
+     */
+    private static void parseCommandLine(String[] args) throws IllegalArgumentException, ArrayIndexOutOfBoundsException, Main.HelpException {
+
+        for (int i = 0; i < args.length; ++i) {
+
+            switch (args[i]) {
+
+                case "-s" :
+                    try { sceneId = Integer.parseInt(args[++i]); }
+                    catch (NumberFormatException e) {
+                        throw new NumberFormatException("The [scene] option must be an integer : " + args[i]);
+                    }
+                    catch (ArrayIndexOutOfBoundsException e) {
+                        throw new ArrayIndexOutOfBoundsException("The [scene] option must be followed by an integer");
+                    }
+                    if (sceneId < 0 || sceneId >= SCENES) throw new IllegalArgumentException("The [scene] option must be between 0 and " + (SCENES - 1));
+                break;
+
+                case "--help" : throw new Main.HelpException();
+
+                default : throw new IllegalArgumentException("Unknown option : " + args[i]);
+            }
+        }
+    }
+
+    private static void printUsage() {
+        System.out.println(
+                "\nUsage : java raytracing.CheckpointCheck [options]"
+                + "\n\nOptions :"
+                + "\n\t-s <scene>\t\tCheck a single scene (default every scene)."
+                + "\n\t--help\t\t\tPrint this help.\n"
+        );
+    }
+}
@@ -0,0 +1,173 @@
+package raytracing;
+
+import raytracing.maths.Vec3d;
+import raytracing.rendering.Camera;
+import raytracing.rendering.IncrementalRenderer;
+import raytracing.rendering.Light;
+import raytracing.rendering.Renderer;
+import raytracing.rendering.Scene;
+import raytracing.rendering.Tile;
+import raytracing.solids.Material;
+import raytracing.solids.Solid;
+import raytracing.solids.Sphere;
+import raytracing.utils.SceneLoader;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Check of the {@link IncrementalRenderer} : renders every scene of the {@link SceneLoader} once, then edits it
+ * through the renderer and compares the image it updates with a full render of the same edited scene, byte for byte.
+ * <p>
+ * Two edits are made one after the other on each scene :
+ * <ul>
+ *     <li>sphere : the last sphere of the scene is moved sideways by its radius, through
+ *     {@link IncrementalRenderer#replaceObject};</li>
+ *     <li>light : the first light of the scene is replaced by a point light at its position, of half its intensity,
+ *     through {@link IncrementalRenderer#replaceLight}.</li>
+ * </ul>
+ * The full render is traced by a {@link Renderer} on a scene loaded again and given the same edits. The number of
+ * tiles traced again by each edit is reported. The check fails (exit code 1) when an updated image differs from the
+ * full render.
+ * @author Mathieu Niord
+ */
+public class IncrementalCheck {
+
+    private static final int WIDTH = 320, HEIGHT = 180, DEPTH = 5;
+    private static final int SCENES = 5;
+
+    private static int sceneId = -1;
+
+    public static void main(String[] args) {
+
+        try {
+            parseCommandLine(args);
+        }
+        catch (IllegalArgumentException | ArrayIndexOutOfBoundsException e) {
+            System.err.println("\nCommand Line Exception: " + e.getMessage());
+            printUsage();
+            System.exit(1);
+        }
+        catch (Main.HelpException e) {
+            printUsage();
+            System.exit(0);
+        }
+
+        boolean passed = true;
+        for (int id = 0; id < SCENES; ++id) {
+            if (sceneId >= 0 && id != sceneId) continue;
+            passed &= check(id);
+        }
+
+        if (!passed) {
+            System.out.println("\nAn updated image differs from the full render");
+            System.exit(1);
+        }
+        System.out.println("\nEvery updated image matches the full render");
+    }
+
+    /**
+     * Render a scene, then edit it through an incremental renderer and compare each update with a full render.
+     * @return Whether every updated image is identical to the full render.
+     */
+    private static boolean check(int id) {
+
+        final Camera camera = new Camera(WIDTH, HEIGHT, (id == 3) ? -0.2D : -1.5D);
+        final Scene scene = load(id, camera), reference = load(id, camera);
+        final int total = Tile.split(WIDTH, HEIGHT, Tile.DEFAULT_SIZE).size();
+
+        final IncrementalRenderer renderer = new IncrementalRenderer(scene, camera, DEPTH);
+        renderer.render();
+
+        // Sphere : the last sphere of the scene, moved sideways by its radius
+        final int index = lastSphere(scene);
+        final Solid moved = move((Sphere) scene.getObjects().get(index));
+        final int sphereTiles = renderer.replaceObject(scene.getObjects().get(index), moved);
+        reference.replaceObject(reference.getObjects().get(index), moved);
+        boolean passed = compare(id, "sphere", renderer.getBuffer(), render(reference, camera), sphereTiles, total);
+
+        // Light : the first light of the scene, replaced by a point light of half its intensity
+        final Light dimmed = dim(scene.getLights().get(0));
+        final int lightTiles = renderer.replaceLight(scene.getLights().get(0), dimmed);
+        reference.replaceLight(reference.getLights().get(0), dimmed);
+        passed &= compare(id, "light", renderer.getBuffer(), render(reference, camera), lightTiles, total);
+
+        return passed;
+    }
+
+    private static Scene load(int id, Camera camera) {
+        final Scene scene = new SceneLoader(id).scene;
+        scene.setPixelSpread(camera.getPixelSpread());
+        return scene;
+    }
+
+    private static byte[] render(Scene scene, Camera camera) {
+        return new Renderer(scene, camera, DEPTH).render(null, null).join();
+    }
+
+    /**
+     * @return The index in the scene of its last sphere.
+     */
+    private static int lastSphere(Scene scene) {
+        for (int index = scene.getObjects().size() - 1; index >= 0; --index)
+            if (scene.getObjects().get(index).getClass() == Sphere.class) return index;
+        throw new IllegalStateException("The scene holds no sphere");
+    }
+
+    private static Solid move(Sphere sphere) {
+        final Vec3d center = sphere.getCenter();
+        center.x += sphere.getRadius();
+        final Material m = sphere.getMaterial();
+        return new Sphere(sphere.getRadius(), center, m.getColor(), m.getSpecular(), m.getShininess(), m.getReflection(), m.getTransmission(), m.getRefractionIndex());
+    }
+
+    private static Light dim(Light light) {
+        return new Light(light.getPosition(), light.getSpecularLight(), light.getDiffuseLight(), 0.5D * light.getIntensity());
+    }
+
+    private static boolean compare(int id, String edit, byte[] updated, byte[] full, int traced, int total) {
+        final boolean identical = Arrays.equals(updated, full);
+        System.out.println(String.format(Locale.ROOT, "scene%d %-6s : %2d of %2d tiles traced again, %s",
+                id, edit, traced, total, identical ? "identical" : "DIFFERENT"));
+        return identical;
+    }
+
+    /**
+     * Parse the command line arguments.
+     * @param args The command line arguments.
+     * @throws IllegalArgumentException If an argument is invalid.
+     * @throws Main.HelpException If the help argument is given.
+     */
+    private static void parseCommandLine(String[] args) throws IllegalArgumentException, ArrayIndexOutOfBoundsException, Main.HelpException {
+
+        for (int i = 0; i < args.length; ++i) {
+
+            switch (args[i]) {
+
+                case "-s" :
+                    try { sceneId = Integer.parseInt(args[++i]); }
+                    catch (NumberFormatException e) {
+                        throw new NumberFormatException("The [scene] option must be an integer : " + args[i]);
+                    }
+                    catch (ArrayIndexOutOfBoundsException e) {
+                        throw new ArrayIndexOutOfBoundsException("The [scene] option must be followed by an integer");
+                    }
+                    if (sceneId < 0 || sceneId >= SCENES) throw new IllegalArgumentException("The [scene] option must be between 0 and " + (SCENES - 1));
+                break;
+
+                case "--help" : throw new Main.HelpException();
+
+                default : throw new IllegalArgumentException("Unknown option : " + args[i]);
+            }
+        }
+    }
+
+    private static void printUsage() {
+        System.out.println(
+                "\nUsage : java raytracing.IncrementalCheck [options]"
+                + "\n\nOptions :"
+                + "\n\t-s <scene>\t\tCheck a single scene (default every scene)."
+                + "\n\t--help\t\t\tPrint this help.\n"
+        );
+    }
+}
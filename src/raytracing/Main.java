@@ -1,20 +1,78 @@
 package raytracing;
 
 import raytracing.maths.Vec3d;
+import raytracing.maths.Vec3f;
+import raytracing.rendering.AdaptiveRenderer;
+import raytracing.rendering.BatchRenderer;
+import raytracing.rendering.BoundingVolumeHierarchy;
+import raytracing.rendering.Camera;
+import raytracing.rendering.Checkpoint;
+import raytracing.rendering.DeadlineRenderer;
+import raytracing.rendering.DeepZoomRenderer;
+import raytracing.rendering.DeferredRenderer;
+import raytracing.rendering.Denoiser;
+import raytracing.rendering.FrameSink;
+import raytracing.rendering.GBuffer;
+import raytracing.rendering.HdrFramebuffer;
+import raytracing.rendering.HybridRenderer;
+import raytracing.rendering.OcclusionMap;
+import raytracing.rendering.PathTracer;
+import raytracing.rendering.Renderer;
 import raytracing.rendering.Scene;
+import raytracing.rendering.TemporalRenderer;
+import raytracing.rendering.Tile;
+import raytracing.rendering.TileOrder;
+import raytracing.rendering.ToneMapping;
+import raytracing.solids.Material;
+import raytracing.solids.Solid;
+import raytracing.solids.Sphere;
 import raytracing.utils.*;
 
+import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletionException;
+import java.util.zip.CRC32;
+import java.util.stream.IntStream;
 
 /**
  * Main class of the raytracing program.
  * @author Niord Mathieu
  */
-public class Main extends JavaTga {
+public class Main {
 
     private static int width = 1920, height = 1080, depth = 5, scene = 0;
     private static double zoom = -0.5D;
     private static String outputName = "output.tga";
+    private static boolean singlePrecision = false;
+    private static int frames = 1;
+    private static boolean reprojection = false;
+    private static String gBufferName = null;
+    private static ToneMapping toneMapping = null;
+    private static double exposure = 1.0D;
+    private static boolean occlusionMaps = false;
+    private static String manifestName = null;
+    private static boolean denoise = false;
+    private static double budget = 0.0D;
+    private static String checkpointName = null;
+    private static boolean resume = false;
+    private static final List<int[]> thumbnailSizes = new ArrayList<>();
+    private static ResampleFilter resampleFilter = ResampleFilter.LANCZOS;
+    private static TileOrder tileOrder = TileOrder.ROW_MAJOR;
+    private static boolean hybrid = false;
+    private static double pathError = 0.0D;
+    private static final List<int[]> zoomTiles = new ArrayList<>();
+    private static int adaptiveThreshold = -1;
+    private static boolean dynamic = false;
+
+    /**
+     * Half of the distance travelled by the camera during an animation.
+     */
+    private static final double ANIMATION_SWEEP = 40.0D;
 
     static class HelpException extends Exception {
         public HelpException() {
@@ -37,30 +95,425 @@ public class Main extends JavaTga {
             System.exit(0);
         }
 
-        final int min = Math.min(width, height);
-        byte[] buffer = new byte[3 * width * height];
+        if (manifestName != null) {
+            renderBatch();
+            return;
+        }
 
         SceneLoader loader = new SceneLoader(scene);
         Scene scene = loader.scene;
+        if (occlusionMaps) scene.buildOcclusionMaps(OcclusionMap.DEFAULT_RESOLUTION);
+
+        if (frames > 1) {
+            renderAnimation(scene);
+            return;
+        }
+
+        if (!zoomTiles.isEmpty()) {
+            renderZoomTiles(scene);
+            return;
+        }
+
+        Camera camera = new Camera(width, height, zoom);
+        scene.setPixelSpread(camera.getPixelSpread());
+        byte[] buffer = (gBufferName != null) ? renderDeferred(scene, camera)
+                : (budget > 0.0D) ? renderWithinBudget(scene, camera)
+                : (pathError > 0.0D) ? renderPathTraced(scene, camera)
+                : (checkpointName != null) ? renderCheckpointed(scene, camera)
+                : (adaptiveThreshold >= 0) ? renderAdaptive(scene, camera)
+                : (hybrid) ? new HybridRenderer(scene, camera, depth).render()
+                : renderFrame(scene, camera);
+
+        try {
+            saveImage(outputName, buffer);
+            if (checkpointName != null) new File(checkpointName).delete(); // The frame is safe
+        }
+        catch (IOException e) { System.err.println("Image file not created :"+e); }
+    }
+
+    /**
+     * Move a sphere of a dynamic scene to its position in a frame : a bounce of the height of its diameter above its
+     * initial position, each sphere with its own phase.
+     * @param sphere The sphere at its initial position.
+     * @param index The index of the sphere, giving its phase.
+     * @param time The time of the frame, from 0 to 1 over the animation.
+     * @return The moved sphere.
+     */
+    private static Solid bounce(Sphere sphere, int index, double time) {
+        final Vec3d center = sphere.getCenter();
+        center.y += 2.0D * sphere.getRadius() * Math.abs(Math.sin(Math.PI * (2.0D * time + 0.37D * index)));
+        final Material m = sphere.getMaterial();
+        return new Sphere(sphere.getRadius(), center, m.getColor(), m.getSpecular(), m.getShininess(), m.getReflection(), m.getTransmission(), m.getRefractionIndex());
+    }
+
+    /**
+     * Trace every pixel of a frame, the tiles being traced in parallel by a {@link Renderer}.
+     * @param scene The scene to render.
+     * @param camera The camera of the frame.
+     * @return The image buffer, 3 bytes per pixel ordered Blue, Green, Red.
+     */
+    private static byte[] renderFrame(Scene scene, Camera camera) {
+
+        if (toneMapping != null || denoise) return renderHdrFrame(scene, camera);
+
+        Renderer renderer = new Renderer(scene, camera, depth);
+        renderer.setSinglePrecision(singlePrecision);
+        renderer.setTileOrder(tileOrder);
+        return renderer.render(null, null).join();
+    }
+
+    /**
+     * Trace a frame while recording its completed tiles in the checkpoint file, resuming it if asked.
+     * @param scene The scene to render.
+     * @param camera The camera of the frame.
+     * @return The image buffer, 3 bytes per pixel ordered Blue, Green, Red.
+     */
+    private static byte[] renderCheckpointed(Scene scene, Camera camera) {
 
-        for (int row = 0; row < height; ++row)
+        Renderer renderer = new Renderer(scene, camera, depth);
+        renderer.setSinglePrecision(singlePrecision);
+        renderer.setTileOrder(tileOrder);
+
+        // The checkpoint of another scene or setting is not resumed
+        CRC32 key = new CRC32();
+        key.update(String.format(Locale.ROOT, "scene=%d depth=%d zoom=%s float=%b", Main.scene, depth, zoom, singlePrecision).getBytes());
+
+        byte[] buffer = new byte[3 * width * height];
+        Checkpoint checkpoint;
+        try { checkpoint = Checkpoint.open(checkpointName, width, height, Tile.DEFAULT_SIZE, key.getValue(), resume, buffer); }
+        catch (IOException e) {
+            System.err.println("Checkpoint file not opened :"+e);
+            return renderer.render(null, null).join();
+        }
+        if (resume) System.out.println("Resumed " + checkpoint.getCompletedCount() + " tiles from " + checkpointName);
+
+        // Keep the last batch of tiles if the program is stopped
+        Thread flush = new Thread(() -> {
+            try { checkpoint.close(); }
+            catch (IOException e) { System.err.println("Checkpoint file not written :"+e); }
+        });
+        Runtime.getRuntime().addShutdownHook(flush);
+        try {
+            return renderer.render(null, null, checkpoint, buffer).join();
+        }
+        finally {
+            Runtime.getRuntime().removeShutdownHook(flush);
+            flush.run();
+        }
+    }
+
+    /**
+     * Trace a frame within the time budget, lowering its quality if needed, and report the settings used.
+     * @param scene The scene to render.
+     * @param camera The camera of the frame.
+     * @return The image buffer, 3 bytes per pixel ordered Blue, Green, Red.
+     */
+    private static byte[] renderWithinBudget(Scene scene, Camera camera) {
+
+        DeadlineRenderer renderer = new DeadlineRenderer(scene, camera, depth);
+        renderer.setSinglePrecision(singlePrecision);
+        DeadlineRenderer.Result result = renderer.render((long) (budget * 1e6D));
+
+        System.out.println("Quality : " + result + (result.isWithinBudget() ? "" : ", budget exceeded"));
+        return result.getBuffer();
+    }
+
+    /**
+     * Trace every pixel of a frame in high dynamic range, the rows being traced in parallel into an off-heap
+     * framebuffer which is then tone mapped (clamped if no operator was chosen). A denoised frame is traced in
+     * double precision, while capturing the G-buffer guiding the {@link Denoiser}.
+     * @param scene The scene to render.
+     * @param camera The camera of the frame.
+     * @return The image buffer, 3 bytes per pixel ordered Blue, Green, Red.
+     */
+    private static byte[] renderHdrFrame(Scene scene, Camera camera) {
+
+        HdrFramebuffer framebuffer = new HdrFramebuffer(width, height);
+        scene.setHighDynamicRange(true);
+
+        if (denoise) {
+            DeferredRenderer renderer = new DeferredRenderer(scene, camera, depth);
+            renderer.render(framebuffer);
+            new Denoiser(renderer.getGBuffer()).denoise(framebuffer);
+            return framebuffer.toneMap((toneMapping != null) ? toneMapping : ToneMapping.CLAMP, exposure);
+        }
+
+        IntStream.range(0, height).parallel().forEach(row -> {
             for (int col = 0; col < width; ++col) {
 
-                final int index = 3 * ((row * width) + col);
+                Vec3d dir = camera.getDirection(col, row);
+
+                Color color = (singlePrecision)
+                        ? scene.getRayColor(new Vec3f(camera.getOrigin()), new Vec3f(dir), depth)
+                        : scene.getRayColor(camera.getOrigin(), dir, depth);
 
-                double x = (col - width / 2.0D) / min;
-                double y = (row - height / 2.0D) / min;
-                Vec3d dir = new Vec3d(x, y, zoom);
+                framebuffer.set(col, row, color);
+            }
+        });
 
-                Color color = scene.getRayColor(new Vec3d(0, 0, 0), dir, depth);
+        return framebuffer.toneMap(toneMapping, exposure);
+    }
 
-                buffer[index] = (byte)color.getBlue();      // Blue
-                buffer[index+1] = (byte)color.getGreen();   // Green
-                buffer[index+2] = (byte)color.getRed();     // Red
+    /**
+     * Path trace a frame in high dynamic range until every pixel converges, then tone map it (clamped if no operator
+     * was chosen) and report the number of samples.
+     * @param scene The scene to render.
+     * @param camera The camera of the frame.
+     * @return The image buffer, 3 bytes per pixel ordered Blue, Green, Red.
+     */
+    private static byte[] renderPathTraced(Scene scene, Camera camera) {
+
+        HdrFramebuffer framebuffer = new HdrFramebuffer(width, height);
+        scene.setHighDynamicRange(true);
+
+        PathTracer tracer = new PathTracer(scene, camera, depth);
+        tracer.setTargetError(pathError);
+        final long start = System.nanoTime();
+        tracer.render(framebuffer);
+        System.out.println(String.format(Locale.ROOT, "Path traced : %.1f samples per pixel in %.1f s",
+                (double) tracer.getSampleCount() / (width * height), (System.nanoTime() - start) / 1e9D));
+
+        return framebuffer.toneMap((toneMapping != null) ? toneMapping : ToneMapping.CLAMP, exposure);
+    }
+
+    /**
+     * Trace a coarse grid of the frame, subdivided where it is not smooth, and report the part of the pixels traced.
+     * @param scene The scene to render.
+     * @param camera The camera of the frame.
+     * @return The image buffer, 3 bytes per pixel ordered Blue, Green, Red.
+     */
+    private static byte[] renderAdaptive(Scene scene, Camera camera) {
+
+        AdaptiveRenderer renderer = new AdaptiveRenderer(scene, camera, depth);
+        renderer.setThreshold(adaptiveThreshold);
+        byte[] buffer = renderer.render();
+
+        System.out.println(String.format(Locale.ROOT, "Adaptive : %.1f %% of the pixels traced", 100.0D * renderer.getTracedCount() / ((long) width * height)));
+        return buffer;
+    }
+
+    /**
+     * Render the requested tiles of the zoom pyramid of the frame in parallel, each saved as an image suffixed with
+     * its level and position.
+     * @param scene The scene to render.
+     */
+    private static void renderZoomTiles(Scene scene) {
+
+        Camera camera = new Camera(width, height, zoom);
+        scene.setPixelSpread(camera.getPixelSpread());
+        DeepZoomRenderer renderer = new DeepZoomRenderer(scene, camera, depth, DeepZoomRenderer.DEFAULT_TILE_SIZE, DeepZoomRenderer.DEFAULT_CAPACITY);
+
+        zoomTiles.parallelStream().forEach(t -> {
+            Tile bounds;
+            try { bounds = renderer.getTileBounds(t[0], t[1], t[2]); }
+            catch (IllegalArgumentException e) {
+                System.err.println("Tile not rendered : " + e.getMessage());
+                return;
+            }
+            byte[] tile = renderer.getTile(t[0], t[1], t[2]);
+            try { ImageWriter.save(suffixedName(outputName, "_" + t[0] + "_" + t[1] + "_" + t[2]), tile, bounds.width, bounds.height); }
+            catch (IOException e) { System.err.println("Image file not created :"+e); }
+        });
+        System.out.println(renderer.getRenders() + " tiles rendered, " + renderer.getLevelCount() + " levels in the pyramid");
+    }
+
+    /**
+     * Relight the G-buffer file if it matches the frame, otherwise trace the frame and save its G-buffer.
+     * @param scene The scene to render.
+     * @param camera The camera of the frame.
+     * @return The image buffer, 3 bytes per pixel ordered Blue, Green, Red.
+     */
+    private static byte[] renderDeferred(Scene scene, Camera camera) {
+
+        if (new File(gBufferName).isFile()) {
+            try {
+                GBuffer gBuffer = GBuffer.load(gBufferName);
+                if (gBuffer.matches(width, height, zoom, scene.getObjects().size()))
+                    return new DeferredRenderer(scene, camera, depth, gBuffer).relight();
+                System.err.println("The G-buffer does not match the frame, it is captured again");
+            }
+            catch (IOException e) { System.err.println("G-buffer not loaded :"+e); }
+        }
+
+        DeferredRenderer renderer = new DeferredRenderer(scene, camera, depth);
+        byte[] buffer = renderer.render();
+
+        try { renderer.getGBuffer().save(gBufferName); }
+        catch (IOException e) { System.err.println("G-buffer file not created :"+e); }
+
+        return buffer;
+    }
+
+    /**
+     * Render a camera animation : the camera slides along x from -ANIMATION_SWEEP to +ANIMATION_SWEEP,
+     * each frame being saved with its number appended to the output file name.
+     * @param scene The scene to render.
+     */
+    private static void renderAnimation(Scene scene) {
+
+        scene.setPixelSpread(new Camera(width, height, zoom).getPixelSpread()); // The same for every frame
+        TemporalRenderer temporal = (reprojection) ? new TemporalRenderer(scene, width, height, depth, TemporalRenderer.DEFAULT_REFRESH_PERIOD) : null;
+
+        // The spheres bouncing in a dynamic scene, at their initial position
+        final List<Sphere> spheres = new ArrayList<>();
+        if (dynamic) {
+            for (Solid solid : scene.getObjects())
+                if (solid.getClass() == Sphere.class) spheres.add((Sphere) solid);
+            scene.buildHierarchy(BoundingVolumeHierarchy.DEFAULT_REBUILD_THRESHOLD);
+        }
+        final List<Solid> moved = new ArrayList<>(spheres);
+
+        for (int frame = 0; frame < frames; ++frame) {
+
+            final double x = (dynamic) ? 0.0D : ANIMATION_SWEEP * (2.0D * frame / (frames - 1) - 1.0D);
+            Camera camera = new Camera(width, height, zoom, new Vec3d(x, 0, 0), new Vec3d(0, 0, -1), new Vec3d(0, 1, 0));
+
+            long update = System.nanoTime();
+            for (int i = 0; i < spheres.size(); ++i) {
+                final Solid bounced = bounce(spheres.get(i), i, (double) frame / frames);
+                scene.replaceObject(moved.get(i), bounced);
+                moved.set(i, bounced);
             }
+            scene.updateHierarchy();
+            update = (System.nanoTime() - update) / 1000L;
+
+            final long start = System.nanoTime();
+            byte[] buffer = (temporal != null) ? temporal.render(camera) : renderFrame(scene, camera);
+            final long elapsed = (System.nanoTime() - start) / 1000000L;
+
+            final int traced = (temporal != null) ? temporal.getTracedPixels() : width * height;
+            System.out.println("Frame " + frame + " : " + elapsed + " ms, " + traced + " traced pixels"
+                    + ((dynamic) ? ", hierarchy updated in " + update + " us" : ""));
 
-        try { saveTGA(outputName, buffer, width, height); }
-        catch (IOException e) { System.err.println("TGA file not created :"+e); }
+            try { saveImage(frameName(outputName, frame), buffer); }
+            catch (IOException e) { System.err.println("Image file not created :"+e); }
+        }
+    }
+
+    /**
+     * Render the jobs of the manifest on a shared pool, then report the throughput of each job and of the batch.
+     */
+    private static void renderBatch() {
+
+        BatchManifest manifest;
+        try { manifest = new BatchManifest(manifestName); }
+        catch (IOException | IllegalArgumentException e) {
+            System.err.println("Manifest not loaded :"+e);
+            System.exit(1);
+            return;
+        }
+
+        BatchRenderer batch = new BatchRenderer(Runtime.getRuntime().availableProcessors());
+        Map<String, Scene> scenes = new HashMap<>(); // Shared by the jobs of the same scene and pixel spread, which do not edit them
+        List<BatchRenderer.Job> jobs = new ArrayList<>();
+        final long start = System.nanoTime();
+
+        for (BatchManifest.Entry entry : manifest.entries) {
+            Camera camera = new Camera(entry.width, entry.height, entry.zoom);
+            Scene scene = scenes.computeIfAbsent(entry.scene + "@" + camera.getPixelSpread(), key -> {
+                Scene loaded = new SceneLoader(entry.scene).scene;
+                loaded.setPixelSpread(camera.getPixelSpread());
+                if (occlusionMaps) loaded.buildOcclusionMaps(OcclusionMap.DEFAULT_RESOLUTION);
+                return loaded;
+            });
+            Renderer renderer = new Renderer(scene, camera, entry.depth);
+            renderer.setSinglePrecision(singlePrecision);
+            renderer.setTileOrder(tileOrder);
+            jobs.add(batch.submit(entry.output, renderer, FrameSink.toFile(entry.output), null, entry.priority));
+        }
+
+        long pixels = 0;
+        for (BatchRenderer.Job job : jobs) {
+            try {
+                job.getFuture().join();
+                pixels += job.getPixels();
+                System.out.println(String.format(Locale.ROOT, "%-30s %10d pixels %10.1f ms %8.3f Mpixels/s",
+                        job.getName(), job.getPixels(), job.getElapsedNanos() / 1e6D, job.getThroughput() / 1e6D));
+            }
+            catch (CompletionException e) { System.err.println(job.getName() + " not rendered :"+e.getCause()); }
+        }
+        batch.shutdown();
+
+        final long elapsed = System.nanoTime() - start;
+        System.out.println(String.format(Locale.ROOT, "%d jobs, %d pixels in %.1f ms : %.3f Mpixels/s",
+                jobs.size(), pixels, elapsed / 1e6D, pixels * 1e3D / elapsed));
+    }
+
+    /**
+     * Save a frame, then the thumbnails resized from it, each named after its size ("output.png" gives
+     * "output_480x270.png" along with it).
+     * @param name The name of the frame file, its extension selects the format of every file.
+     * @param buffer The image buffer of the frame.
+     * @throws IOException If a file cannot be written.
+     */
+    private static void saveImage(String name, byte[] buffer) throws IOException {
+
+        ImageWriter.save(name, buffer, width, height);
+
+        for (int[] size : thumbnailSizes) {
+            // A thumbnail given by its width only keeps the aspect ratio of the frame
+            final int w = size[0], h = (size[1] > 0) ? size[1] : Math.max(1, (int) Math.round((double) height * w / width));
+            ImageWriter.save(suffixedName(name, "_" + w + "x" + h), ImageScaler.scale(buffer, width, height, w, h, resampleFilter), w, h);
+        }
+    }
+
+    /**
+     * Insert a frame number before the extension of a file name ("output.tga" becomes "output_0001.tga").
+     */
+    private static String frameName(String name, int frame) {
+        return suffixedName(name, String.format("_%04d", frame));
+    }
+
+    /**
+     * Insert a suffix before the extension of a file name.
+     */
+    private static String suffixedName(String name, String suffix) {
+        final String lower = name.toLowerCase();
+        final String extension =
+                lower.endsWith(ImageWriter.RLE_TGA) ? ImageWriter.RLE_TGA
+                : lower.endsWith(ImageWriter.PNG) ? ImageWriter.PNG
+                : ImageWriter.TGA;
+        return name.substring(0, name.length() - extension.length()) + suffix + name.substring(name.length() - extension.length());
+    }
+
+    /**
+     * Parse a list of thumbnail sizes such as "960x540,480" (a width alone keeps the aspect ratio of the frame).
+     * @throws IllegalArgumentException If a size is invalid.
+     */
+    private static void parseThumbnailSizes(String list) throws IllegalArgumentException {
+
+        for (String item : list.split(",")) {
+            final String[] dimensions = item.trim().toLowerCase().split("x");
+            try {
+                final int w = Integer.parseInt(dimensions[0]), h = (dimensions.length > 1) ? Integer.parseInt(dimensions[1]) : 0;
+                if (dimensions.length > 2 || w < 1 || h < 0 || (dimensions.length > 1 && h == 0)) throw new NumberFormatException();
+                thumbnailSizes.add(new int[] { w, h });
+            }
+            catch (NumberFormatException e) {
+                throw new IllegalArgumentException("The [sizes] option must be a list of <width>x<height> or <width> : " + item);
+            }
+        }
+    }
+
+    /**
+     * Parse the list of the tiles of the zoom pyramid to render, level/x/y separated by commas.
+     * @param list The list of the tiles.
+     * @throws IllegalArgumentException If a tile is invalid.
+     */
+    private static void parseZoomTiles(String list) throws IllegalArgumentException {
+
+        for (String item : list.split(",")) {
+            final String[] coordinates = item.trim().split("/");
+            try {
+                if (coordinates.length != 3) throw new NumberFormatException();
+                final int[] tile = { Integer.parseInt(coordinates[0]), Integer.parseInt(coordinates[1]), Integer.parseInt(coordinates[2]) };
+                if (tile[0] < 0 || tile[1] < 0 || tile[2] < 0) throw new NumberFormatException();
+                zoomTiles.add(tile);
+            }
+            catch (NumberFormatException e) {
+                throw new IllegalArgumentException("The [tiles] option must be a list of <level>/<x>/<y> : " + item);
+            }
+        }
     }
 
     /**
@@ -116,9 +569,11 @@ public class Main extends JavaTga {
                 break;
 
                 case "-o" :
-                    String output = args[++i];
-                    if (output.endsWith(".tga")) outputName = args[++i];
-                    else outputName = output + ".tga";
+                    try { outputName = args[++i]; }
+                    catch (ArrayIndexOutOfBoundsException e) {
+                        throw new ArrayIndexOutOfBoundsException("The [output] option must be followed by a file name");
+                    }
+                    if (!ImageWriter.isSupported(outputName)) outputName += ImageWriter.TGA;
                 break;
 
                 case "-s" :
@@ -131,11 +586,179 @@ public class Main extends JavaTga {
                     }
                 break;
 
+                case "-f" :
+                    singlePrecision = true;
+                break;
+
+                case "-a" :
+                    try { frames = Integer.parseInt(args[++i]); }
+                    catch (NumberFormatException e) {
+                        throw new NumberFormatException("The [frames] option must be an integer : " + args[i]);
+                    }
+                    catch (ArrayIndexOutOfBoundsException e) {
+                        throw new ArrayIndexOutOfBoundsException("The [frames] option must be followed by an integer");
+                    }
+                break;
+
+                case "-t" :
+                    reprojection = true;
+                break;
+
+                case "-m" :
+                    try { toneMapping = ToneMapping.fromName(args[++i]); }
+                    catch (ArrayIndexOutOfBoundsException e) {
+                        throw new ArrayIndexOutOfBoundsException("The [tonemapping] option must be followed by an operator name");
+                    }
+                break;
+
+                case "-e" :
+                    try { exposure = Double.parseDouble(args[++i]); }
+                    catch (NumberFormatException e) {
+                        throw new NumberFormatException("The [exposure] option must be a double : " + args[i]);
+                    }
+                    catch (ArrayIndexOutOfBoundsException e) {
+                        throw new ArrayIndexOutOfBoundsException("The [exposure] option must be followed by a double value");
+                    }
+                break;
+
+                case "-n" :
+                    denoise = true;
+                break;
+
+                case "-l" :
+                    try { budget = Double.parseDouble(args[++i]); }
+                    catch (NumberFormatException e) {
+                        throw new NumberFormatException("The [budget] option must be a double : " + args[i]);
+                    }
+                    catch (ArrayIndexOutOfBoundsException e) {
+                        throw new ArrayIndexOutOfBoundsException("The [budget] option must be followed by a double value");
+                    }
+                break;
+
+                case "-c" :
+                    try { checkpointName = args[++i]; }
+                    catch (ArrayIndexOutOfBoundsException e) {
+                        throw new ArrayIndexOutOfBoundsException("The [checkpoint] option must be followed by a file name");
+                    }
+                break;
+
+                case "-r" :
+                    resume = true;
+                break;
+
+                case "-p" :
+                    occlusionMaps = true;
+                break;
+
+                case "-i" :
+                    try { pathError = Double.parseDouble(args[++i]); }
+                    catch (NumberFormatException e) {
+                        throw new NumberFormatException("The [error] option must be a double : " + args[i]);
+                    }
+                    catch (ArrayIndexOutOfBoundsException e) {
+                        throw new ArrayIndexOutOfBoundsException("The [error] option must be followed by a double value");
+                    }
+                    if (!(pathError > 0.0D)) throw new IllegalArgumentException("The [error] option must be positive");
+                break;
+
+                case "-u" :
+                    try { adaptiveThreshold = Integer.parseInt(args[++i]); }
+                    catch (NumberFormatException e) {
+                        throw new NumberFormatException("The [threshold] option must be an integer : " + args[i]);
+                    }
+                    catch (ArrayIndexOutOfBoundsException e) {
+                        throw new ArrayIndexOutOfBoundsException("The [threshold] option must be followed by an integer");
+                    }
+                    if (adaptiveThreshold < 0) throw new IllegalArgumentException("The [threshold] option must be positive");
+                break;
+
+                case "-j" :
+                    dynamic = true;
+                break;
+
+                case "-y" :
+                    hybrid = true;
+                break;
+
+                case "-q" :
+                    try { tileOrder = TileOrder.fromName(args[++i]); }
+                    catch (ArrayIndexOutOfBoundsException e) {
+                        throw new ArrayIndexOutOfBoundsException("The [order] option must be followed by an order name");
+                    }
+                break;
+
+                case "-x" :
+                    try { parseThumbnailSizes(args[++i]); }
+                    catch (ArrayIndexOutOfBoundsException e) {
+                        throw new ArrayIndexOutOfBoundsException("The [sizes] option must be followed by a list of sizes");
+                    }
+                break;
+
+                case "-v" :
+                    try { parseZoomTiles(args[++i]); }
+                    catch (ArrayIndexOutOfBoundsException e) {
+                        throw new ArrayIndexOutOfBoundsException("The [tiles] option must be followed by a list of tiles");
+                    }
+                break;
+
+                case "-k" :
+                    try { resampleFilter = ResampleFilter.fromName(args[++i]); }
+                    catch (ArrayIndexOutOfBoundsException e) {
+                        throw new ArrayIndexOutOfBoundsException("The [filter] option must be followed by a filter name");
+                    }
+                break;
+
+                case "-b" :
+                    try { manifestName = args[++i]; }
+                    catch (ArrayIndexOutOfBoundsException e) {
+                        throw new ArrayIndexOutOfBoundsException("The [manifest] option must be followed by a file name");
+                    }
+                break;
+
+                case "-g" :
+                    try { gBufferName = args[++i]; }
+                    catch (ArrayIndexOutOfBoundsException e) {
+                        throw new ArrayIndexOutOfBoundsException("The [gbuffer] option must be followed by a file name");
+                    }
+                break;
+
                 case "--help" : throw new HelpException();
 
                 default : throw new IllegalArgumentException("Unknown option : " + args[i]);
             }
         }
+
+        // The adaptive and hybrid renderers only trace a plain frame, in double precision
+        final String conflict = otherRendering(true);
+        if (adaptiveThreshold >= 0 && hybrid) throw new IllegalArgumentException("The -u and -y options cannot be combined");
+        if (adaptiveThreshold >= 0 && conflict != null) throw new IllegalArgumentException("The -u option cannot be combined with " + conflict);
+        if (hybrid && conflict != null) throw new IllegalArgumentException("The -y option cannot be combined with " + conflict);
+
+        // The reprojection assumes a still scene
+        if (reprojection && dynamic) throw new IllegalArgumentException("The -t and -j options cannot be combined");
+
+        // The checkpoint is only taken, and deleted once the image is saved, by the plain traced frame
+        if (resume && checkpointName == null) throw new IllegalArgumentException("The -r option needs a checkpoint file (-c)");
+        final String unsupported = (adaptiveThreshold >= 0) ? "-u" : (hybrid) ? "-y" : otherRendering(false);
+        if (checkpointName != null && unsupported != null)
+            throw new IllegalArgumentException("The -c option cannot be combined with " + unsupported);
+    }
+
+    /**
+     * @param doublePrecision Whether the single precision kernel is a conflicting option too.
+     * @return The first option rendering something else than a single traced frame, null if none.
+     */
+    private static String otherRendering(boolean doublePrecision) {
+        if (manifestName != null) return "-b";
+        if (frames > 1) return "-a";
+        if (!zoomTiles.isEmpty()) return "-v";
+        if (gBufferName != null) return "-g";
+        if (budget > 0.0D) return "-l";
+        if (pathError > 0.0D) return "-i";
+        if (toneMapping != null) return "-m";
+        if (denoise) return "-n";
+        if (doublePrecision && singlePrecision) return "-f";
+        return null;
     }
 
     private static void printUsage() {
@@ -146,14 +769,35 @@ public class Main extends JavaTga {
                 + "\n\t-h <height>\t\tHeight of the output image."
                 + "\n\t-d <depth>\t\tMaximum ray depth."
                 + "\n\t-z <zoom>\t\tZoom factor."
-                + "\n\t-o <output>\t\tOutput file name."
+                + "\n\t-o <output>\t\tOutput file name (.tga, .rle.tga or .png)."
                 + "\n\t-s <scene>\t\tScene number."
+                + "\n\t-f\t\t\tUse the single-precision (float) rendering kernel."
+                + "\n\t-a <frames>\t\tRender a camera animation of the given number of frames."
+                + "\n\t-j\t\t\tAnimate the spheres instead of the camera, the scene being kept in a refitted bounding volume hierarchy."
+                + "\n\t-t\t\t\tReproject the previous frame of an animation, tracing only the invalidated pixels (still scenes only, not with -j)."
+                + "\n\t-m <tonemapping>\tRender in high dynamic range and tone map (clamp, reinhard or exponential)."
+                + "\n\t-e <exposure>\t\tExposure applied before the tone mapping."
+                + "\n\t-n\t\t\tDenoise the frame (edge-avoiding filter guided by the normals, depths and solids)."
+                + "\n\t-l <budget>\t\tRender within a time budget in milliseconds, lowering the quality if needed."
+                + "\n\t-c <checkpoint>\tRecord the completed tiles in the checkpoint file, deleted once the image is saved."
+                + "\n\t-r\t\t\tResume the render from the checkpoint file, tracing only the missing tiles."
+                + "\n\t-x <sizes>\t\tAlso save thumbnails resized from the frame, e.g. 960x540,480 (output_960x540.tga...)."
+                + "\n\t-k <filter>\t\tFilter of the thumbnails (box or lanczos, default lanczos)."
+                + "\n\t-i <error>\t\tPath trace the frame (diffuse global illumination) until the error of each pixel is below <error> levels."
+                + "\n\t-u <threshold>\t\tTrace a coarse grid, interpolating the blocks whose corners see one solid and differ by at most <threshold> levels."
+                + "\n\t-y\t\t\tRasterise the primary visibility, then trace from the first hits (double precision)."
+                + "\n\t-q <order>\t\tOrder of the tiles : rowmajor, morton or hilbert (default rowmajor)."
+                + "\n\t-v <tiles>\t\tRender tiles of the zoom pyramid of the frame, level/x/y from the bottom left, e.g. 0/3/2,4/0/0 (output_0_3_2.tga...)."
+                + "\n\t-p\t\t\tPrecompute the occlusion maps of the point lights to speed up the shadow rays."
+                + "\n\t-g <gbuffer>\t\tRelight the primary hits kept in the G-buffer file (captured if missing)."
+                + "\n\t-b <manifest>\t\tRender the jobs of a manifest on a shared pool (see the README)."
                 + "\n\t--help\t\t\tPrint this help."
                 + "\n\nScenes :"
                 + "\n\tDefault : Spheres on checker board."
                 + "\n\t1 : Spheres on checker board (alternative)."
                 + "\n\t2 : Spheres with refraction on checker board."
-                + "\n\t3 : Cornell Box\n"
+                + "\n\t3 : Cornell Box"
+                + "\n\t4 : Spheres on checker board under area lights (soft shadows).\n"
         );
     }
 
@@ -0,0 +1,101 @@
+package raytracing.maths;
+
+/**
+ * An axis aligned bounding box, possibly unbounded along some axes.
+ * @author Mathieu Niord
+ */
+public class BoundingBox {
+
+    /**
+     * The lower and upper corners of the box.
+     */
+    public final Vec3d min, max;
+
+    /**
+     * Constructs an empty box.
+     */
+    public BoundingBox() {
+        this.min = new Vec3d(Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY);
+        this.max = new Vec3d(Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY);
+    }
+
+    /**
+     * Constructs a box from its corners.
+     * @param min The lower corner {@link Vec3d}.
+     * @param max The upper corner {@link Vec3d}.
+     */
+    public BoundingBox(Vec3d min, Vec3d max) {
+        this.min = new Vec3d(min);
+        this.max = new Vec3d(max);
+    }
+
+    /**
+     * @return A box covering the whole space {@link BoundingBox}.
+     */
+    public static BoundingBox infinite() {
+        return new BoundingBox(
+                new Vec3d(Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY),
+                new Vec3d(Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY)
+        );
+    }
+
+    /**
+     * @return true if the box contains no point.
+     */
+    public boolean isEmpty() {
+        return min.x > max.x || min.y > max.y || min.z > max.z;
+    }
+
+    /**
+     * @return true if the box is unbounded along at least one axis.
+     */
+    public boolean isInfinite() {
+        return Double.isInfinite(min.x) || Double.isInfinite(min.y) || Double.isInfinite(min.z)
+                || Double.isInfinite(max.x) || Double.isInfinite(max.y) || Double.isInfinite(max.z);
+    }
+
+    /**
+     * @return The center of the box {@link Vec3d}.
+     */
+    public Vec3d getCenter() {
+        return new Vec3d((min.x + max.x) * 0.5D, (min.y + max.y) * 0.5D, (min.z + max.z) * 0.5D);
+    }
+
+    /**
+     * @return The radius of the sphere centered on the box and containing it (half of its diagonal) {@code double}.
+     */
+    public double getRadius() {
+        return max.sub(min).length() * 0.5D;
+    }
+
+    /**
+     * Grow the current box to contain a point.
+     * @param p The point {@link Vec3d}.
+     */
+    public void expand(Vec3d p) {
+        min.x = Math.min(min.x, p.x); max.x = Math.max(max.x, p.x);
+        min.y = Math.min(min.y, p.y); max.y = Math.max(max.y, p.y);
+        min.z = Math.min(min.z, p.z); max.z = Math.max(max.z, p.z);
+    }
+
+    /**
+     * Grow the current box to contain another box.
+     * @param b The box {@link BoundingBox}.
+     */
+    public void expand(BoundingBox b) {
+        if (b.isEmpty()) return;
+        expand(b.min);
+        expand(b.max);
+    }
+
+    /**
+     * @param p The point {@link Vec3d}.
+     * @return The distance from the point to the box, 0 if the point is inside it.
+     */
+    public double distance(Vec3d p) {
+        final double dx = Math.max(0.0D, Math.max(min.x - p.x, p.x - max.x));
+        final double dy = Math.max(0.0D, Math.max(min.y - p.y, p.y - max.y));
+        final double dz = Math.max(0.0D, Math.max(min.z - p.z, p.z - max.z));
+        return Math.sqrt(dx * dx + dy * dy + dz * dz);
+    }
+}
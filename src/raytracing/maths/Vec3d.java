@@ -86,6 +86,15 @@ public class Vec3d {
         return new Vec3d(this.x - v.x, this.y - v.y, this.z - v.z);
     }
 
+    /**
+     * Return the cross product of the current vector with v in a new vector.
+     * @param v The vector to cross with {@link Vec3d}.
+     * @return The cross product of the two vectors.
+     */
+    public Vec3d cross(Vec3d v) {
+        return new Vec3d(this.y * v.z - this.z * v.y, this.z * v.x - this.x * v.z, this.x * v.y - this.y * v.x);
+    }
+
     /**
      * Compute the length of the vector.
      * @return The length of the vector {@code double}.
@@ -0,0 +1,130 @@
+package raytracing.maths;
+
+/**
+ * A 3D vector class with single precision, used by the single-precision rendering kernel.
+ * @author Mathieu Niord
+ */
+public class Vec3f {
+
+    /**
+     * The x, y and z coordinates.
+     */
+    public float x, y, z;
+
+    /**
+     * Constructs a new vector with all components set to 0.
+     */
+    public Vec3f() {
+        this.x = this.y = this.z = 0.0F;
+    }
+
+    /**
+     * Constructs a new vector with the given coordinates.
+     * @param x the x coordinate {@code float}.
+     * @param y the y coordinate {@code float}.
+     * @param z the z coordinate {@code float}.
+     */
+    public Vec3f(float x, float y, float z) {
+        this.x = x;
+        this.y = y;
+        this.z = z;
+    }
+
+    /**
+     * Copy constructor.
+     * @param v The vector to copy {@link Vec3f}.
+     */
+    public Vec3f(Vec3f v) {
+        this.x = v.x;
+        this.y = v.y;
+        this.z = v.z;
+    }
+
+    /**
+     * Narrowing constructor from a double precision vector.
+     * @param v The vector to convert {@link Vec3d}.
+     */
+    public Vec3f(Vec3d v) {
+        this.x = (float) v.x;
+        this.y = (float) v.y;
+        this.z = (float) v.z;
+    }
+
+    /**
+     * Return the dot product of the current vector with v
+     * @param v The vector to dot with {@link Vec3f}.
+     * @return the dot product of the current vector with v {@code float}.
+     */
+    public float dot(Vec3f v) {
+        return (this.x * v.x + this.y * v.y + this.z * v.z);
+    }
+
+    /**
+     * Return the scale of the current vector with a {@code float} scale value s in a new vector
+     * @param s The scale {@code float}.
+     * @return a new vector according the scaling of the current vector.
+     */
+    public Vec3f scale(float s) {
+        return new Vec3f(this.x * s, this.y * s, this.z * s);
+    }
+
+    /**
+     * Set the scale of the current vector with a {@code float} scale value s in the current vector
+     * @param s The scale {@code float}.
+     */
+    public void setScale(float s) {
+        this.x *= s;
+        this.y *= s;
+        this.z *= s;
+    }
+
+    /**
+     * Return the sum of two vectors in a new vector.
+     * @param v The vector to add {@link Vec3f}.
+     * @return The sum of the two vectors.
+     */
+    public Vec3f add(Vec3f v) {
+        return new Vec3f(this.x + v.x, this.y + v.y, this.z + v.z);
+    }
+
+    /**
+     * Return the difference of two vectors in a new vector.
+     * @param v The vector to subtract {@link Vec3f}.
+     * @return The difference of the two vectors.
+     */
+    public Vec3f sub(Vec3f v) {
+        return new Vec3f(this.x - v.x, this.y - v.y, this.z - v.z);
+    }
+
+    /**
+     * Compute the length of the vector.
+     * @return The length of the vector {@code float}.
+     */
+    public float length() {
+        return ((float) Math.sqrt(this.x * this.x + this.y * this.y + this.z * this.z));
+    }
+
+    /**
+     * Compute the square length of the vector.
+     * @return The square length of the vector {@code float}.
+     */
+    public float lengthSquare()
+    {
+        return (this.x*this.x+this.y*this.y+this.z*this.z);
+    }
+
+    /**
+     * Normalize the vector.
+     * @return A new normalized vector {@link Vec3f}.
+     */
+    public Vec3f normalize() {
+        return (this.lengthSquare() == 0.0F) ? this : this.scale(1.0F / this.length());
+    }
+
+    /**
+     * Normalize the current vector.
+     */
+    public void setNormalize() {
+        this.setScale(1.0F / this.length());
+    }
+}
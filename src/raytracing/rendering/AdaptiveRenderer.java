@@ -0,0 +1,258 @@
+package raytracing.rendering;
+
+import raytracing.maths.Vec3d;
+import raytracing.solids.Solid;
+import raytracing.utils.Color;
+
+/**
+ * Renders a frame by adaptive subdivision : a coarse grid of pixels is traced first, then each block of the grid
+ * is either interpolated or subdivided, as a quadtree, down to the pixel.
+ * <p>
+ * A block is smooth when its four corners see the same solid (or all see no solid), have the same ray tree
+ * signature and their colors differ by at most a threshold on each channel : its inner pixels are then bilinearly
+ * interpolated from the corners, without tracing their ray tree. The signature of a pixel folds the solids hit by its
+ * reflected and refracted rays and the outcome of each of its shadow rays, so that corners on both sides of a shadow
+ * boundary, or of the edge of a reflected solid, never close a smooth block whatever their colors. Otherwise the block
+ * is split in four and the new corners are traced. The traced pixels are those of {@link Scene#getRayColor}.
+ * <p>
+ * The interpolation still misses what lies between the corners of a block without changing them : a solid, a shadow
+ * or a texture detail (a square of a checkerboard) smaller than the grid step, and the color variations within the
+ * threshold. A threshold of 0 traces every pixel. The tiles of the frame are rendered in parallel, each subdivided on
+ * its own. Only the double precision kernel is supported.
+ * @author Mathieu Niord
+ */
+public class AdaptiveRenderer {
+
+    /**
+     * Default step in pixels of the coarse grid.
+     */
+    public static final int DEFAULT_STEP = 8;
+
+    /**
+     * Default maximum difference, in 8-bit levels, between the corners of a smooth block.
+     */
+    public static final int DEFAULT_THRESHOLD = 8;
+
+    private static final int NO_HIT = -1;
+    private static final byte EMPTY = 0, INTERPOLATED = 1, TRACED = 2;
+
+    private final Scene scene;
+    private final Camera camera;
+    private final int depth;
+    private int step = DEFAULT_STEP, threshold = DEFAULT_THRESHOLD;
+    private byte[] buffer, states;
+    private int[] ids, signatures;
+    private long traced;
+
+    /**
+     * @param scene The scene to render.
+     * @param camera The viewport of the image {@link Camera}.
+     * @param depth The maximum ray depth.
+     */
+    public AdaptiveRenderer(Scene scene, Camera camera, int depth) {
+        this.scene = scene;
+        this.camera = camera;
+        this.depth = depth;
+    }
+
+    /**
+     * @param step The step in pixels of the coarse grid, at least 1 (every pixel traced).
+     */
+    public void setStep(int step) {
+        if (step < 1) throw new IllegalArgumentException("The grid step must be at least 1 : " + step);
+        this.step = step;
+    }
+
+    /**
+     * @param threshold The maximum difference, in 8-bit levels, between the corners of a smooth block, 0 tracing
+     * every pixel.
+     */
+    public void setThreshold(int threshold) {
+        if (threshold < 0) throw new IllegalArgumentException("The threshold must be positive : " + threshold);
+        this.threshold = threshold;
+    }
+
+    /**
+     * @return The number of pixels traced by the last render, the others being interpolated.
+     */
+    public long getTracedCount() {
+        return traced;
+    }
+
+    /**
+     * Trace the coarse grid of the frame, then interpolate or subdivide its blocks.
+     * @return The image buffer, 3 bytes per pixel ordered Blue, Green, Red.
+     */
+    public byte[] render() {
+
+        final int width = camera.getWidth(), height = camera.getHeight();
+        buffer = new byte[3 * width * height];
+        states = new byte[width * height];
+        ids = new int[width * height];
+        signatures = new int[width * height];
+
+        // The tiles hold disjoint pixels : a block never crosses the border of its tile
+        traced = Tile.split(width, height, Tile.DEFAULT_SIZE).parallelStream().mapToLong(tile -> {
+            final int[] cols = cuts(tile.x, tile.x + tile.width - 1), rows = cuts(tile.y, tile.y + tile.height - 1);
+            long count = 0L;
+            for (int j = 0; j < rows.length - 1; ++j)
+                for (int i = 0; i < cols.length - 1; ++i)
+                    count += refine(cols[i], rows[j], cols[i + 1], rows[j + 1]);
+            return count;
+        }).sum();
+
+        final byte[] image = buffer;
+        buffer = null;
+        states = null;
+        ids = null;
+        signatures = null;
+        return image;
+    }
+
+    /**
+     * The columns (or rows) of the coarse grid from the first to the last pixel of a tile, both included.
+     */
+    private int[] cuts(int first, int last) {
+        final int count = (last - first + step - 1) / step;
+        final int[] cuts = new int[Math.max(count, 1) + 1];
+        for (int k = 0; k < cuts.length; ++k) cuts[k] = Math.min(first + k * step, last);
+        return cuts;
+    }
+
+    /**
+     * Interpolate a block if it is smooth, otherwise split it in four, the pixels of its edges included.
+     * @return The number of pixels traced.
+     */
+    private long refine(int x0, int y0, int x1, int y1) {
+
+        final int width = camera.getWidth();
+        final int p00 = y0 * width + x0, p10 = y0 * width + x1, p01 = y1 * width + x0, p11 = y1 * width + x1;
+        long count = trace(x0, y0) + trace(x1, y0) + trace(x0, y1) + trace(x1, y1);
+        if (x1 - x0 <= 1 && y1 - y0 <= 1) return count; // Every pixel is a corner
+
+        final int mx = (x0 + x1) >>> 1, my = (y0 + y1) >>> 1;
+        if (threshold > 0 && same(p00, p10) && same(p00, p01) && same(p00, p11) && similar(p00, p10, p01, p11)) {
+
+            // The center, a corner of the children if the block is split, must match the interpolation too
+            count += trace(mx, my);
+            if (same(p00, my * width + mx) && predicted(x0, y0, x1, y1, mx, my)) {
+                interpolate(x0, y0, x1, y1);
+                return count;
+            }
+        }
+
+        final int[] cols = (x1 - x0 > 1) ? new int[] { x0, mx, x1 } : new int[] { x0, x1 };
+        final int[] rows = (y1 - y0 > 1) ? new int[] { y0, my, y1 } : new int[] { y0, y1 };
+        for (int j = 0; j < rows.length - 1; ++j)
+            for (int i = 0; i < cols.length - 1; ++i)
+                count += refine(cols[i], rows[j], cols[i + 1], rows[j + 1]);
+        return count;
+    }
+
+    /**
+     * Trace a pixel unless it was : its primary hit is resolved here, so that its solid is known, then shaded.
+     * @return 1 if the pixel was traced, 0 otherwise.
+     */
+    private int trace(int col, int row) {
+
+        final int p = row * camera.getWidth() + col;
+        if (states[p] == TRACED) return 0;
+
+        final Vec3d dir = camera.getDirection(col, row);
+        final Scene.Hit hit = scene.nearest(camera.getOrigin(), dir, null, 0);
+        final int id = hit.index;
+
+        final Signature signature = new Signature();
+        final Color color = (depth == 0 || id == NO_HIT)
+                ? scene.getAmbientLight()
+                : scene.shade(camera.getOrigin(), dir, hit.t, hit.solid, depth, signature);
+
+        buffer[3 * p] = (byte) color.getBlue();         // Blue
+        buffer[3 * p + 1] = (byte) color.getGreen();    // Green
+        buffer[3 * p + 2] = (byte) color.getRed();      // Red
+        ids[p] = id;
+        signatures[p] = signature.value;
+        states[p] = TRACED;
+        return 1;
+    }
+
+    /**
+     * @return Whether two pixels see the same solid with the same ray tree signature.
+     */
+    private boolean same(int p, int q) {
+        return ids[p] == ids[q] && signatures[p] == signatures[q];
+    }
+
+    /**
+     * @return Whether the colors of four pixels differ by at most the threshold on each channel.
+     */
+    private boolean similar(int p00, int p10, int p01, int p11) {
+        for (int c = 0; c < 3; ++c) {
+            final int a = buffer[3 * p00 + c] & 0xFF, b = buffer[3 * p10 + c] & 0xFF;
+            final int d = buffer[3 * p01 + c] & 0xFF, e = buffer[3 * p11 + c] & 0xFF;
+            final int min = Math.min(Math.min(a, b), Math.min(d, e)), max = Math.max(Math.max(a, b), Math.max(d, e));
+            if (max - min > threshold) return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return Whether the traced color of a pixel of a block is within the threshold of its interpolation.
+     */
+    private boolean predicted(int x0, int y0, int x1, int y1, int col, int row) {
+        final int p = row * camera.getWidth() + col;
+        for (int c = 0; c < 3; ++c)
+            if (Math.abs((buffer[3 * p + c] & 0xFF) - lerp(x0, y0, x1, y1, col, row, c)) > threshold) return false;
+        return true;
+    }
+
+    /**
+     * Bilinearly interpolate the pixels of a block from its corners, the traced pixels being kept.
+     */
+    private void interpolate(int x0, int y0, int x1, int y1) {
+
+        final int width = camera.getWidth();
+        for (int row = y0; row <= y1; ++row)
+            for (int col = x0; col <= x1; ++col) {
+
+                final int p = row * width + col;
+                if (states[p] != EMPTY) continue;
+
+                for (int c = 0; c < 3; ++c) buffer[3 * p + c] = (byte) lerp(x0, y0, x1, y1, col, row, c);
+                ids[p] = ids[y0 * width + x0];
+                signatures[p] = signatures[y0 * width + x0];
+                states[p] = INTERPOLATED;
+            }
+    }
+
+    /**
+     * @return The bilinear interpolation of a channel at a pixel of a block, from the corners of the block.
+     */
+    private int lerp(int x0, int y0, int x1, int y1, int col, int row, int c) {
+
+        final int width = camera.getWidth();
+        final double u = (x1 > x0) ? (double) (col - x0) / (x1 - x0) : 0.0D, v = (y1 > y0) ? (double) (row - y0) / (y1 - y0) : 0.0D;
+        final double bottom = (buffer[3 * (y0 * width + x0) + c] & 0xFF) * (1.0D - u) + (buffer[3 * (y0 * width + x1) + c] & 0xFF) * u;
+        final double top = (buffer[3 * (y1 * width + x0) + c] & 0xFF) * (1.0D - u) + (buffer[3 * (y1 * width + x1) + c] & 0xFF) * u;
+        return (int) Math.round(bottom * (1.0D - v) + top * v);
+    }
+
+    /**
+     * Folds the rays traced below the primary hit of a pixel into a signature : the solid hit by each reflected or
+     * refracted ray, and whether each shadow ray reaches its light.
+     */
+    private static class Signature implements RayObserver {
+
+        private int value = 1;
+
+        @Override
+        public void onRay(Vec3d P, Vec3d v, int depth, Solid hit, double t) {
+            value = 31 * value + ((hit == null) ? 0 : System.identityHashCode(hit));
+        }
+
+        @Override
+        public void onShadowRay(Vec3d I, Vec3d IS, Light light, Solid occluder) {
+            value = 31 * value + ((occluder == null) ? 1 : 2);
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package raytracing.rendering;
+
+import raytracing.maths.Vec3d;
+import raytracing.utils.Color;
+
+/**
+ * A light source with an area, casting soft shadows. Its position is the center of its area, the point the
+ * shaders are computed toward, while its visibility from a point is estimated by shadow rays toward points
+ * spread over the area.
+ * <p>
+ * The shadow rays are cast adaptively : a few probe rays (toward the rim and the center of the area) first tell
+ * whether the point is fully lit or fully shadowed, and only the points in the penumbra, where the probes disagree,
+ * get the full budget of stratified samples.
+ * @author Mathieu Niord
+ */
+public abstract class AreaLight extends Light {
+
+    /**
+     * Default number of stratified samples along each axis of the area, giving 16 shadow rays in the penumbra.
+     */
+    public static final int DEFAULT_SAMPLES = 4;
+
+    /**
+     * The parametric coordinates of the probe points : the corners of the parametric square, which are on the rim
+     * of the area, and its center.
+     */
+    static final double[][] PROBES = { {0.0D, 0.0D}, {1.0D, 0.0D}, {0.0D, 1.0D}, {1.0D, 1.0D}, {0.5D, 0.5D} };
+
+    private final int samples;
+
+    /**
+     * @param center The center of the area.
+     * @param specular The specular color of the light.
+     * @param diffuse The diffuse color of the light.
+     * @param intensity The intensity of the light.
+     * @param samples The number of stratified samples along each axis of the area, used in the penumbra.
+     */
+    protected AreaLight(Vec3d center, Color specular, Color diffuse, double intensity, int samples) {
+        super(center, specular, diffuse, intensity);
+        if (samples < 1) throw new IllegalArgumentException("An area light needs at least one sample per axis");
+        this.samples = samples;
+    }
+
+    /**
+     * @return The number of stratified samples along each axis of the area.
+     */
+    public int getSamples() {
+        return samples;
+    }
+
+    /**
+     * Map parametric coordinates onto the area. The mapping keeps the strata of the parametric square
+     * of about the same area on the light.
+     * @param s The first parametric coordinate, between 0 and 1.
+     * @param t The second parametric coordinate, between 0 and 1.
+     * @return The point of the area {@link Vec3d}.
+     */
+    public abstract Vec3d getPoint(double s, double t);
+
+    /**
+     * A pseudo random number between 0 and 1 (excluded) depending only on its arguments, used to jitter the
+     * samples without any shared generator between the rendering threads.
+     * @param seed The seed, for instance derived from the shaded point.
+     * @param index The index of the sample.
+     */
+    static double jitter(long seed, int index) {
+        long z = seed + (index + 1) * 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        z ^= z >>> 31;
+        return (z >>> 11) * 0x1.0p-53;
+    }
+}
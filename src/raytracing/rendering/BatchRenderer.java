@@ -0,0 +1,142 @@
+package raytracing.rendering;
+
+import java.util.Comparator;
+import java.util.PriorityQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Renders many frames concurrently on one shared work-stealing pool, the tiles of every frame being scheduled
+ * together rather than frame after frame.
+ * <p>
+ * Each time a worker needs a tile, it takes one from the job of highest priority, and among the jobs of the same
+ * priority from the one which was given the fewest tiles : jobs of equal priority progress at the same pace (round
+ * robin), so that a small job submitted after a large one completes after a few rounds instead of waiting for the
+ * end of the large one. Jobs may be submitted while others are being rendered : a new job starts from the share of
+ * the least served job of its priority, so that it neither overtakes the running jobs nor is overtaken by them.
+ * @author Mathieu Niord
+ */
+public class BatchRenderer {
+
+    private final ForkJoinPool pool;
+    private final int parallelism;
+
+    private final PriorityQueue<Job> queue = new PriorityQueue<>(
+            Comparator.comparingInt((Job job) -> -job.priority)
+                    .thenComparingLong(job -> job.share)
+                    .thenComparingLong(job -> job.sequence)
+    );
+    private long submitted = 0;
+    private int workers = 0;
+
+    /**
+     * A frame of the batch, with its measures.
+     */
+    public static class Job {
+
+        private final String name;
+        private final int priority, pixels;
+        private final long sequence;
+        private final Renderer.Frame frame;
+        private long share = 0; // Tiles given to the workers (from the share of the other jobs at submission), guarded by the batch renderer
+        private volatile long start = 0, end = 0;
+
+        private Job(String name, int priority, long sequence, Renderer renderer, FrameSink sink, ProgressListener progress) {
+            this.name = name;
+            this.priority = priority;
+            this.sequence = sequence;
+            this.pixels = renderer.getCamera().getWidth() * renderer.getCamera().getHeight();
+            this.frame = renderer.prepare(sink, progress);
+            this.frame.future.whenComplete((buffer, e) -> end = System.nanoTime());
+        }
+
+        public String getName() { return name; }
+
+        public int getPriority() { return priority; }
+
+        public int getPixels() { return pixels; }
+
+        /**
+         * @return The future image buffer, 3 bytes per pixel ordered Blue, Green, Red. Cancel it to stop the job.
+         */
+        public CompletableFuture<byte[]> getFuture() { return frame.future; }
+
+        /**
+         * @return The time between the first tile given to a worker and the completion of the job, in nanoseconds
+         * (0 until the job is complete).
+         */
+        public long getElapsedNanos() {
+            return (end == 0 || start == 0) ? 0 : end - start;
+        }
+
+        /**
+         * @return The number of pixels traced per second while the job was running (0 until the job is complete).
+         */
+        public double getThroughput() {
+            final long elapsed = getElapsedNanos();
+            return (elapsed == 0) ? 0.0D : pixels * 1e9D / elapsed;
+        }
+    }
+
+    /**
+     * @param parallelism The number of threads of the shared pool.
+     */
+    public BatchRenderer(int parallelism) {
+        this.pool = new ForkJoinPool(parallelism);
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Add a frame to the batch, its tiles being traced as soon as a worker is free.
+     * @param name The name of the job, used in the reports.
+     * @param renderer The renderer of the frame, giving the scene, camera and kernel {@link Renderer}.
+     * @param sink The sink of the frame, may be null {@link FrameSink}.
+     * @param progress The listener of the progress, may be null {@link ProgressListener}.
+     * @param priority The priority of the job, the tiles of higher priority jobs being traced first.
+     * @return The job {@link Job}.
+     */
+    public synchronized Job submit(String name, Renderer renderer, FrameSink sink, ProgressListener progress, int priority) {
+
+        Job job = new Job(name, priority, submitted++, renderer, sink, progress);
+        job.share = queue.stream().filter(other -> other.priority == priority).mapToLong(other -> other.share).min().orElse(0L);
+        queue.add(job);
+
+        while (workers < parallelism) {
+            ++workers;
+            pool.execute(this::work);
+        }
+        return job;
+    }
+
+    /**
+     * Stop accepting jobs once the submitted ones are complete, and release the threads of the pool.
+     */
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+    /**
+     * Trace tiles as long as a job has some left.
+     */
+    private void work() {
+        while (true) {
+
+            Job job;
+            int tile = -1;
+            synchronized (this) {
+                // Jobs without tiles left (or cancelled) are dropped from the queue when met
+                job = queue.poll();
+                while (job != null && (tile = job.frame.claim()) < 0) job = queue.poll();
+                if (job == null) {
+                    --workers;
+                    return;
+                }
+                if (job.start == 0) job.start = System.nanoTime();
+                ++job.share;
+                queue.add(job);
+            }
+
+            job.frame.trace(tile);
+        }
+    }
+}
@@ -0,0 +1,532 @@
+package raytracing.rendering;
+
+import raytracing.maths.BoundingBox;
+import raytracing.maths.Vec3d;
+import raytracing.solids.Solid;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A bounding volume hierarchy over the bounded solids of a scene (the spheres), for the scenes whose solids move
+ * between the frames : after a move, the boxes of the nodes are refitted bottom-up instead of building the
+ * hierarchy again, and the tree is only restructured when its quality degrades.
+ * <p>
+ * The tree is built top-down by the surface area heuristic (SAH), binning the centers of the solids along the
+ * widest axis, down to a solid per leaf. Its nodes are stored in arrays in depth-first order : the subtree of a
+ * node over k solids holds the 2k - 1 nodes following it, so that a subtree can be built again in place. The
+ * unbounded solids (the planes) are kept aside and tested against every ray.
+ * <p>
+ * The quality of a subtree is its SAH cost relative to the area of its root. After a refit, when the cost of the
+ * tree exceeds its cost at build time by the rebuild threshold, the lowest subtrees having degraded past the
+ * threshold (those whose subtrees are still fine) are built again; if the tree is still degraded, it is built again
+ * as a whole. A ray finds the solid {@link Scene#getRayColor} finds : the nearest, the first one of the scene on ties.
+ * @author Mathieu Niord
+ */
+public class BoundingVolumeHierarchy {
+
+    /**
+     * Default ratio of the SAH cost of the tree to its cost at build time beyond which it is rebuilt.
+     */
+    public static final double DEFAULT_REBUILD_THRESHOLD = 1.3D;
+
+    private static final double TRAVERSAL_COST = 1.0D, INTERSECTION_COST = 1.0D;
+    private static final int BINS = 12, MAX_SAH_LEVEL = 32;
+
+    /**
+     * Size of the traversal stacks : the tree is at most {@code MAX_SAH_LEVEL + 31} levels deep.
+     */
+    static final int STACK_SIZE = 64;
+
+    private List<Solid> objects;
+    private int[] unbounded;        // Indices in the scene of the solids tested against every ray
+    private int[] order;            // Indices in the scene of the solids, in the order of the leaves
+    private int[] first, right;     // Per node : first solid of its range, index of its right child (-1 for a leaf)
+    private int[] size;             // Per node : number of solids of its range
+    private double[] box;           // Per node : min x, y, z, max x, y, z
+    private double[] builtQuality;  // Per node : quality of its subtree when it was built
+    private double[] quality;       // Per node : quality of its subtree after the last refit
+    private final double threshold;
+    private long refits = 0L, partialRebuilds = 0L, fullRebuilds = 0L;
+
+    /**
+     * Build the hierarchy of the solids of a scene.
+     * @param objects The solids of the scene, indexed as in the scene.
+     * @param threshold The ratio of the SAH cost of the tree to its cost at build time beyond which it is rebuilt.
+     */
+    BoundingVolumeHierarchy(List<Solid> objects, double threshold) {
+        if (!(threshold >= 1.0D)) throw new IllegalArgumentException("The rebuild threshold must be at least 1 : " + threshold);
+        this.threshold = threshold;
+        build(objects);
+    }
+
+    /**
+     * Refit the boxes to the current solids of the scene, whose bounded solids may have been replaced (moved) since
+     * the last update, then rebuild the degraded subtrees. The whole tree is built again if solids were added or
+     * removed, or if a solid became unbounded.
+     * @param objects The solids of the scene, indexed as in the scene.
+     */
+    void update(List<Solid> objects) {
+
+        if (objects.size() != order.length + unbounded.length || !refit(objects)) {
+            build(objects);
+            return;
+        }
+        ++refits;
+        if (quality[0] <= threshold * builtQuality[0]) return;
+
+        rebuildDegraded(0, 0);
+        if (quality[0] > threshold * builtQuality[0]) build(objects);
+    }
+
+    /**
+     * @return The number of updates which only refitted the boxes, or rebuilt some subtrees.
+     */
+    public long getRefitCount() { return refits; }
+
+    /**
+     * @return The number of subtrees built again in place.
+     */
+    public long getPartialRebuildCount() { return partialRebuilds; }
+
+    /**
+     * @return The number of builds of the whole tree, the first one included.
+     */
+    public long getFullRebuildCount() { return fullRebuilds; }
+
+    /**
+     * @return The SAH cost of the tree relative to the area of its root, 0 for a tree without bounded solids.
+     */
+    public double getCost() { return (order.length == 0) ? 0.0D : quality[0]; }
+
+    /**
+     * Find the nearest intersection of a ray, as the loop over the solids of {@link Scene#getRayColor} does.
+     * Nothing is allocated : the stack of the traversal is the one of the hit holder of the calling thread, and the
+     * ray is given to the solids by its components.
+     * @param P The origin of the ray {@link Vec3d}.
+     * @param v The direction of the ray {@link Vec3d}.
+     * @param hit Receives the root value of the intersection, and lends its traversal stack {@link Scene.Hit}.
+     * @return The index in the scene of the nearest solid, -1 if none.
+     */
+    int nearest(Vec3d P, Vec3d v, Scene.Hit hit) {
+
+        double t = Double.MAX_VALUE;
+        int nearest = -1;
+        for (int index : unbounded) {
+            final double delta = objects.get(index).getIntersection(P.x, P.y, P.z, v.x, v.y, v.z);
+            if (delta > 0.0D && delta < t) {
+                t = delta;
+                nearest = index;
+            }
+        }
+
+        if (order.length > 0) {
+            final double ix = 1.0D / v.x, iy = 1.0D / v.y, iz = 1.0D / v.z;
+            final int[] stack = hit.stack;
+            int top = 0;
+            stack[top++] = 0;
+            while (top > 0) {
+                final int node = stack[--top];
+                if (!(entry(node, P.x, P.y, P.z, ix, iy, iz) <= t)) continue;
+
+                if (right[node] < 0) {
+                    final int index = order[first[node]];
+                    final double delta = objects.get(index).getIntersection(P.x, P.y, P.z, v.x, v.y, v.z);
+                    // Ties go to the first solid of the scene, as in the loop over the solids
+                    if (delta > 0.0D && (delta < t || (delta == t && index < nearest))) {
+                        t = delta;
+                        nearest = index;
+                    }
+                }
+                else {
+                    stack[top++] = right[node];
+                    stack[top++] = node + 1;
+                }
+            }
+        }
+
+        hit.t = t;
+        return nearest;
+    }
+
+    /**
+     * Find a solid crossing the segment [P, P + v] of a shadow ray, open at both ends. The ray is given by its
+     * components, and so are the rays given to the solids : the calls to the solids of a traversal are seldom
+     * inlined, and a shadow ray given to them as vectors would be allocated by each shader.
+     * @param px The origin of the shadow ray.
+     * @param vx The vector from the origin to the light.
+     * @param stack The traversal stack of the calling thread, of {@link #STACK_SIZE} entries.
+     * @return A solid crossing the segment, null if none {@link Solid}.
+     */
+    Solid occluder(double px, double py, double pz, double vx, double vy, double vz, int[] stack) {
+
+        for (int index : unbounded) {
+            final double delta = objects.get(index).getIntersection(px, py, pz, vx, vy, vz);
+            if (delta > 0.0D && delta < 1.0D) return objects.get(index);
+        }
+        if (order.length == 0) return null;
+
+        final double ix = 1.0D / vx, iy = 1.0D / vy, iz = 1.0D / vz;
+        int top = 0;
+        stack[top++] = 0;
+        while (top > 0) {
+            final int node = stack[--top];
+            if (!(entry(node, px, py, pz, ix, iy, iz) < 1.0D)) continue;
+
+            if (right[node] < 0) {
+                final Solid solid = objects.get(order[first[node]]);
+                final double delta = solid.getIntersection(px, py, pz, vx, vy, vz);
+                if (delta > 0.0D && delta < 1.0D) return solid;
+            }
+            else {
+                stack[top++] = right[node];
+                stack[top++] = node + 1;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Single precision variant of {@link #nearest(Vec3d, Vec3d, Scene.Hit)}, intersecting the packed solids of the
+     * float kernel. The boxes stay in double precision.
+     * @param geometry The packed geometry of the solids {@link FloatGeometry}.
+     * @param hit Receives the root value of the intersection, and lends its traversal stack {@link Scene.Hit}.
+     * @return The index in the scene of the nearest solid, -1 if none.
+     */
+    int nearest(FloatGeometry geometry, float px, float py, float pz, float vx, float vy, float vz, Scene.Hit hit) {
+
+        float t = Float.MAX_VALUE;
+        int nearest = -1;
+        for (int index : unbounded) {
+            final float delta = geometry.intersect(index, px, py, pz, vx, vy, vz);
+            if (delta > 0.0F && delta < t) {
+                t = delta;
+                nearest = index;
+            }
+        }
+
+        if (order.length > 0) {
+            final double ix = 1.0D / vx, iy = 1.0D / vy, iz = 1.0D / vz;
+            final int[] stack = hit.stack;
+            int top = 0;
+            stack[top++] = 0;
+            while (top > 0) {
+                final int node = stack[--top];
+                if (!(entry(node, px, py, pz, ix, iy, iz) <= t)) continue;
+
+                if (right[node] < 0) {
+                    final int index = order[first[node]];
+                    final float delta = geometry.intersect(index, px, py, pz, vx, vy, vz);
+                    // Ties go to the first solid of the scene, as in the loop over the solids
+                    if (delta > 0.0F && (delta < t || (delta == t && index < nearest))) {
+                        t = delta;
+                        nearest = index;
+                    }
+                }
+                else {
+                    stack[top++] = right[node];
+                    stack[top++] = node + 1;
+                }
+            }
+        }
+
+        hit.t = t;
+        return nearest;
+    }
+
+    /**
+     * Single precision variant of {@link #occluder(double, double, double, double, double, double, int[])}, intersecting the packed solids of the
+     * float kernel.
+     * @param geometry The packed geometry of the solids {@link FloatGeometry}.
+     * @param stack The traversal stack of the calling thread, of {@link #STACK_SIZE} entries.
+     * @return Whether a solid crosses the segment [P, P + v] of the shadow ray, open at both ends.
+     */
+    boolean occluded(FloatGeometry geometry, float px, float py, float pz, float vx, float vy, float vz, int[] stack) {
+
+        for (int index : unbounded) {
+            final float delta = geometry.intersect(index, px, py, pz, vx, vy, vz);
+            if (delta > 0.0F && delta < 1.0F) return true;
+        }
+        if (order.length == 0) return false;
+
+        final double ix = 1.0D / vx, iy = 1.0D / vy, iz = 1.0D / vz;
+        int top = 0;
+        stack[top++] = 0;
+        while (top > 0) {
+            final int node = stack[--top];
+            if (!(entry(node, px, py, pz, ix, iy, iz) < 1.0D)) continue;
+
+            if (right[node] < 0) {
+                final float delta = geometry.intersect(order[first[node]], px, py, pz, vx, vy, vz);
+                if (delta > 0.0F && delta < 1.0F) return true;
+            }
+            else {
+                stack[top++] = right[node];
+                stack[top++] = node + 1;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * The root value at which a ray enters the box of a node (0 if it starts inside), infinite if it misses it.
+     * An axis along which the ray does not move may yield NaN terms, which are ignored : the test stays conservative.
+     */
+    private double entry(int node, double px, double py, double pz, double ix, double iy, double iz) {
+
+        final int b = 6 * node;
+        double near = 0.0D, far = Double.POSITIVE_INFINITY;
+
+        double t1 = (box[b] - px) * ix, t2 = (box[b + 3] - px) * ix;
+        if (Math.min(t1, t2) > near) near = Math.min(t1, t2);
+        if (Math.max(t1, t2) < far) far = Math.max(t1, t2);
+
+        t1 = (box[b + 1] - py) * iy;
+        t2 = (box[b + 4] - py) * iy;
+        if (Math.min(t1, t2) > near) near = Math.min(t1, t2);
+        if (Math.max(t1, t2) < far) far = Math.max(t1, t2);
+
+        t1 = (box[b + 2] - pz) * iz;
+        t2 = (box[b + 5] - pz) * iz;
+        if (Math.min(t1, t2) > near) near = Math.min(t1, t2);
+        if (Math.max(t1, t2) < far) far = Math.max(t1, t2);
+
+        return (near <= far) ? near : Double.POSITIVE_INFINITY;
+    }
+
+    /**
+     * Build the whole tree.
+     */
+    private void build(List<Solid> objects) {
+
+        this.objects = objects;
+        final List<Integer> bounded = new ArrayList<>(), others = new ArrayList<>();
+        for (int i = 0; i < objects.size(); ++i) {
+            final BoundingBox bounds = objects.get(i).getBounds();
+            // An empty box is kept aside too : its solid is tested as it would be without the hierarchy
+            if (bounds.isInfinite() || bounds.isEmpty()) others.add(i);
+            else bounded.add(i);
+        }
+
+        unbounded = others.stream().mapToInt(Integer::intValue).toArray();
+        order = bounded.stream().mapToInt(Integer::intValue).toArray();
+        final int nodes = Math.max(2 * order.length - 1, 0);
+        first = new int[nodes];
+        right = new int[nodes];
+        size = new int[nodes];
+        box = new double[6 * nodes];
+        builtQuality = new double[nodes];
+        quality = new double[nodes];
+
+        if (order.length > 0) buildNode(0, 0, order.length, leafBoxes(0, order.length), 0, 0);
+        ++fullRebuilds;
+    }
+
+    /**
+     * The boxes of a range of solids of the leaf order, 6 values each.
+     * @return The boxes, null if a solid is no longer bounded.
+     */
+    private double[] leafBoxes(int start, int count) {
+        final double[] leaves = new double[6 * count];
+        for (int i = 0; i < count; ++i) {
+            final BoundingBox bounds = objects.get(order[start + i]).getBounds();
+            if (bounds.isInfinite() || bounds.isEmpty()) return null;
+            leaves[6 * i] = bounds.min.x;
+            leaves[6 * i + 1] = bounds.min.y;
+            leaves[6 * i + 2] = bounds.min.z;
+            leaves[6 * i + 3] = bounds.max.x;
+            leaves[6 * i + 4] = bounds.max.y;
+            leaves[6 * i + 5] = bounds.max.z;
+        }
+        return leaves;
+    }
+
+    /**
+     * Build the subtree of a node over a range of solids, reordering them.
+     * @param leaves The boxes of the solids from the base one, reordered with them.
+     * @param base The first solid covered by the leaves array.
+     * @param level The depth of the node : past {@link #MAX_SAH_LEVEL} the ranges are halved, which bounds the
+     * depth of the tree (and the stack of the traversals) whatever the distribution of the solids.
+     */
+    private void buildNode(int node, int start, int count, double[] leaves, int base, int level) {
+
+        first[node] = start;
+        size[node] = count;
+        final int b = 6 * node;
+        reset(box, b);
+        for (int i = start; i < start + count; ++i) merge(box, b, leaves, 6 * (i - base));
+
+        if (count == 1) {
+            right[node] = -1;
+            quality[node] = builtQuality[node] = INTERSECTION_COST;
+            return;
+        }
+
+        final int split = (level < MAX_SAH_LEVEL) ? partition(start, count, leaves, base) : count / 2;
+        buildNode(node + 1, start, split, leaves, base, level + 1);
+        right[node] = node + 2 * split;
+        buildNode(right[node], start + split, count - split, leaves, base, level + 1);
+        quality[node] = builtQuality[node] = nodeQuality(node);
+    }
+
+    /**
+     * Reorder a range of solids around the best SAH split of the centers of their boxes, in bins along the widest
+     * axis of the centers ; the range is halved if the centers coincide.
+     * @return The number of solids of the left part, between 1 and count - 1.
+     */
+    private int partition(int start, int count, double[] leaves, int base) {
+
+        final double[] lo = { Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY };
+        final double[] hi = { Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY };
+        for (int i = start; i < start + count; ++i)
+            for (int a = 0; a < 3; ++a) {
+                final double c = center(leaves, i - base, a);
+                lo[a] = Math.min(lo[a], c);
+                hi[a] = Math.max(hi[a], c);
+            }
+        int axis = 0;
+        for (int a = 1; a < 3; ++a) if (hi[a] - lo[a] > hi[axis] - lo[axis]) axis = a;
+        final double extent = hi[axis] - lo[axis];
+        if (!(extent > 0.0D)) return count / 2;
+
+        // Boxes and counts of the bins, then the costs of the splits between them
+        final int[] counts = new int[BINS];
+        final double[] bins = new double[6 * BINS];
+        for (int k = 0; k < BINS; ++k) reset(bins, 6 * k);
+        for (int i = start; i < start + count; ++i) {
+            final int k = bin(center(leaves, i - base, axis), lo[axis], extent);
+            ++counts[k];
+            merge(bins, 6 * k, leaves, 6 * (i - base));
+        }
+
+        final double[] leftArea = new double[BINS];
+        final double[] acc = new double[6];
+        reset(acc, 0);
+        for (int k = 0, n = 0; k < BINS - 1; ++k) {
+            n += counts[k];
+            merge(acc, 0, bins, 6 * k);
+            leftArea[k] = (n > 0) ? area(acc, 0) * n : 0.0D;
+        }
+        reset(acc, 0);
+        double best = Double.POSITIVE_INFINITY;
+        int bestBin = -1;
+        for (int k = BINS - 1, n = 0; k > 0; --k) {
+            n += counts[k];
+            merge(acc, 0, bins, 6 * k);
+            final double cost = leftArea[k - 1] + ((n > 0) ? area(acc, 0) * n : 0.0D);
+            if (n > 0 && n < count && cost < best) {
+                best = cost;
+                bestBin = k - 1;
+            }
+        }
+        if (bestBin < 0) return count / 2;
+
+        // Partition in place, the boxes following their solids
+        int i = start, j = start + count - 1;
+        while (i <= j) {
+            if (bin(center(leaves, i - base, axis), lo[axis], extent) <= bestBin) ++i;
+            else swap(i, j--, leaves, base);
+        }
+        return i - start;
+    }
+
+    /**
+     * Refit the boxes of the nodes bottom-up, and their quality.
+     * @return false if a solid became unbounded, the tree having to be built again.
+     */
+    private boolean refit(List<Solid> objects) {
+
+        this.objects = objects;
+        for (int index : unbounded) {
+            final BoundingBox bounds = objects.get(index).getBounds();
+            if (!bounds.isInfinite() && !bounds.isEmpty()) return false; // Now bounded : worth a place in the tree
+        }
+        if (order.length == 0) return true;
+
+        final double[] leaves = leafBoxes(0, order.length);
+        if (leaves == null) return false;
+
+        // The children follow their parent : a reverse scan visits them first
+        for (int node = first.length - 1; node >= 0; --node) {
+            final int b = 6 * node;
+            if (right[node] < 0) {
+                System.arraycopy(leaves, 6 * first[node], box, b, 6);
+                quality[node] = INTERSECTION_COST;
+            }
+            else {
+                reset(box, b);
+                merge(box, b, box, 6 * (node + 1));
+                merge(box, b, box, 6 * right[node]);
+                quality[node] = nodeQuality(node);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Build again the lowest degraded subtrees below a degraded node.
+     * @return Whether a subtree was built again.
+     */
+    private boolean rebuildDegraded(int node, int level) {
+
+        if (right[node] < 0 || quality[node] <= threshold * builtQuality[node]) return false;
+
+        boolean rebuilt = rebuildDegraded(node + 1, level + 1);
+        rebuilt |= rebuildDegraded(right[node], level + 1);
+        if (!rebuilt) {
+            // The degradation is in the splits of this node, its subtrees being fine
+            buildNode(node, first[node], size[node], leafBoxes(first[node], size[node]), first[node], level);
+            ++partialRebuilds;
+        }
+        else quality[node] = nodeQuality(node); // Its box is unchanged, its subtrees are better
+        return true;
+    }
+
+    /**
+     * The SAH cost of the subtree of an internal node relative to its area, from the qualities of its children.
+     */
+    private double nodeQuality(int node) {
+        final double area = area(box, 6 * node);
+        if (!(area > 0.0D)) return TRAVERSAL_COST + 2.0D * INTERSECTION_COST;
+        final int left = node + 1, r = right[node];
+        return TRAVERSAL_COST + (area(box, 6 * left) * quality[left] + area(box, 6 * r) * quality[r]) / area;
+    }
+
+    private void swap(int i, int j, double[] leaves, int base) {
+        final int solid = order[i];
+        order[i] = order[j];
+        order[j] = solid;
+        for (int k = 0; k < 6; ++k) {
+            final double value = leaves[6 * (i - base) + k];
+            leaves[6 * (i - base) + k] = leaves[6 * (j - base) + k];
+            leaves[6 * (j - base) + k] = value;
+        }
+    }
+
+    private static int bin(double center, double lo, double extent) {
+        return Math.min((int) ((center - lo) / extent * BINS), BINS - 1);
+    }
+
+    private static double center(double[] boxes, int i, int axis) {
+        return 0.5D * (boxes[6 * i + axis] + boxes[6 * i + 3 + axis]);
+    }
+
+    private static void reset(double[] boxes, int b) {
+        Arrays.fill(boxes, b, b + 3, Double.POSITIVE_INFINITY);
+        Arrays.fill(boxes, b + 3, b + 6, Double.NEGATIVE_INFINITY);
+    }
+
+    private static void merge(double[] target, int b, double[] source, int s) {
+        for (int a = 0; a < 3; ++a) {
+            target[b + a] = Math.min(target[b + a], source[s + a]);
+            target[b + 3 + a] = Math.max(target[b + 3 + a], source[s + 3 + a]);
+        }
+    }
+
+    private static double area(double[] boxes, int b) {
+        final double dx = boxes[b + 3] - boxes[b], dy = boxes[b + 4] - boxes[b + 1], dz = boxes[b + 5] - boxes[b + 2];
+        if (dx < 0.0D || dy < 0.0D || dz < 0.0D) return 0.0D;
+        return 2.0D * (dx * dy + dy * dz + dz * dx);
+    }
+}
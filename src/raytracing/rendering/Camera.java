@@ -0,0 +1,120 @@
+package raytracing.rendering;
+
+import raytracing.maths.Vec3d;
+
+/**
+ * The viewport through which the scene is seen : it gives the primary ray of each pixel of the image.
+ * By default the camera is placed at the origin and looks along -z, the zoom being the z coordinate of the
+ * image plane. The camera can also be moved and oriented, the image plane staying at the distance -zoom
+ * along the forward axis.
+ * @author Mathieu Niord
+ */
+public class Camera {
+
+    private final int width, height;
+    private final double zoom;
+    private final int min;
+    private final Vec3d position, right, up, forward;
+
+    /**
+     * @param width The width of the image in pixels.
+     * @param height The height of the image in pixels.
+     * @param zoom The zoom factor (z coordinate of the image plane).
+     */
+    public Camera(int width, int height, double zoom) {
+        this(width, height, zoom, new Vec3d(0, 0, 0), new Vec3d(0, 0, -1), new Vec3d(0, 1, 0));
+    }
+
+    /**
+     * @param width The width of the image in pixels.
+     * @param height The height of the image in pixels.
+     * @param zoom The zoom factor (the image plane is at the distance -zoom along the forward axis).
+     * @param position The position of the camera {@link Vec3d}.
+     * @param forward The direction the camera looks along {@link Vec3d}.
+     * @param up The approximate up direction of the image {@link Vec3d}.
+     */
+    public Camera(int width, int height, double zoom, Vec3d position, Vec3d forward, Vec3d up) {
+        this.width = width;
+        this.height = height;
+        this.zoom = zoom;
+        this.min = Math.min(width, height);
+        this.position = new Vec3d(position);
+        this.forward = forward.normalize();
+        this.right = this.forward.cross(up).normalize();
+        this.up = this.right.cross(this.forward);
+    }
+
+    /**
+     * Build a camera looking at a point, the up direction being +y.
+     * @param width The width of the image in pixels.
+     * @param height The height of the image in pixels.
+     * @param zoom The zoom factor.
+     * @param position The position of the camera {@link Vec3d}.
+     * @param target The point looked at {@link Vec3d}.
+     * @return The camera {@link Camera}.
+     */
+    public static Camera lookAt(int width, int height, double zoom, Vec3d position, Vec3d target) {
+        return new Camera(width, height, zoom, position, target.sub(position), new Vec3d(0, 1, 0));
+    }
+
+    /**
+     * Build a camera with the same position, orientation and field of view, for an image of another size.
+     * @param width The width of the image in pixels.
+     * @param height The height of the image in pixels.
+     * @return The camera {@link Camera}.
+     */
+    public Camera scaled(int width, int height) {
+        return new Camera(width, height, zoom, position, forward, up);
+    }
+
+    public int getWidth() { return width; }
+
+    public int getHeight() { return height; }
+
+    public double getZoom() { return zoom; }
+
+    /**
+     * @return The angle seen by a pixel at the center of the image, in radians.
+     */
+    public double getPixelSpread() { return 1.0D / (min * Math.abs(zoom)); }
+
+    /**
+     * @return The origin of the primary rays {@link Vec3d}.
+     */
+    public Vec3d getOrigin() {
+        return new Vec3d(position);
+    }
+
+    /**
+     * Compute the direction of the primary ray of a pixel (row 0 being the bottom of the image).
+     * @param col The column of the pixel.
+     * @param row The row of the pixel.
+     * @return The direction of the ray (not normalized) {@link Vec3d}.
+     */
+    public Vec3d getDirection(double col, double row) {
+        final double x = (col - width / 2.0D) / min;
+        final double y = (row - height / 2.0D) / min;
+        final double f = -zoom;
+        return new Vec3d(
+                right.x * x + up.x * y + forward.x * f,
+                right.y * x + up.y * y + forward.y * f,
+                right.z * x + up.z * y + forward.z * f
+        );
+    }
+
+    /**
+     * Project a point of the scene onto the image, inverse of {@link #getDirection(double, double)}.
+     * @param point The point to project {@link Vec3d}.
+     * @param pixel Receives the column and the row of the projected point (not rounded).
+     * @return The root value s such that point = origin + s.direction, or -1.0D if the point is behind the camera.
+     */
+    public double project(Vec3d point, double[] pixel) {
+        final double dx = point.x - position.x, dy = point.y - position.y, dz = point.z - position.z;
+        final double f = -zoom;
+        final double s = (dx * forward.x + dy * forward.y + dz * forward.z) / f;
+        if (!(s > 0.0D)) return -1.0D;
+        pixel[0] = (dx * right.x + dy * right.y + dz * right.z) / s * min + width / 2.0D;
+        pixel[1] = (dx * up.x + dy * up.y + dz * up.z) / s * min + height / 2.0D;
+        return s;
+    }
+}
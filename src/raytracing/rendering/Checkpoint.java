@@ -0,0 +1,249 @@
+package raytracing.rendering;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.BitSet;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only file keeping the completed tiles of a render, so that a render interrupted by a crash or a
+ * preemption resumes where it stopped instead of starting again.
+ * <p>
+ * The file is a header (the size of the frame, the size of the tiles and a key identifying the settings of the
+ * render) followed by a record per completed tile : its index, the length of its pixels, its pixels and the CRC32
+ * of the record. The records are gathered in memory and written, then synchronised to the disk, every
+ * {@link #DEFAULT_SYNC_TILES} tiles or {@link #DEFAULT_SYNC_MILLIS} milliseconds, so that a checkpoint costs one
+ * write and one fsync for many tiles. A crash loses at most the tiles of the last batch : on resume, the records
+ * are read up to the first truncated or corrupted one, and the file is cut there before new records are appended.
+ * @author Mathieu Niord
+ */
+public class Checkpoint implements Closeable {
+
+    /**
+     * Default number of tiles between two synchronisations of the file.
+     */
+    public static final int DEFAULT_SYNC_TILES = 64;
+
+    /**
+     * Default time between two synchronisations of the file, in milliseconds.
+     */
+    public static final long DEFAULT_SYNC_MILLIS = 5000L;
+
+    private static final int MAGIC = 0x43484b50; // "CHKP"
+    private static final int HEADER_SIZE = 4 * Integer.BYTES + Long.BYTES;
+    private static final int RECORD_OVERHEAD = 3 * Integer.BYTES;
+
+    private final FileChannel channel;
+    private final int width, height, tileSize;
+    private final BitSet completed = new BitSet();
+    private final CRC32 crc = new CRC32();
+    private final ByteBuffer batch;
+    private int syncTiles = DEFAULT_SYNC_TILES;
+    private long syncNanos = DEFAULT_SYNC_MILLIS * 1000000L;
+    private int pending = 0;
+    private long lastSync = System.nanoTime();
+
+    private Checkpoint(FileChannel channel, int width, int height, int tileSize) {
+        this.channel = channel;
+        this.width = width;
+        this.height = height;
+        this.tileSize = tileSize;
+        this.batch = ByteBuffer.allocate(DEFAULT_SYNC_TILES * (RECORD_OVERHEAD + 3 * tileSize * tileSize)).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Open a checkpoint file, starting it again unless it is resumed.
+     * @param filename The name of the file.
+     * @param width The width of the frame.
+     * @param height The height of the frame.
+     * @param tileSize The side of the tiles of the render.
+     * @param key A key identifying the settings of the render (scene, camera, depth...) : a file of another key is
+     * not resumed.
+     * @param resume true to keep the tiles of an existing file of the same frame and key.
+     * @param buffer The image buffer of the frame, receiving the pixels of the resumed tiles.
+     * @return The checkpoint.
+     * @throws IOException If the file cannot be read or written.
+     */
+    public static Checkpoint open(String filename, int width, int height, int tileSize, long key, boolean resume, byte[] buffer) throws IOException {
+
+        final Path path = Paths.get(filename);
+        if (resume && Files.isRegularFile(path)) {
+            FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            try {
+                Checkpoint checkpoint = new Checkpoint(channel, width, height, tileSize);
+                if (checkpoint.readHeader(key)) {
+                    checkpoint.restore(buffer);
+                    return checkpoint;
+                }
+            }
+            catch (IOException | RuntimeException e) {
+                channel.close();
+                throw e;
+            }
+            channel.close(); // Another render : started again
+        }
+
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.READ, StandardOpenOption.TRUNCATE_EXISTING);
+        Checkpoint checkpoint = new Checkpoint(channel, width, height, tileSize);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC).putInt(width).putInt(height).putInt(tileSize).putLong(key).flip();
+        while (header.hasRemaining()) channel.write(header);
+        channel.force(false);
+        return checkpoint;
+    }
+
+    /**
+     * @param syncTiles The number of tiles between two synchronisations of the file.
+     * @param syncMillis The time between two synchronisations of the file, in milliseconds.
+     */
+    public synchronized void setSyncPolicy(int syncTiles, long syncMillis) {
+        if (syncTiles < 1) throw new IllegalArgumentException("A synchronisation needs at least one tile");
+        this.syncTiles = syncTiles;
+        this.syncNanos = syncMillis * 1000000L;
+    }
+
+    /**
+     * Tell if the checkpoint was taken on a frame of the given size, cut into tiles of the given size.
+     */
+    public boolean matches(int width, int height, int tileSize) {
+        return this.width == width && this.height == height && this.tileSize == tileSize;
+    }
+
+    /**
+     * @param index The index of a tile.
+     * @return Whether the tile was completed by a previous render.
+     */
+    public synchronized boolean isCompleted(int index) {
+        return completed.get(index);
+    }
+
+    /**
+     * @return The number of completed tiles.
+     */
+    public synchronized int getCompletedCount() {
+        return completed.cardinality();
+    }
+
+    /**
+     * Record a completed tile, writing the batch of records to the disk when it is due.
+     * @param tile The tile {@link Tile}.
+     * @param buffer The image buffer holding the pixels of the tile.
+     * @throws IOException If the file cannot be written.
+     */
+    public void append(Tile tile, byte[] buffer) throws IOException {
+
+        final boolean sync;
+        synchronized (this) {
+            final int length = 3 * tile.width * tile.height;
+            if (batch.remaining() < RECORD_OVERHEAD + length) write();
+
+            final int start = batch.position();
+            batch.putInt(tile.index).putInt(length);
+            for (int row = tile.y; row < tile.y + tile.height; ++row)
+                batch.put(buffer, 3 * (row * width + tile.x), 3 * tile.width);
+
+            crc.reset();
+            crc.update(batch.array(), start, batch.position() - start);
+            batch.putInt((int) crc.getValue());
+
+            completed.set(tile.index);
+            sync = ++pending >= syncTiles || System.nanoTime() - lastSync >= syncNanos;
+            if (sync) {
+                write();
+                pending = 0;
+                lastSync = System.nanoTime();
+            }
+        }
+        if (sync) channel.force(false); // Out of the lock : the other workers keep appending meanwhile
+    }
+
+    /**
+     * Write the pending records and synchronise the file, then close it (nothing is done if it is closed).
+     * @throws IOException If the file cannot be written.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (!channel.isOpen()) return;
+        try {
+            write();
+            channel.force(false);
+        }
+        finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * Write the batch of records at the end of the file.
+     */
+    private void write() throws IOException {
+        batch.flip();
+        while (batch.hasRemaining()) channel.write(batch);
+        batch.clear();
+    }
+
+    /**
+     * @return Whether the header matches the frame and the key.
+     */
+    private boolean readHeader(long key) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        channel.position(0);
+        while (header.hasRemaining()) if (channel.read(header) < 0) return false;
+        header.flip();
+        return header.getInt() == MAGIC && header.getInt() == width && header.getInt() == height
+                && header.getInt() == tileSize && header.getLong() == key;
+    }
+
+    /**
+     * Read the records following the header into the buffer, up to the first invalid one, where the file is cut.
+     */
+    private void restore(byte[] buffer) throws IOException {
+
+        final List<Tile> tiles = Tile.split(width, height, tileSize);
+        final long size = channel.size();
+        long position = HEADER_SIZE;
+        final ByteBuffer head = ByteBuffer.allocate(2 * Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+
+        while (position + RECORD_OVERHEAD <= size) {
+
+            head.clear();
+            if (!readFully(head, position)) break;
+            final int index = head.getInt(0), length = head.getInt(Integer.BYTES);
+            if (index < 0 || index >= tiles.size()) break;
+            final Tile tile = tiles.get(index);
+            if (length != 3 * tile.width * tile.height || position + RECORD_OVERHEAD + length > size) break;
+
+            final ByteBuffer record = ByteBuffer.allocate(length + Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            if (!readFully(record, position + head.capacity())) break;
+            crc.reset();
+            crc.update(head.array());
+            crc.update(record.array(), 0, length);
+            if ((int) crc.getValue() != record.getInt(length)) break;
+
+            for (int row = 0; row < tile.height; ++row)
+                System.arraycopy(record.array(), 3 * row * tile.width, buffer, 3 * ((tile.y + row) * width + tile.x), 3 * tile.width);
+            completed.set(index);
+            position += RECORD_OVERHEAD + length;
+        }
+
+        channel.truncate(position);
+        channel.position(position);
+    }
+
+    private boolean readFully(ByteBuffer target, long position) throws IOException {
+        while (target.hasRemaining()) {
+            final int read = channel.read(target, position + target.position());
+            if (read < 0) return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,347 @@
+package raytracing.rendering;
+
+import raytracing.maths.Vec3d;
+import raytracing.maths.Vec3f;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+/**
+ * Renders a frame within a time budget, lowering its quality as much as needed.
+ * <p>
+ * The cost of the frame is first measured on probe pixels of a sparse grid spread over the whole image (one pixel
+ * out of {@link #PROBE_STRIDE} x {@link #PROBE_STRIDE}), which, unlike the first tiles, sees every part of the
+ * scene. The settings are then lowered step by step until the frame fits in what is left of the budget :
+ * <ol>
+ *     <li>the samples of the area lights are halved, down to one per light (noisier penumbrae);</li>
+ *     <li>the ray depth is lowered, down to {@link #MIN_DEPTH} (fewer bounces of reflection and refraction);</li>
+ *     <li>the frame is traced at a lower internal resolution, down to {@link #MIN_SCALE} of the size, and
+ *     upscaled bilinearly;</li>
+ *     <li>as a last resort, the primary rays only are traced (depth 1) at the lowest resolution.</li>
+ * </ol>
+ * Each setting tried is measured on probe pixels for a small share of the budget, the measures counting against
+ * it. The best setting is tried first, then the ladder of settings is bisected. The settings used and the time
+ * taken are reported in the {@link Result}.
+ * @author Mathieu Niord
+ */
+public class DeadlineRenderer {
+
+    /**
+     * One probe pixel is traced in each block of PROBE_STRIDE x PROBE_STRIDE pixels.
+     */
+    public static final int PROBE_STRIDE = 8;
+
+    /**
+     * The lowest depth reached before the resolution is lowered.
+     */
+    public static final int MIN_DEPTH = 2;
+
+    /**
+     * The lowest scale of the internal resolution.
+     */
+    public static final double MIN_SCALE = 0.125D;
+
+    /**
+     * Greatest fraction of the budget spent on the probes of one setting.
+     */
+    private static final double PROBE_SHARE = 0.05D;
+
+    /**
+     * Number of probe pixels traced between two checks of the time.
+     */
+    private static final int PROBE_BATCH = 32;
+
+    /**
+     * Fraction of the remaining budget planned for the render, the rest covering the errors of the estimate.
+     */
+    private static final double SAFETY = 0.85D;
+
+    private final Scene scene;
+    private final Camera camera;
+    private final int depth;
+    private boolean singlePrecision = false;
+
+    /**
+     * The frame and the settings it was rendered with.
+     */
+    public static class Result {
+
+        private final byte[] buffer;
+        private final int renderWidth, renderHeight, depth, shadowSamples;
+        private final long budgetNanos, estimatedNanos, elapsedNanos;
+
+        private Result(byte[] buffer, int renderWidth, int renderHeight, int depth, int shadowSamples,
+                       long budgetNanos, long estimatedNanos, long elapsedNanos) {
+            this.buffer = buffer;
+            this.renderWidth = renderWidth;
+            this.renderHeight = renderHeight;
+            this.depth = depth;
+            this.shadowSamples = shadowSamples;
+            this.budgetNanos = budgetNanos;
+            this.estimatedNanos = estimatedNanos;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        /**
+         * @return The image buffer at the size of the camera, 3 bytes per pixel ordered Blue, Green, Red.
+         */
+        public byte[] getBuffer() { return buffer; }
+
+        /**
+         * @return The width of the traced frame, before its upscaling.
+         */
+        public int getRenderWidth() { return renderWidth; }
+
+        /**
+         * @return The height of the traced frame, before its upscaling.
+         */
+        public int getRenderHeight() { return renderHeight; }
+
+        public int getDepth() { return depth; }
+
+        /**
+         * @return The cap of the samples per axis of the area lights, 0 if they kept their own.
+         */
+        public int getShadowSamples() { return shadowSamples; }
+
+        public long getBudgetNanos() { return budgetNanos; }
+
+        /**
+         * @return The estimated time of the render of the frame once its settings were chosen.
+         */
+        public long getEstimatedNanos() { return estimatedNanos; }
+
+        /**
+         * @return The time taken by the probes and the render, in nanoseconds.
+         */
+        public long getElapsedNanos() { return elapsedNanos; }
+
+        public boolean isWithinBudget() { return elapsedNanos <= budgetNanos; }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "depth %d, shadow samples %s, internal resolution %dx%d, %.1f ms of %.1f ms (estimated %.1f ms)",
+                    depth, (shadowSamples == 0) ? "as lights" : shadowSamples + "x" + shadowSamples,
+                    renderWidth, renderHeight, elapsedNanos / 1e6D, budgetNanos / 1e6D, estimatedNanos / 1e6D);
+        }
+    }
+
+    /**
+     * A candidate setting of the frame.
+     */
+    private static class Setting {
+        final int depth, shadowSamples;
+
+        Setting(int depth, int shadowSamples) {
+            this.depth = depth;
+            this.shadowSamples = shadowSamples;
+        }
+    }
+
+    /**
+     * @param scene The scene to render, whose pixel spread and shadow samples are set for the render.
+     * @param camera The viewport of the image, giving the size of the output {@link Camera}.
+     * @param depth The maximum ray depth, at full quality.
+     */
+    public DeadlineRenderer(Scene scene, Camera camera, int depth) {
+        this.scene = scene;
+        this.camera = camera;
+        this.depth = depth;
+    }
+
+    /**
+     * Use the single-precision (float) rendering kernel.
+     * @param singlePrecision true to trace the rays in single precision.
+     */
+    public void setSinglePrecision(boolean singlePrecision) {
+        this.singlePrecision = singlePrecision;
+    }
+
+    /**
+     * Render the frame at the best quality fitting in the budget.
+     * @param budgetNanos The time budget, in nanoseconds.
+     * @return The frame and its settings {@link Result}.
+     */
+    public Result render(long budgetNanos) {
+
+        final long start = System.nanoTime();
+        final int width = camera.getWidth(), height = camera.getHeight();
+        final double pixels = (double) width * height;
+
+        // Find the best setting fitting in the budget, the cost decreasing along the ladder : the best one is
+        // probed first, as it often fits, then the ladder is bisected
+        final List<Setting> ladder = ladder();
+        Setting chosen = ladder.get(0);
+        double costPerPixel = probe(chosen, budgetNanos);
+        if (costPerPixel * pixels > SAFETY * remaining(start, budgetNanos) && ladder.size() > 1) {
+            int fits = -1, low = 1, high = ladder.size() - 1;
+            double fitsCost = 0.0D, cheapestCost = 0.0D;
+            while (low <= high) {
+                final int middle = (low + high) >>> 1;
+                final double cost = probe(ladder.get(middle), budgetNanos);
+                if (middle == ladder.size() - 1) cheapestCost = cost;
+                if (cost * pixels <= SAFETY * remaining(start, budgetNanos)) {
+                    fits = middle;
+                    fitsCost = cost;
+                    high = middle - 1;
+                }
+                else low = middle + 1;
+            }
+            if (fits >= 0) {
+                chosen = ladder.get(fits);
+                costPerPixel = fitsCost;
+            }
+            else {
+                chosen = ladder.get(ladder.size() - 1);
+                costPerPixel = cheapestCost;
+            }
+        }
+
+        // The cheapest setting is still too slow : lower the resolution, the cost being proportional to the pixels
+        double scale = 1.0D;
+        if (costPerPixel * pixels > SAFETY * remaining(start, budgetNanos)) {
+            scale = Math.max(MIN_SCALE, Math.sqrt(SAFETY * remaining(start, budgetNanos) / (costPerPixel * pixels)));
+            if (scale == MIN_SCALE && chosen.depth > 1
+                    && costPerPixel * pixels * scale * scale > SAFETY * remaining(start, budgetNanos)) {
+                chosen = new Setting(1, chosen.shadowSamples);
+                costPerPixel = probe(chosen, budgetNanos);
+            }
+        }
+
+        final int renderWidth = Math.max(1, (int) (width * scale)), renderHeight = Math.max(1, (int) (height * scale));
+        final Camera scaled = (scale == 1.0D) ? camera : camera.scaled(renderWidth, renderHeight);
+        final long estimated = (long) (costPerPixel * renderWidth * renderHeight);
+
+        final double pixelSpread = scene.getPixelSpread();
+        final int shadowSamples = scene.getShadowSamples();
+        byte[] buffer;
+        try {
+            scene.setPixelSpread(pixelSpread * scaled.getPixelSpread() / camera.getPixelSpread());
+            scene.setShadowSamples(chosen.shadowSamples);
+            Renderer renderer = new Renderer(scene, scaled, chosen.depth);
+            renderer.setSinglePrecision(singlePrecision);
+            buffer = renderer.render(null, null).join();
+        }
+        finally {
+            scene.setPixelSpread(pixelSpread);
+            scene.setShadowSamples(shadowSamples);
+        }
+
+        if (scaled != camera) buffer = upscale(buffer, renderWidth, renderHeight, width, height);
+        return new Result(buffer, renderWidth, renderHeight, chosen.depth, chosen.shadowSamples,
+                budgetNanos, estimated, System.nanoTime() - start);
+    }
+
+    /**
+     * The settings to try, from the best to the cheapest : the shadow samples halved, then the depth lowered.
+     */
+    private List<Setting> ladder() {
+
+        int samples = 0;
+        for (Light light : scene.getLights())
+            if (light instanceof AreaLight) samples = Math.max(samples, ((AreaLight) light).getSamples());
+        if (scene.getShadowSamples() > 0) samples = Math.min(samples, scene.getShadowSamples());
+
+        final List<Setting> ladder = new ArrayList<>();
+        ladder.add(new Setting(depth, scene.getShadowSamples()));
+        for (int s = samples / 2; s >= 1; s /= 2) ladder.add(new Setting(depth, s));
+        final int lowest = (samples > 0) ? 1 : scene.getShadowSamples();
+        for (int d = depth - 1; d >= MIN_DEPTH; --d) ladder.add(new Setting(d, lowest));
+        return ladder;
+    }
+
+    private static double remaining(long start, long budgetNanos) {
+        return Math.max(0.0D, budgetNanos - (System.nanoTime() - start));
+    }
+
+    /**
+     * Trace probe pixels with a setting, in parallel like the frame, for at most {@link #PROBE_SHARE} of the budget.
+     * The probe pixels are taken from the grid in a scattered order, so that any number of them covers the image.
+     * @return The measured time per pixel, in nanoseconds.
+     */
+    private double probe(Setting setting, long budgetNanos) {
+
+        final int width = camera.getWidth(), height = camera.getHeight();
+        final int columns = (width + PROBE_STRIDE - 1) / PROBE_STRIDE, rows = (height + PROBE_STRIDE - 1) / PROBE_STRIDE;
+        final int cells = columns * rows, batches = (cells + PROBE_BATCH - 1) / PROBE_BATCH;
+        final long step = scatteringStep(cells);
+        final Vec3d origin = camera.getOrigin();
+        final Vec3f originF = new Vec3f(origin);
+        final int shadowSamples = scene.getShadowSamples();
+        final AtomicInteger traced = new AtomicInteger();
+
+        final long start = System.nanoTime(), stop = start + (long) (PROBE_SHARE * budgetNanos);
+        try {
+            scene.setShadowSamples(setting.shadowSamples);
+            IntStream.range(0, batches).parallel().forEach(batch -> {
+                if (batch > 0 && System.nanoTime() > stop) return;
+                final int end = Math.min(cells, (batch + 1) * PROBE_BATCH);
+                for (int k = batch * PROBE_BATCH; k < end; ++k) {
+                    final int cell = (int) (k * step % cells);
+                    final int col = Math.min(width - 1, (cell % columns) * PROBE_STRIDE + PROBE_STRIDE / 2);
+                    final int row = Math.min(height - 1, (cell / columns) * PROBE_STRIDE + PROBE_STRIDE / 2);
+                    final Vec3d dir = camera.getDirection(col, row);
+                    if (singlePrecision) scene.getRayColor(originF, new Vec3f(dir), setting.depth);
+                    else scene.getRayColor(origin, dir, setting.depth);
+                }
+                traced.addAndGet(end - batch * PROBE_BATCH);
+            });
+        }
+        finally {
+            scene.setShadowSamples(shadowSamples);
+        }
+        return (double) (System.nanoTime() - start) / traced.get();
+    }
+
+    /**
+     * A step coprime with the number of cells and near its golden section, so that the cells k * step (modulo the
+     * number of cells) visit every cell, consecutive ones lying far apart.
+     */
+    private static long scatteringStep(int cells) {
+        long step = Math.max(1L, Math.round(cells * 0.6180339887D));
+        while (gcd(step, cells) != 1L) ++step;
+        return step;
+    }
+
+    private static long gcd(long a, long b) {
+        return (b == 0L) ? a : gcd(b, a % b);
+    }
+
+    /**
+     * Upscale an image bilinearly, in fixed point arithmetic (weights of 8 bits).
+     * @param source The image, 3 bytes per pixel ordered Blue, Green, Red.
+     * @return The upscaled image, 3 bytes per pixel ordered Blue, Green, Red.
+     */
+    private static byte[] upscale(byte[] source, int sourceWidth, int sourceHeight, int width, int height) {
+
+        // Source columns and weights of each column of the output
+        final int[] left = new int[width], right = new int[width], weights = new int[width];
+        for (int col = 0; col < width; ++col) {
+            final double x = Math.max(0.0D, Math.min(sourceWidth - 1, (col + 0.5D) * sourceWidth / width - 0.5D));
+            left[col] = 3 * (int) x;
+            right[col] = 3 * Math.min(sourceWidth - 1, (int) x + 1);
+            weights[col] = (int) Math.round((x - (int) x) * 256.0D);
+        }
+
+        final byte[] buffer = new byte[3 * width * height];
+        IntStream.range(0, height).parallel().forEach(row -> {
+
+            final double y = Math.max(0.0D, Math.min(sourceHeight - 1, (row + 0.5D) * sourceHeight / height - 0.5D));
+            final int bottom = 3 * (int) y * sourceWidth, top = 3 * Math.min(sourceHeight - 1, (int) y + 1) * sourceWidth;
+            final int fy = (int) Math.round((y - (int) y) * 256.0D);
+
+            for (int col = 0, i = 3 * row * width; col < width; ++col) {
+                final int fx = weights[col];
+                for (int c = 0; c < 3; ++c, ++i) {
+                    final int lower = (256 - fx) * (source[bottom + left[col] + c] & 0xFF) + fx * (source[bottom + right[col] + c] & 0xFF);
+                    final int upper = (256 - fx) * (source[top + left[col] + c] & 0xFF) + fx * (source[top + right[col] + c] & 0xFF);
+                    buffer[i] = (byte) (((256 - fy) * lower + fy * upper + (1 << 15)) >> 16);
+                }
+            }
+        });
+        return buffer;
+    }
+}
@@ -0,0 +1,266 @@
+package raytracing.rendering;
+
+import raytracing.maths.Vec3d;
+import raytracing.utils.Color;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Renders the tiles of a zoomable image pyramid on request, for a viewer showing a frame far too large to be
+ * rendered up front (a gigapixel frame, of which only a few regions are ever seen).
+ * <p>
+ * Level 0 of the pyramid is the frame of the camera, each level halves the previous one, and the last level holds
+ * in a single tile. A tile (level, x, y), x from the left and y from the bottom of the level, is rendered by tracing
+ * one ray per pixel, through the center of the block of pixels of the frame the pixel covers.
+ * <p>
+ * The rendered tiles are kept in a bounded cache evicting the least recently used tile. When a spill directory is
+ * set, the evicted tiles are written there, and read back on a miss instead of being rendered again. Concurrent
+ * requests of the same tile are coalesced : the first one renders it, the others wait for its result.
+ * @author Mathieu Niord
+ */
+public class DeepZoomRenderer {
+
+    /**
+     * Default side in pixels of the tiles.
+     */
+    public static final int DEFAULT_TILE_SIZE = 256;
+
+    /**
+     * Default capacity of the cache in tiles (48 MB of 256 x 256 tiles).
+     */
+    public static final int DEFAULT_CAPACITY = 256;
+
+    private final Scene scene;
+    private final Camera camera;
+    private final int depth;
+    private final int tileSize, capacity, levels;
+    private final LinkedHashMap<Long, byte[]> cache = new LinkedHashMap<>(16, 0.75F, true);
+    private final ConcurrentHashMap<Long, CompletableFuture<byte[]>> pending = new ConcurrentHashMap<>();
+    private final LongAdder hits = new LongAdder(), renders = new LongAdder(), spillReads = new LongAdder(), coalesced = new LongAdder();
+    private volatile Path spillDirectory = null;
+
+    /**
+     * @param scene The scene to render, not edited while tiles are requested.
+     * @param camera The viewport of the full resolution frame, level 0 of the pyramid {@link Camera}.
+     * @param depth The maximum ray depth.
+     * @param tileSize The side in pixels of the tiles.
+     * @param capacity The maximum number of tiles kept in memory.
+     */
+    public DeepZoomRenderer(Scene scene, Camera camera, int depth, int tileSize, int capacity) {
+        if (tileSize < 1 || capacity < 1) throw new IllegalArgumentException("The tiles and the cache must hold at least a pixel and a tile");
+        this.scene = scene;
+        this.camera = camera;
+        this.depth = depth;
+        this.tileSize = tileSize;
+        this.capacity = capacity;
+
+        int count = 1;
+        for (int w = camera.getWidth(), h = camera.getHeight(); w > tileSize || h > tileSize; ++count) {
+            w = (w + 1) / 2;
+            h = (h + 1) / 2;
+        }
+        this.levels = count;
+    }
+
+    /**
+     * @param spillDirectory The directory receiving the evicted tiles, dedicated to this renderer (its files are
+     * served as tiles of the scene), null to drop them.
+     */
+    public void setSpillDirectory(Path spillDirectory) {
+        this.spillDirectory = spillDirectory;
+    }
+
+    public int getLevelCount() { return levels; }
+
+    public int getTileSize() { return tileSize; }
+
+    /**
+     * @param level A level of the pyramid.
+     * @return The width in pixels of the level.
+     */
+    public int getLevelWidth(int level) {
+        return (int) ((camera.getWidth() + (1L << level) - 1) >> level);
+    }
+
+    /**
+     * @param level A level of the pyramid.
+     * @return The height in pixels of the level.
+     */
+    public int getLevelHeight(int level) {
+        return (int) ((camera.getHeight() + (1L << level) - 1) >> level);
+    }
+
+    /**
+     * @param level A level of the pyramid.
+     * @param x The column of the tile in the level.
+     * @param y The row of the tile in the level, from the bottom.
+     * @return The pixels of the level covered by the tile, the tiles of the last row and column being smaller {@link Tile}.
+     * @throws IllegalArgumentException If the tile is out of the pyramid.
+     */
+    public Tile getTileBounds(int level, int x, int y) {
+        if (level < 0 || level >= levels) throw new IllegalArgumentException("No level " + level + " in the pyramid");
+        final int width = getLevelWidth(level), height = getLevelHeight(level);
+        final int tilesX = (width + tileSize - 1) / tileSize, tilesY = (height + tileSize - 1) / tileSize;
+        if (x < 0 || x >= tilesX || y < 0 || y >= tilesY) throw new IllegalArgumentException("No tile " + x + "," + y + " in level " + level);
+        return new Tile(y * tilesX + x, x * tileSize, y * tileSize, Math.min(tileSize, width - x * tileSize), Math.min(tileSize, height - y * tileSize));
+    }
+
+    /**
+     * Get a tile, rendering it unless it is cached in memory or spilled to the disk. Concurrent requests of a tile
+     * being rendered wait for it.
+     * @param level A level of the pyramid.
+     * @param x The column of the tile in the level.
+     * @param y The row of the tile in the level, from the bottom.
+     * @return The pixels of the tile, 3 bytes per pixel ordered Blue, Green, Red, row 0 being the bottom of the
+     * tile. The buffer is shared : it must not be modified.
+     * @throws IllegalArgumentException If the tile is out of the pyramid.
+     */
+    public byte[] getTile(int level, int x, int y) {
+
+        final Tile bounds = getTileBounds(level, x, y);
+        final long key = ((long) level << 56) | ((long) x << 28) | y;
+
+        byte[] tile;
+        synchronized (cache) { tile = cache.get(key); }
+        if (tile != null) {
+            hits.increment();
+            return tile;
+        }
+
+        final CompletableFuture<byte[]> mine = new CompletableFuture<>();
+        final CompletableFuture<byte[]> rendering = pending.putIfAbsent(key, mine);
+        if (rendering != null) {
+            coalesced.increment();
+            return rendering.join();
+        }
+
+        try {
+            // A request completed since the lookup has left its tile in the cache before leaving the pending ones
+            synchronized (cache) { tile = cache.get(key); }
+            if (tile == null) tile = readSpilled(level, x, y, 3 * bounds.width * bounds.height);
+            if (tile == null) {
+                tile = render(level, bounds);
+                renders.increment();
+            }
+            else spillReads.increment();
+
+            store(key, tile);
+            mine.complete(tile);
+            return tile;
+        }
+        catch (RuntimeException | Error e) {
+            mine.completeExceptionally(e);
+            throw e;
+        }
+        finally {
+            pending.remove(key, mine);
+        }
+    }
+
+    /**
+     * @return The number of requests served from the memory cache.
+     */
+    public long getHits() { return hits.sum(); }
+
+    /**
+     * @return The number of tiles rendered.
+     */
+    public long getRenders() { return renders.sum(); }
+
+    /**
+     * @return The number of tiles read back from the spill directory.
+     */
+    public long getSpillReads() { return spillReads.sum(); }
+
+    /**
+     * @return The number of requests which waited for the render of another request.
+     */
+    public long getCoalesced() { return coalesced.sum(); }
+
+    /**
+     * Trace the pixels of a tile, each through the center of the block of pixels of the frame it covers.
+     */
+    private byte[] render(int level, Tile bounds) {
+
+        final byte[] tile = new byte[3 * bounds.width * bounds.height];
+        final double scale = 1 << level, offset = 0.5D * scale - 0.5D;
+        final Vec3d origin = camera.getOrigin();
+
+        for (int row = 0; row < bounds.height; ++row)
+            for (int col = 0; col < bounds.width; ++col) {
+
+                final Vec3d dir = camera.getDirection((bounds.x + col) * scale + offset, (bounds.y + row) * scale + offset);
+                final Color color = scene.getRayColor(origin, dir, depth);
+
+                final int index = 3 * (row * bounds.width + col);
+                tile[index] = (byte) color.getBlue();       // Blue
+                tile[index + 1] = (byte) color.getGreen();  // Green
+                tile[index + 2] = (byte) color.getRed();    // Red
+            }
+        return tile;
+    }
+
+    /**
+     * Cache a tile, then spill the evicted ones out of the lock.
+     */
+    private void store(long key, byte[] tile) {
+
+        final List<Map.Entry<Long, byte[]>> evicted = new ArrayList<>();
+        synchronized (cache) {
+            cache.put(key, tile);
+            final Iterator<Map.Entry<Long, byte[]>> eldest = cache.entrySet().iterator();
+            while (cache.size() > capacity) {
+                evicted.add(eldest.next());
+                eldest.remove();
+            }
+        }
+
+        final Path directory = spillDirectory;
+        if (directory == null) return;
+        for (Map.Entry<Long, byte[]> entry : evicted) {
+            final long k = entry.getKey();
+            final Path file = spillFile(directory, (int) (k >>> 56), (int) ((k >>> 28) & 0xFFFFFFFL), (int) (k & 0xFFFFFFFL));
+            if (Files.exists(file)) continue; // Spilled earlier : the tiles do not change
+            try {
+                // Written aside then moved, so that a reader never sees a partial tile
+                final Path temporary = Files.createTempFile(directory, "tile", ".tmp");
+                Files.write(temporary, entry.getValue());
+                Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+            catch (IOException e) {
+                System.err.println("Tile not spilled :" + e); // Rendered again if requested
+            }
+        }
+    }
+
+    /**
+     * @return The spilled tile, null if it is not on the disk or cannot be read.
+     */
+    private byte[] readSpilled(int level, int x, int y, int length) {
+        final Path directory = spillDirectory;
+        if (directory == null) return null;
+        final Path file = spillFile(directory, level, x, y);
+        try {
+            if (!Files.isRegularFile(file) || Files.size(file) != length) return null;
+            return Files.readAllBytes(file);
+        }
+        catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static Path spillFile(Path directory, int level, int x, int y) {
+        return directory.resolve(level + "_" + x + "_" + y + ".tile");
+    }
+}
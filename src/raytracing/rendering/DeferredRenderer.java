@@ -0,0 +1,154 @@
+package raytracing.rendering;
+
+import raytracing.maths.Vec3d;
+import raytracing.solids.Solid;
+import raytracing.utils.Color;
+
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+/**
+ * Renders a frame while capturing its primary intersections in a {@link GBuffer}, then relights it : when only the
+ * lights or the ambient light of the scene changed, {@link #relight()} skips the primary visibility and only runs
+ * the shading of the kept intersections (shaders, reflected and refracted rays).
+ * @author Mathieu Niord
+ */
+public class DeferredRenderer {
+
+    private final Scene scene;
+    private final Camera camera;
+    private final int depth;
+    private GBuffer gBuffer;
+
+    /**
+     * @param scene The scene to render.
+     * @param camera The viewport of the image {@link Camera}.
+     * @param depth The maximum ray depth.
+     */
+    public DeferredRenderer(Scene scene, Camera camera, int depth) {
+        this.scene = scene;
+        this.camera = camera;
+        this.depth = depth;
+    }
+
+    /**
+     * Constructs a renderer relighting a G-buffer captured earlier (for instance loaded from the disk).
+     * @param scene The scene to render, with the geometry the G-buffer was captured on.
+     * @param camera The viewport the G-buffer was captured with {@link Camera}.
+     * @param depth The maximum ray depth.
+     * @param gBuffer The G-buffer {@link GBuffer}.
+     * @throws IllegalArgumentException If the G-buffer does not match the camera or the scene.
+     */
+    public DeferredRenderer(Scene scene, Camera camera, int depth, GBuffer gBuffer) {
+        this(scene, camera, depth);
+        if (!gBuffer.matches(camera.getWidth(), camera.getHeight(), camera.getZoom(), scene.getObjects().size()))
+            throw new IllegalArgumentException("The G-buffer does not match the camera or the scene");
+        this.gBuffer = gBuffer;
+    }
+
+    /**
+     * @return The G-buffer of the last rendered frame, null if none.
+     */
+    public GBuffer getGBuffer() {
+        return gBuffer;
+    }
+
+    /**
+     * Trace the frame and capture its G-buffer.
+     * @return The image buffer, 3 bytes per pixel ordered Blue, Green, Red.
+     */
+    public byte[] render() {
+        final byte[] buffer = new byte[3 * camera.getWidth() * camera.getHeight()];
+        trace(buffer, null);
+        return buffer;
+    }
+
+    /**
+     * Trace the frame in high dynamic range and capture its G-buffer, for instance to {@link Denoiser denoise} it.
+     * @param framebuffer The framebuffer receiving the frame, of the size of the camera {@link HdrFramebuffer}.
+     */
+    public void render(HdrFramebuffer framebuffer) {
+        trace(null, framebuffer);
+    }
+
+    /**
+     * Trace the frame into the buffer or the framebuffer (the other one being null) and capture its G-buffer.
+     */
+    private void trace(byte[] buffer, HdrFramebuffer framebuffer) {
+
+        final int width = camera.getWidth(), height = camera.getHeight();
+        final List<Solid> objects = scene.getObjects();
+        final GBuffer captured = new GBuffer(width, height, camera.getZoom(), objects.size());
+        final Map<Solid, Integer> indices = new IdentityHashMap<>();
+        for (int id = 0; id < objects.size(); ++id) indices.put(objects.get(id), id);
+
+        IntStream.range(0, height).parallel().forEach(row -> {
+            FirstHit firstHit = new FirstHit();
+            for (int col = 0; col < width; ++col) {
+
+                final int i = row * width + col;
+                final Vec3d origin = camera.getOrigin(), dir = camera.getDirection(col, row);
+                firstHit.reset();
+                final Color color = scene.getRayColor(origin, dir, depth, firstHit);
+                if (buffer != null) write(buffer, i, color);
+                else framebuffer.set(col, row, color);
+
+                captured.variances[i] = firstHit.getVariance();
+                if (firstHit.solid == null) continue;
+
+                final Vec3d point = origin.add(dir.scale(firstHit.t));
+                Vec3d normal = firstHit.solid.getNormal(point);
+                if (dir.dot(normal) > 0.0D) normal = normal.scale(-1.0D);
+                final Color albedo = firstHit.solid.getColor(point, firstHit.t * dir.length() * scene.getPixelSpread());
+
+                captured.ids[i] = indices.get(firstHit.solid);
+                captured.depths[i] = firstHit.t;
+                captured.normals[3 * i] = (float) normal.x;
+                captured.normals[3 * i + 1] = (float) normal.y;
+                captured.normals[3 * i + 2] = (float) normal.z;
+                captured.albedos[3 * i] = albedo.getBlue();
+                captured.albedos[3 * i + 1] = albedo.getGreen();
+                captured.albedos[3 * i + 2] = albedo.getRed();
+            }
+        });
+
+        gBuffer = captured;
+    }
+
+    /**
+     * Shade again the intersections of the G-buffer with the current lights of the scene.
+     * @return The image buffer, 3 bytes per pixel ordered Blue, Green, Red.
+     * @throws IllegalStateException If no G-buffer was captured.
+     */
+    public byte[] relight() {
+
+        if (gBuffer == null) throw new IllegalStateException("No G-buffer to relight");
+
+        final int width = camera.getWidth(), height = camera.getHeight();
+        final List<Solid> objects = scene.getObjects();
+        final byte[] buffer = new byte[3 * width * height];
+
+        IntStream.range(0, height).parallel().forEach(row -> {
+            for (int col = 0; col < width; ++col) {
+
+                final int i = row * width + col;
+                final int id = gBuffer.ids[i];
+
+                Color color = (id == GBuffer.NO_HIT || depth == 0)
+                        ? scene.getAmbientLight()
+                        : scene.shade(camera.getOrigin(), camera.getDirection(col, row), gBuffer.depths[i], objects.get(id), depth, null);
+                write(buffer, i, color);
+            }
+        });
+
+        return buffer;
+    }
+
+    private static void write(byte[] buffer, int pixel, Color color) {
+        buffer[3 * pixel] = (byte)color.getBlue();      // Blue
+        buffer[3 * pixel + 1] = (byte)color.getGreen(); // Green
+        buffer[3 * pixel + 2] = (byte)color.getRed();   // Red
+    }
+}
@@ -0,0 +1,261 @@
+package raytracing.rendering;
+
+import java.util.List;
+
+/**
+ * Edge-avoiding a trous wavelet filter, removing the noise of the sampled effects (the penumbrae of the area lights)
+ * from a high dynamic range frame, so that a frame rendered with few samples looks like one rendered with many.
+ * <p>
+ * The frame is first divided by the albedo of the {@link GBuffer}, so that the filter only blurs the lighting and
+ * keeps the patterns of the surfaces, which are multiplied back at the end. Each pass then blurs the lighting with a
+ * 5 x 5 B3-spline kernel whose taps are spread 1, 2, 4... pixels apart, so that a few passes cover a wide footprint
+ * at the cost of 25 taps per pixel. The weight of a tap is cut across the edges of the geometry : taps seeing
+ * another solid are ignored, and taps whose normal or depth differ from the ones of the filtered pixel are faded.
+ * Taps of a different luminance are faded too, relative to the variance of the pixel kept by the G-buffer : the
+ * noise of the penumbrae is blurred, while the edges of the shadows stand out of it and the pixels rendered without
+ * noise (out of the penumbrae) are left untouched. The variance is filtered along with the lighting.
+ * <p>
+ * The passes run in parallel on the tiles of the frame.
+ * @author Mathieu Niord
+ */
+public class Denoiser {
+
+    /**
+     * Default number of passes, the last one spreading its taps 4 pixels apart.
+     */
+    public static final int DEFAULT_ITERATIONS = 3;
+
+    private static final float MIN_EXPONENT = -16.0F;
+
+    private static final float[] KERNEL = { 1.0F / 16.0F, 1.0F / 4.0F, 3.0F / 8.0F, 1.0F / 4.0F, 1.0F / 16.0F };
+
+    private final GBuffer gBuffer;
+    private int iterations = DEFAULT_ITERATIONS;
+    private float luminanceSigma = 2.0F;
+    private int normalPower = 64;
+    private float depthSigma = 1.0F;
+
+    /**
+     * @param gBuffer The primary intersections of the frames to denoise {@link GBuffer}.
+     */
+    public Denoiser(GBuffer gBuffer) {
+        this.gBuffer = gBuffer;
+    }
+
+    /**
+     * @param iterations The number of passes of the filter.
+     */
+    public void setIterations(int iterations) {
+        if (iterations < 1) throw new IllegalArgumentException("The denoiser needs at least one pass");
+        this.iterations = iterations;
+    }
+
+    /**
+     * @param luminanceSigma The luminance difference beyond which the taps fade, in standard deviations of the noise.
+     */
+    public void setLuminanceSigma(float luminanceSigma) {
+        this.luminanceSigma = luminanceSigma;
+    }
+
+    /**
+     * @param normalPower The exponent of the cosine between the normals of the pixel and of the tap.
+     */
+    public void setNormalPower(int normalPower) {
+        this.normalPower = normalPower;
+    }
+
+    /**
+     * @param depthSigma The depth difference beyond which the taps fade, relative to the depth slope of the pixel.
+     */
+    public void setDepthSigma(float depthSigma) {
+        this.depthSigma = depthSigma;
+    }
+
+    /**
+     * Filter a frame in place.
+     * @param frame The frame, traced with the camera and the scene of the G-buffer {@link HdrFramebuffer}.
+     * @throws IllegalArgumentException If the frame does not have the size of the G-buffer.
+     */
+    public void denoise(HdrFramebuffer frame) {
+
+        final int width = frame.getWidth(), height = frame.getHeight();
+        if (width != gBuffer.getWidth() || height != gBuffer.getHeight())
+            throw new IllegalArgumentException("The frame does not match the G-buffer");
+
+        final List<Tile> tiles = Tile.split(width, height, Tile.DEFAULT_SIZE);
+        final float[][] slopes = depthSlopes(width, height);
+
+        // Lighting (the frame divided by the albedo) and variance of its luminance, ping-ponged between the passes
+        float[] lighting = new float[3 * width * height], filtered = new float[3 * width * height];
+        float[] variance = new float[width * height], filteredVariance = new float[width * height];
+
+        final float[] demodulated = lighting;
+        tiles.parallelStream().forEach(tile -> {
+            for (int row = tile.y; row < tile.y + tile.height; ++row)
+                for (int col = tile.x; col < tile.x + tile.width; ++col) {
+                    final int p = row * width + col;
+                    for (int c = 0; c < 3; ++c) demodulated[3 * p + c] = frame.get(col, row, c) / albedo(p, c);
+                }
+        });
+        System.arraycopy(gBuffer.variances, 0, variance, 0, variance.length);
+
+        for (int pass = 0; pass < iterations; ++pass) {
+            final float[] from = lighting, to = filtered, varianceFrom = variance, varianceTo = filteredVariance;
+            final int step = 1 << pass;
+            tiles.parallelStream().forEach(tile -> filter(tile, width, height, step, from, to, varianceFrom, varianceTo, slopes));
+            lighting = to;
+            filtered = from;
+            variance = varianceTo;
+            filteredVariance = varianceFrom;
+        }
+
+        final float[] result = lighting;
+        tiles.parallelStream().forEach(tile -> {
+            for (int row = tile.y; row < tile.y + tile.height; ++row)
+                for (int col = tile.x; col < tile.x + tile.width; ++col) {
+                    final int p = row * width + col;
+                    frame.set(col, row, result[3 * p] * albedo(p, 0), result[3 * p + 1] * albedo(p, 1), result[3 * p + 2] * albedo(p, 2));
+                }
+        });
+    }
+
+    /**
+     * A channel of the albedo of a pixel, at least 1 so that the dark surfaces (and the background) keep their color.
+     */
+    private float albedo(int p, int channel) {
+        return Math.max(1.0F, gBuffer.albedos[3 * p + channel]);
+    }
+
+    private static float luminance(float[] lighting, int p) {
+        return 0.0722F * lighting[3 * p] + 0.7152F * lighting[3 * p + 1] + 0.2126F * lighting[3 * p + 2];
+    }
+
+    /**
+     * One pass of the filter over a tile, filtering the variance with the squares of the weights.
+     */
+    private void filter(Tile tile, int width, int height, int step,
+                        float[] from, float[] to, float[] varianceFrom, float[] varianceTo, float[][] slopes) {
+
+        for (int row = tile.y; row < tile.y + tile.height; ++row) {
+            for (int col = tile.x; col < tile.x + tile.width; ++col) {
+
+                final int p = row * width + col, id = gBuffer.ids[p];
+                final float deviation = (float) Math.sqrt(blurredVariance(width, height, col, row, varianceFrom));
+                if (deviation == 0.0F) {
+                    // Out of the penumbrae : nothing to denoise
+                    System.arraycopy(from, 3 * p, to, 3 * p, 3);
+                    varianceTo[p] = 0.0F;
+                    continue;
+                }
+
+                final float luminance = luminance(from, p), luminanceFactor = -1.0F / (luminanceSigma * deviation);
+                final double depth = gBuffer.depths[p];
+                final float nx = gBuffer.normals[3 * p], ny = gBuffer.normals[3 * p + 1], nz = gBuffer.normals[3 * p + 2];
+
+                float sumB = 0.0F, sumG = 0.0F, sumR = 0.0F, sumW = 0.0F, sumVariance = 0.0F;
+                for (int j = -2; j <= 2; ++j) {
+                    final int y = row + j * step;
+                    if (y < 0 || y >= height) continue;
+
+                    for (int i = -2; i <= 2; ++i) {
+                        final int x = col + i * step;
+                        if (x < 0 || x >= width) continue;
+
+                        final int q = y * width + x;
+                        if (gBuffer.ids[q] != id) continue;
+
+                        float w = KERNEL[i + 2] * KERNEL[j + 2];
+                        if (q != p) {
+                            float exponent = Math.abs(luminance(from, q) - luminance) * luminanceFactor;
+
+                            if (id != GBuffer.NO_HIT) {
+                                final float cosine = nx * gBuffer.normals[3 * q] + ny * gBuffer.normals[3 * q + 1] + nz * gBuffer.normals[3 * q + 2];
+                                if (cosine <= 0.0F) continue;
+                                if (cosine < 1.0F) w *= power(cosine, normalPower);
+
+                                final double expected = Math.abs(slopes[0][p] * i * step) + Math.abs(slopes[1][p] * j * step);
+                                exponent -= (float) (Math.abs(gBuffer.depths[q] - depth) / (depthSigma * expected + 1e-6D * depth));
+                            }
+                            if (exponent < MIN_EXPONENT) continue; // Negligible tap
+                            w *= exp(exponent);
+                        }
+
+                        sumB += w * from[3 * q];
+                        sumG += w * from[3 * q + 1];
+                        sumR += w * from[3 * q + 2];
+                        sumW += w;
+                        sumVariance += w * w * varianceFrom[q];
+                    }
+                }
+
+                // sumW > 0, the pixel itself being a tap
+                to[3 * p] = sumB / sumW;
+                to[3 * p + 1] = sumG / sumW;
+                to[3 * p + 2] = sumR / sumW;
+                varianceTo[p] = sumVariance / (sumW * sumW);
+            }
+        }
+    }
+
+    /**
+     * e to the power x, for x between {@link #MIN_EXPONENT} and 0, within a relative error of 1e-3 : 2 to the power
+     * of the integer part of x / ln 2 is set in the exponent bits, and 2 to the power of the fractional part is a
+     * polynomial. Math.exp, exact but slow, weighed half of the time of a pass.
+     */
+    private static float exp(float x) {
+        final float y = x * 1.442695F; // x / ln 2
+        final int integer = (int) Math.floor(y);
+        final float f = y - integer;
+        final float fraction = 1.0F + f * (0.6931472F + f * (0.2402265F + f * (0.05550411F + f * 0.009618129F)));
+        return Float.intBitsToFloat((integer + 127) << 23) * fraction;
+    }
+
+    /**
+     * x to the power n, by squaring.
+     */
+    private static float power(float x, int n) {
+        float result = 1.0F;
+        for (; n > 0; n >>= 1, x *= x)
+            if ((n & 1) != 0) result *= x;
+        return result;
+    }
+
+    /**
+     * The variance of a pixel blurred over its 3 x 3 neighbourhood, steadying the luminance weights.
+     */
+    private static float blurredVariance(int width, int height, int col, int row, float[] variance) {
+        float sum = 0.0F, weights = 0.0F;
+        for (int y = Math.max(0, row - 1); y <= Math.min(height - 1, row + 1); ++y)
+            for (int x = Math.max(0, col - 1); x <= Math.min(width - 1, col + 1); ++x) {
+                final float w = ((x == col) ? 2.0F : 1.0F) * ((y == row) ? 2.0F : 1.0F);
+                sum += w * variance[y * width + x];
+                weights += w;
+            }
+        return sum / weights;
+    }
+
+    /**
+     * The horizontal and vertical slopes of the depth of each pixel, taken toward the neighbour of the same solid
+     * with the smallest difference, so that they are not raised by the edges of the solid.
+     */
+    private float[][] depthSlopes(int width, int height) {
+
+        final float[][] slopes = new float[2][width * height];
+        for (int row = 0; row < height; ++row) {
+            for (int col = 0; col < width; ++col) {
+                final int p = row * width + col;
+                if (gBuffer.ids[p] == GBuffer.NO_HIT) continue;
+                slopes[0][p] = slope(p, (col > 0) ? p - 1 : -1, (col < width - 1) ? p + 1 : -1);
+                slopes[1][p] = slope(p, (row > 0) ? p - width : -1, (row < height - 1) ? p + width : -1);
+            }
+        }
+        return slopes;
+    }
+
+    private float slope(int p, int before, int after) {
+        double slope = Double.POSITIVE_INFINITY;
+        if (before >= 0 && gBuffer.ids[before] == gBuffer.ids[p]) slope = Math.abs(gBuffer.depths[p] - gBuffer.depths[before]);
+        if (after >= 0 && gBuffer.ids[after] == gBuffer.ids[p]) slope = Math.min(slope, Math.abs(gBuffer.depths[after] - gBuffer.depths[p]));
+        return (slope == Double.POSITIVE_INFINITY) ? 0.0F : (float) slope;
+    }
+}
@@ -0,0 +1,57 @@
+package raytracing.rendering;
+
+import raytracing.maths.Vec3d;
+import raytracing.utils.Color;
+
+/**
+ * A disk shaped area light.
+ * @author Mathieu Niord
+ */
+public class DiskLight extends AreaLight {
+
+    private final Vec3d center, axisU, axisV; // The axes span the disk, their length is the radius
+
+    /**
+     * @param center The center of the disk.
+     * @param normal The normal of the disk.
+     * @param radius The radius of the disk.
+     * @param specular The specular color of the light.
+     * @param diffuse The diffuse color of the light.
+     * @param intensity The intensity of the light.
+     * @param samples The number of stratified samples along each axis, used in the penumbra.
+     */
+    public DiskLight(
+            Vec3d center, Vec3d normal, double radius,
+            Color specular, Color diffuse, double intensity, int samples
+    ) {
+        super(center, specular, diffuse, intensity, samples);
+        this.center = new Vec3d(center);
+
+        // Any axis orthogonal to the normal, then the one orthogonal to both
+        final Vec3d n = normal.normalize();
+        final Vec3d helper = (Math.abs(n.x) < 0.9D) ? new Vec3d(1.0D, 0.0D, 0.0D) : new Vec3d(0.0D, 1.0D, 0.0D);
+        this.axisU = n.cross(helper).normalize().scale(radius);
+        this.axisV = n.cross(this.axisU);
+    }
+
+    /**
+     * Concentric mapping of the parametric square onto the disk (Shirley and Chiu), which keeps the strata compact.
+     * The corners of the square are mapped onto the rim.
+     */
+    @Override
+    public Vec3d getPoint(double s, double t) {
+        final double a = 2.0D * s - 1.0D, b = 2.0D * t - 1.0D;
+        if (a == 0.0D && b == 0.0D) return new Vec3d(center);
+
+        final double r, phi;
+        if (Math.abs(a) > Math.abs(b)) {
+            r = a;
+            phi = (Math.PI / 4.0D) * (b / a);
+        }
+        else {
+            r = b;
+            phi = (Math.PI / 2.0D) - (Math.PI / 4.0D) * (a / b);
+        }
+        return center.add(axisU.scale(r * Math.cos(phi))).add(axisV.scale(r * Math.sin(phi)));
+    }
+}
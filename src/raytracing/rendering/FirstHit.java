@@ -0,0 +1,78 @@
+package raytracing.rendering;
+
+import raytracing.maths.Vec3d;
+import raytracing.solids.Solid;
+
+/**
+ * Observer keeping the primary intersection of the pixel being traced, and the variance of the sampled shadows of
+ * the pixel : beyond its probes, the shadow rays cast from a point toward an {@link AreaLight} estimate the visible
+ * fraction p of the light with n samples, hence with a variance of about p (1 - p) / n.
+ * An instance is reused pixel after pixel by a single thread, {@link #reset()} being called before each pixel.
+ * @author Mathieu Niord
+ */
+class FirstHit implements RayObserver {
+
+    /**
+     * The solid hit by the primary ray, null if it escaped the scene.
+     */
+    Solid solid;
+
+    /**
+     * The root value of the primary intersection.
+     */
+    double t;
+
+    private boolean done;
+
+    // The shadow rays of the current point and area light
+    private Vec3d point;
+    private Light light;
+    private int rays, visible;
+    private double variance;
+
+    void reset() {
+        solid = null;
+        done = false;
+        point = null;
+        light = null;
+        rays = visible = 0;
+        variance = 0.0D;
+    }
+
+    /**
+     * @return The variance of the luminance of the pixel due to the sampling of the area lights, each light weighing
+     * its intensity.
+     */
+    float getVariance() {
+        flush();
+        return (float) variance;
+    }
+
+    @Override
+    public void onRay(Vec3d P, Vec3d v, int depth, Solid hit, double t) {
+        if (done) return;
+        this.solid = hit;
+        this.t = t;
+        this.done = true;
+    }
+
+    @Override
+    public void onShadowRay(Vec3d I, Vec3d IS, Light light, Solid occluder) {
+        if (!(light instanceof AreaLight)) return;
+        if (I != point || light != this.light) {
+            flush();
+            point = I;
+            this.light = light;
+        }
+        ++rays;
+        if (occluder == null) ++visible;
+    }
+
+    private void flush() {
+        if (rays > AreaLight.PROBES.length) { // Penumbra, the samples following the probes
+            final double p = (double) visible / rays, intensity = light.getIntensity();
+            variance += intensity * intensity * p * (1.0D - p) / (rays - AreaLight.PROBES.length);
+        }
+        rays = visible = 0;
+    }
+}
@@ -0,0 +1,180 @@
+package raytracing.rendering;
+
+import raytracing.maths.Vec3d;
+import raytracing.solids.Plane;
+import raytracing.solids.Solid;
+import raytracing.solids.Sphere;
+
+import java.util.List;
+
+/**
+ * The geometry of the solids and lights of a scene in single precision, packed in arrays for the float kernel of
+ * the {@link Scene} : 4 floats per solid (the center and radius of a sphere, the normal and distance of a plane)
+ * and 3 per light (its position). The solids themselves only keep their double precision geometry.
+ * <p>
+ * A ray of the float kernel reads 16 bytes per solid tested, contiguous in the order of the scene, instead of the
+ * solid and its vectors spread over the heap, and is intersected on scalar components, without any vector.
+ * The geometry is a snapshot : the scene drops it on any edit of its solids or lights, and packs it again.
+ * @author Mathieu Niord
+ */
+final class FloatGeometry {
+
+    private static final byte SPHERE = 0, PLANE = 1, OTHER = 2;
+
+    /**
+     * Minimal distance (in world units) accepted by the single precision kernel to avoid self-intersections.
+     * A float only carries ~7 significant digits, so at the scale of our scenes (~1000 units) the root offset of
+     * the double precision kernel is below the rounding error : the offset is expressed as a distance and divided
+     * by the length of the ray direction instead.
+     */
+    private static final float EPSILON = 0.01F;
+
+    private final List<Solid> objects;
+    private final byte[] kinds;
+    private final float[] solids;   // Per solid : center x, y, z and radius, or normal x, y, z and distance
+    final float[] lights;           // Per light : position x, y, z
+
+    /**
+     * Pack the geometry of a scene.
+     * @param objects The solids of the scene, indexed as in the scene.
+     * @param lights The lights of the scene, indexed as in the scene.
+     */
+    FloatGeometry(List<Solid> objects, List<Light> lights) {
+
+        this.objects = objects;
+        this.kinds = new byte[objects.size()];
+        this.solids = new float[4 * objects.size()];
+        for (int k = 0; k < objects.size(); ++k) {
+            final Solid solid = objects.get(k);
+            if (solid instanceof Sphere) {
+                final Sphere sphere = (Sphere) solid;
+                kinds[k] = SPHERE;
+                put(k, sphere.getCenter(), sphere.getRadius());
+            }
+            else if (solid instanceof Plane) {
+                final Plane plane = (Plane) solid;
+                kinds[k] = PLANE;
+                put(k, plane.getPlaneNormal(), plane.getDistance());
+            }
+            else kinds[k] = OTHER;
+        }
+
+        this.lights = new float[3 * lights.size()];
+        for (int l = 0; l < lights.size(); ++l) {
+            final Vec3d position = lights.get(l).getPosition();
+            this.lights[3 * l] = (float) position.x;
+            this.lights[3 * l + 1] = (float) position.y;
+            this.lights[3 * l + 2] = (float) position.z;
+        }
+    }
+
+    private void put(int k, Vec3d vector, double value) {
+        solids[4 * k] = (float) vector.x;
+        solids[4 * k + 1] = (float) vector.y;
+        solids[4 * k + 2] = (float) vector.z;
+        solids[4 * k + 3] = (float) value;
+    }
+
+    /**
+     * @return The number of solids.
+     */
+    int size() {
+        return kinds.length;
+    }
+
+    /**
+     * Returns the intersection between a ray and a solid. The cases are methods of their own, small enough to be
+     * inlined in the loops over the solids.
+     * @param k The index of the solid in the scene.
+     * @return The root value of intersection, or -1.0F if there is no intersection.
+     */
+    float intersect(int k, float px, float py, float pz, float vx, float vy, float vz) {
+        switch (kinds[k]) {
+            case SPHERE : return intersectSphere(4 * k, px, py, pz, vx, vy, vz);
+            case PLANE : return intersectPlane(4 * k, px, py, pz, vx, vy, vz);
+            default : return intersectOther(k, px, py, pz, vx, vy, vz);
+        }
+    }
+
+    private float intersectSphere(int b, float px, float py, float pz, float vx, float vy, float vz) {
+
+        final float lx = px - solids[b], ly = py - solids[b + 1], lz = pz - solids[b + 2], radius = solids[b + 3];
+        final float
+                a = (vx * vx + vy * vy + vz * vz),
+                bb = (2.0F * (vx * lx + vy * ly + vz * lz)),
+                c = ((lx * lx + ly * ly + lz * lz) - (radius * radius));
+
+        final float delta = (bb * bb) - (4.0F * a * c);
+
+        // Only one intersection
+        if (delta == 0.0F) {
+            final float t = (-bb / (2.0F * a));
+            if (t > 0.0F) return t;
+        }
+
+        // Two intersections
+        else if (delta > 0.0F) {
+            final float eps = EPSILON / (float) Math.sqrt(a);
+            final float sqrtDelta = (float) Math.sqrt(delta);
+            final float t1 = (-bb - sqrtDelta) / (2.0F * a);
+            final float t2 = (-bb + sqrtDelta) / (2.0F * a);
+            if (t1 < eps && t2 > eps) return t2;
+            else if (t1 > eps && t1 < t2) return t1;
+        }
+
+        return -1.0F;
+    }
+
+    private float intersectPlane(int b, float px, float py, float pz, float vx, float vy, float vz) {
+        final float nx = solids[b], ny = solids[b + 1], nz = solids[b + 2];
+        final float nv = nx * vx + ny * vy + nz * vz;
+        final float t = (nv != 0.0F) ? (-(nx * px + ny * py + nz * pz) - solids[b + 3]) / nv : -1.0F;
+        return (t > EPSILON / (float) Math.sqrt(vx * vx + vy * vy + vz * vz)) ? t : -1.0F;
+    }
+
+    /**
+     * A solid of another class is intersected by its own double precision method.
+     */
+    private float intersectOther(int k, float px, float py, float pz, float vx, float vy, float vz) {
+        return (float) objects.get(k).getIntersection(new Vec3d(px, py, pz), new Vec3d(vx, vy, vz));
+    }
+
+    /**
+     * Returns the normal of a solid at one of its points, in the three first entries of a scratch array.
+     * @param k The index of the solid in the scene.
+     * @param normal Receives the normal vector.
+     */
+    void normal(int k, float x, float y, float z, float[] normal) {
+
+        final int b = 4 * k;
+        switch (kinds[k]) {
+
+            case SPHERE : {
+                float nx = x - solids[b], ny = y - solids[b + 1], nz = z - solids[b + 2];
+                final float square = nx * nx + ny * ny + nz * nz;
+                if (square != 0.0F) {
+                    final float scale = 1.0F / (float) Math.sqrt(square);
+                    nx *= scale;
+                    ny *= scale;
+                    nz *= scale;
+                }
+                normal[0] = nx;
+                normal[1] = ny;
+                normal[2] = nz;
+            }
+            break;
+
+            case PLANE :
+                normal[0] = solids[b];
+                normal[1] = solids[b + 1];
+                normal[2] = solids[b + 2];
+            break;
+
+            default :
+                final Vec3d n = objects.get(k).getNormal(new Vec3d(x, y, z));
+                normal[0] = (float) n.x;
+                normal[1] = (float) n.y;
+                normal[2] = (float) n.z;
+        }
+    }
+}
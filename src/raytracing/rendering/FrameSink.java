@@ -0,0 +1,39 @@
+package raytracing.rendering;
+
+import raytracing.utils.ImageWriter;
+
+import java.io.IOException;
+
+/**
+ * Receives the frames computed by a {@link Renderer}, for instance to save them or to display them.
+ * The buffers hold 3 bytes per pixel ordered Blue, Green, Red, the first row being the bottom of the image.
+ * @author Mathieu Niord
+ */
+@FunctionalInterface
+public interface FrameSink {
+
+    /**
+     * Called once the frame is complete, by the rendering thread which completed it.
+     * @param buffer The image buffer.
+     * @param width The width of the image.
+     * @param height The height of the image.
+     * @throws IOException If the frame cannot be written, the render then completes exceptionally.
+     */
+    void accept(byte[] buffer, int width, int height) throws IOException;
+
+    /**
+     * Called each time a tile of the frame is complete, by the rendering thread which completed it. The tiles are
+     * completed concurrently and in no particular order : only the pixels of the given tile may be read.
+     * @param tile The completed tile {@link Tile}.
+     * @param buffer The image buffer, still being rendered.
+     */
+    default void onTile(Tile tile, byte[] buffer) {}
+
+    /**
+     * @param filename The name of the file, its extension selects the format ({@link ImageWriter}).
+     * @return A sink saving the frame in a file.
+     */
+    static FrameSink toFile(String filename) {
+        return (buffer, width, height) -> ImageWriter.save(filename, buffer, width, height);
+    }
+}
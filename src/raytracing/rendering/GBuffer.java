@@ -0,0 +1,200 @@
+package raytracing.rendering;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * The primary intersections of a frame, stored in primitive arrays (40 bytes per pixel) :
+ * <ul>
+ *     <li>the root value of the intersection along the primary ray, in double precision so that the position of the
+ *     intersection point is rebuilt exactly;</li>
+ *     <li>the shading normal (facing the camera), in single precision;</li>
+ *     <li>the albedo, the color of the solid at the intersection (Blue, Green, Red), in single precision;</li>
+ *     <li>the variance of the pixel due to the sampling of the area lights (the noise of the soft shadows);</li>
+ *     <li>the index of the solid in {@link Scene#getObjects()}, {@link #NO_HIT} when the ray escaped the scene.</li>
+ * </ul>
+ * A G-buffer is only valid for the camera it was captured with and for a scene whose geometry did not change.
+ * @author Mathieu Niord
+ */
+public class GBuffer {
+
+    public static final int NO_HIT = -1;
+
+    private static final int MAGIC = 0x47424632; // "GBF2"
+    private static final int HEADER_SIZE = 4 * Integer.BYTES + Double.BYTES;
+    private static final int IO_CHUNK = 1 << 20;
+
+    private final int width, height;
+    private final double zoom;
+    private final int objectCount;
+
+    final double[] depths;
+    final float[] normals;
+    final float[] albedos;
+    final float[] variances;
+    final int[] ids;
+
+    /**
+     * Constructs an empty G-buffer.
+     * @param width The width of the frame.
+     * @param height The height of the frame.
+     * @param zoom The zoom of the camera of the frame.
+     * @param objectCount The number of solids of the scene.
+     */
+    public GBuffer(int width, int height, double zoom, int objectCount) {
+        this.width = width;
+        this.height = height;
+        this.zoom = zoom;
+        this.objectCount = objectCount;
+        this.depths = new double[width * height];
+        this.normals = new float[3 * width * height];
+        this.albedos = new float[3 * width * height];
+        this.variances = new float[width * height];
+        this.ids = new int[width * height];
+        Arrays.fill(ids, NO_HIT);
+    }
+
+    public int getWidth() { return width; }
+
+    public int getHeight() { return height; }
+
+    public double getZoom() { return zoom; }
+
+    public int getObjectCount() { return objectCount; }
+
+    /**
+     * @param pixel The index of the pixel (row * width + col).
+     * @return The index of the solid seen by the pixel, or {@link #NO_HIT}.
+     */
+    public int getId(int pixel) { return ids[pixel]; }
+
+    /**
+     * @param pixel The index of the pixel (row * width + col).
+     * @return The root value of the primary intersection of the pixel.
+     */
+    public double getDepth(int pixel) { return depths[pixel]; }
+
+    /**
+     * @param pixel The index of the pixel (row * width + col).
+     * @param axis 0, 1 or 2 for x, y or z.
+     * @return A coordinate of the shading normal of the pixel.
+     */
+    public float getNormal(int pixel, int axis) { return normals[3 * pixel + axis]; }
+
+    /**
+     * @param pixel The index of the pixel (row * width + col).
+     * @param channel 0, 1 or 2 for Blue, Green or Red.
+     * @return A channel of the albedo of the pixel, 0 when the ray escaped the scene.
+     */
+    public float getAlbedo(int pixel, int channel) { return albedos[3 * pixel + channel]; }
+
+    /**
+     * @param pixel The index of the pixel (row * width + col).
+     * @return The variance of the pixel due to the sampling of the area lights, 0 out of the penumbrae.
+     */
+    public float getVariance(int pixel) { return variances[pixel]; }
+
+    /**
+     * Tell if the G-buffer was captured with a frame of the same size and zoom, on a scene with as many solids.
+     */
+    public boolean matches(int width, int height, double zoom, int objectCount) {
+        return this.width == width && this.height == height && this.zoom == zoom && this.objectCount == objectCount;
+    }
+
+    /**
+     * Persist the G-buffer : a header followed by the planes of ids, depths, normals, albedos and variances, in native byte order.
+     * @param filename The name of the file.
+     * @throws IOException If the file cannot be written.
+     */
+    public void save(String filename) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(filename),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+
+            ByteBuffer chunk = ByteBuffer.allocateDirect(IO_CHUNK).order(ByteOrder.nativeOrder());
+            chunk.putInt(MAGIC).putInt(width).putInt(height).putDouble(zoom).putInt(objectCount);
+
+            for (int i = 0; i < ids.length; ++i) {
+                if (chunk.remaining() < Integer.BYTES) flush(channel, chunk);
+                chunk.putInt(ids[i]);
+            }
+            for (int i = 0; i < depths.length; ++i) {
+                if (chunk.remaining() < Double.BYTES) flush(channel, chunk);
+                chunk.putDouble(depths[i]);
+            }
+            for (int i = 0; i < normals.length; ++i) {
+                if (chunk.remaining() < Float.BYTES) flush(channel, chunk);
+                chunk.putFloat(normals[i]);
+            }
+            for (int i = 0; i < albedos.length; ++i) {
+                if (chunk.remaining() < Float.BYTES) flush(channel, chunk);
+                chunk.putFloat(albedos[i]);
+            }
+            for (int i = 0; i < variances.length; ++i) {
+                if (chunk.remaining() < Float.BYTES) flush(channel, chunk);
+                chunk.putFloat(variances[i]);
+            }
+            flush(channel, chunk);
+        }
+    }
+
+    /**
+     * Load a G-buffer saved by {@link #save(String)}.
+     * @param filename The name of the file.
+     * @return The G-buffer.
+     * @throws IOException If the file cannot be read or is not a G-buffer.
+     */
+    public static GBuffer load(String filename) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+
+            ByteBuffer chunk = ByteBuffer.allocateDirect(IO_CHUNK).order(ByteOrder.nativeOrder());
+            chunk.limit(0); // Nothing read yet
+            fill(channel, chunk, HEADER_SIZE);
+            if (chunk.getInt() != MAGIC) throw new IOException("Not a G-buffer file : " + filename);
+            GBuffer gBuffer = new GBuffer(chunk.getInt(), chunk.getInt(), chunk.getDouble(), chunk.getInt());
+
+            for (int i = 0; i < gBuffer.ids.length; ++i) {
+                if (chunk.remaining() < Integer.BYTES) fill(channel, chunk, Integer.BYTES);
+                gBuffer.ids[i] = chunk.getInt();
+            }
+            for (int i = 0; i < gBuffer.depths.length; ++i) {
+                if (chunk.remaining() < Double.BYTES) fill(channel, chunk, Double.BYTES);
+                gBuffer.depths[i] = chunk.getDouble();
+            }
+            for (int i = 0; i < gBuffer.normals.length; ++i) {
+                if (chunk.remaining() < Float.BYTES) fill(channel, chunk, Float.BYTES);
+                gBuffer.normals[i] = chunk.getFloat();
+            }
+            for (int i = 0; i < gBuffer.albedos.length; ++i) {
+                if (chunk.remaining() < Float.BYTES) fill(channel, chunk, Float.BYTES);
+                gBuffer.albedos[i] = chunk.getFloat();
+            }
+            for (int i = 0; i < gBuffer.variances.length; ++i) {
+                if (chunk.remaining() < Float.BYTES) fill(channel, chunk, Float.BYTES);
+                gBuffer.variances[i] = chunk.getFloat();
+            }
+            return gBuffer;
+        }
+    }
+
+    private static void flush(FileChannel channel, ByteBuffer chunk) throws IOException {
+        chunk.flip();
+        while (chunk.hasRemaining()) channel.write(chunk);
+        chunk.clear();
+    }
+
+    /**
+     * Refill the chunk from the channel, keeping its unread bytes, until at least the given number of bytes is readable.
+     */
+    private static void fill(FileChannel channel, ByteBuffer chunk, int atLeast) throws IOException {
+        chunk.compact();
+        while (chunk.position() < atLeast)
+            if (channel.read(chunk) < 0) throw new EOFException("Truncated G-buffer file");
+        chunk.flip();
+    }
+}
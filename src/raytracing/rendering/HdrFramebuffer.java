@@ -0,0 +1,101 @@
+package raytracing.rendering;
+
+import raytracing.utils.Color;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.stream.IntStream;
+
+/**
+ * A high dynamic range frame : 3 floats per pixel (Blue, Green, Red, row 0 being the bottom of the image) stored
+ * off-heap in direct buffers, so that large frames neither fill the Java heap nor are scanned by the garbage
+ * collector. A direct buffer being limited to 2 GB, the frame is cut into slabs of rows.
+ * <p>
+ * Render threads write their pixels directly (absolute writes to distinct pixels are thread safe), then
+ * {@link #toneMap(ToneMapping, double)} quantises the whole frame in parallel.
+ * @author Mathieu Niord
+ */
+public class HdrFramebuffer {
+
+    private static final long MAX_SLAB_BYTES = 1L << 30;
+
+    private final int width, height;
+    private final int rowsPerSlab;
+    private final FloatBuffer[] slabs;
+
+    /**
+     * @param width The width of the frame in pixels.
+     * @param height The height of the frame in pixels.
+     */
+    public HdrFramebuffer(int width, int height) {
+        this.width = width;
+        this.height = height;
+
+        final long rowBytes = 3L * Float.BYTES * width;
+        this.rowsPerSlab = (int) Math.max(1, Math.min(height, MAX_SLAB_BYTES / rowBytes));
+        this.slabs = new FloatBuffer[(height + rowsPerSlab - 1) / rowsPerSlab];
+        for (int i = 0; i < slabs.length; ++i) {
+            final int rows = Math.min(rowsPerSlab, height - i * rowsPerSlab);
+            slabs[i] = ByteBuffer.allocateDirect((int) (rows * rowBytes)).order(ByteOrder.nativeOrder()).asFloatBuffer();
+        }
+    }
+
+    public int getWidth() { return width; }
+
+    public int getHeight() { return height; }
+
+    /**
+     * Write a pixel.
+     * @param col The column of the pixel.
+     * @param row The row of the pixel.
+     * @param color The color of the pixel {@link Color}.
+     */
+    public void set(int col, int row, Color color) {
+        set(col, row, color.getBlue(), color.getGreen(), color.getRed());
+    }
+
+    /**
+     * Write a pixel.
+     * @param col The column of the pixel.
+     * @param row The row of the pixel.
+     * @param blue The blue channel.
+     * @param green The green channel.
+     * @param red The red channel.
+     */
+    public void set(int col, int row, float blue, float green, float red) {
+        final FloatBuffer slab = slabs[row / rowsPerSlab];
+        final int index = 3 * ((row % rowsPerSlab) * width + col);
+        slab.put(index, blue);
+        slab.put(index + 1, green);
+        slab.put(index + 2, red);
+    }
+
+    /**
+     * Read a channel of a pixel.
+     * @param col The column of the pixel.
+     * @param row The row of the pixel.
+     * @param channel 0, 1 or 2 for Blue, Green or Red.
+     * @return The value of the channel.
+     */
+    public float get(int col, int row, int channel) {
+        return slabs[row / rowsPerSlab].get(3 * ((row % rowsPerSlab) * width + col) + channel);
+    }
+
+    /**
+     * Quantise the frame to 8 bits per channel, rows being processed in parallel.
+     * @param toneMapping The tone mapping operator {@link ToneMapping}.
+     * @param exposure The exposure applied before the tone mapping.
+     * @return The image buffer, 3 bytes per pixel ordered Blue, Green, Red.
+     */
+    public byte[] toneMap(ToneMapping toneMapping, double exposure) {
+        final byte[] buffer = new byte[3 * width * height];
+        IntStream.range(0, height).parallel().forEach(row -> {
+            final FloatBuffer slab = slabs[row / rowsPerSlab];
+            final int from = 3 * (row % rowsPerSlab) * width, to = 3 * row * width;
+            for (int i = 0; i < 3 * width; ++i)
+                buffer[to + i] = (byte) toneMapping.map(slab.get(from + i), exposure);
+        });
+        return buffer;
+    }
+}
@@ -0,0 +1,175 @@
+package raytracing.rendering;
+
+import raytracing.maths.BoundingBox;
+import raytracing.maths.Vec3d;
+import raytracing.solids.Solid;
+import raytracing.utils.Color;
+
+import java.util.List;
+
+/**
+ * Renders a frame in two passes : the primary visibility is rasterised into an object id and depth buffer, then the
+ * rays are traced from these first hits (shaders, reflected and refracted rays), as {@link Scene#getRayColor} does.
+ * <p>
+ * The rasterisation projects the bounding box of each bounded solid (the spheres) onto the image, and bins the
+ * solids into the tiles their screen-space rectangle overlaps. The unbounded solids (the planes), and the solids
+ * crossing the plane of the camera, cover every tile. The depth of a pixel is then resolved against the solids of
+ * its tile only, with their exact intersection and in the order of the scene : the frame is the one traced by a
+ * {@link Renderer}, while a pixel is tested against a few solids instead of all of them.
+ * <p>
+ * Both passes run in parallel on the tiles of the frame. Only the double precision kernel is supported.
+ * @author Mathieu Niord
+ */
+public class HybridRenderer {
+
+    /**
+     * Object id of the pixels seeing no solid.
+     */
+    public static final int NO_HIT = -1;
+
+    private final Scene scene;
+    private final Camera camera;
+    private final int depth;
+    private int[] ids;
+    private double[] depths;
+    private long tests;
+
+    /**
+     * @param scene The scene to render.
+     * @param camera The viewport of the image {@link Camera}.
+     * @param depth The maximum ray depth.
+     */
+    public HybridRenderer(Scene scene, Camera camera, int depth) {
+        this.scene = scene;
+        this.camera = camera;
+        this.depth = depth;
+    }
+
+    /**
+     * Rasterise the primary visibility, then trace the frame from it.
+     * @return The image buffer, 3 bytes per pixel ordered Blue, Green, Red.
+     */
+    public byte[] render() {
+
+        final int width = camera.getWidth(), height = camera.getHeight();
+        final List<Tile> tiles = Tile.split(width, height, Tile.DEFAULT_SIZE);
+        final List<Solid> objects = scene.getObjects();
+        final int[][] bounds = screenBounds(objects);
+
+        ids = new int[width * height];
+        depths = new double[width * height];
+        tests = tiles.parallelStream().mapToLong(tile -> rasterise(tile, objects, bounds)).sum();
+
+        final byte[] buffer = new byte[3 * width * height];
+        tiles.parallelStream().forEach(tile -> {
+            for (int row = tile.y; row < tile.y + tile.height; ++row)
+                for (int col = tile.x; col < tile.x + tile.width; ++col) {
+
+                    final int p = row * width + col;
+                    final Color color = (depth == 0 || ids[p] == NO_HIT)
+                            ? scene.getAmbientLight()
+                            : scene.shade(camera.getOrigin(), camera.getDirection(col, row), depths[p], objects.get(ids[p]), depth, null);
+
+                    buffer[3 * p] = (byte) color.getBlue();         // Blue
+                    buffer[3 * p + 1] = (byte) color.getGreen();    // Green
+                    buffer[3 * p + 2] = (byte) color.getRed();      // Red
+                }
+        });
+        return buffer;
+    }
+
+    /**
+     * @return The index in the scene of the solid seen by each pixel of the last frame ({@link #NO_HIT} if none),
+     * row 0 being the bottom of the image.
+     */
+    public int[] getIds() {
+        return ids;
+    }
+
+    /**
+     * @return The root value of the primary intersection of each pixel of the last frame, along the direction of
+     * {@link Camera#getDirection(double, double)}.
+     */
+    public double[] getDepths() {
+        return depths;
+    }
+
+    /**
+     * @return The number of ray-solid intersections computed by the rasterisation of the last frame.
+     */
+    public long getIntersectionTests() {
+        return tests;
+    }
+
+    /**
+     * The screen-space rectangle of each solid, {minCol, minRow, maxCol, maxRow}, null for the solids covering the
+     * whole frame : its bounding box projects into the convex hull of its projected corners when they are all in
+     * front of the camera. A pixel of margin absorbs the rounding of the projection.
+     */
+    private int[][] screenBounds(List<Solid> objects) {
+
+        final int[][] bounds = new int[objects.size()][];
+        final double[] pixel = new double[2];
+
+        for (int i = 0; i < objects.size(); ++i) {
+
+            final BoundingBox box = objects.get(i).getBounds();
+            if (box.isInfinite()) continue;
+            if (box.isEmpty()) {
+                bounds[i] = new int[] { 0, 0, -1, -1 }; // Seen by no pixel
+                continue;
+            }
+
+            double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY;
+            double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+            boolean behind = false;
+            for (int corner = 0; corner < 8 && !behind; ++corner) {
+                final Vec3d point = new Vec3d(
+                        ((corner & 1) == 0) ? box.min.x : box.max.x,
+                        ((corner & 2) == 0) ? box.min.y : box.max.y,
+                        ((corner & 4) == 0) ? box.min.z : box.max.z
+                );
+                behind = camera.project(point, pixel) < 0.0D;
+                minX = Math.min(minX, pixel[0]);
+                maxX = Math.max(maxX, pixel[0]);
+                minY = Math.min(minY, pixel[1]);
+                maxY = Math.max(maxY, pixel[1]);
+            }
+            if (behind) continue;
+
+            // The casts saturate the rectangles reaching far beyond the frame
+            bounds[i] = new int[] {
+                    (int) (Math.floor(minX) - 1.0D), (int) (Math.floor(minY) - 1.0D),
+                    (int) (Math.ceil(maxX) + 1.0D), (int) (Math.ceil(maxY) + 1.0D)
+            };
+        }
+        return bounds;
+    }
+
+    /**
+     * Resolve the nearest solid of each pixel of a tile among the solids overlapping it.
+     * @return The number of intersections computed.
+     */
+    private long rasterise(Tile tile, List<Solid> objects, int[][] bounds) {
+
+        // The solids of the tile, in the order of the scene so that ties resolve as when tracing
+        final int[] candidates = new int[objects.size()];
+        int count = 0;
+        for (int i = 0; i < objects.size(); ++i) {
+            final int[] b = bounds[i];
+            if (b == null || (b[0] < tile.x + tile.width && b[2] >= tile.x && b[1] < tile.y + tile.height && b[3] >= tile.y))
+                candidates[count++] = i;
+        }
+
+        final int width = camera.getWidth();
+        final Vec3d origin = camera.getOrigin();
+        for (int row = tile.y; row < tile.y + tile.height; ++row)
+            for (int col = tile.x; col < tile.x + tile.width; ++col) {
+
+                final Scene.Hit hit = scene.nearest(origin, camera.getDirection(col, row), candidates, count);
+                ids[row * width + col] = hit.index;
+                depths[row * width + col] = hit.t;
+            }
+        return (long) count * tile.width * tile.height;
+    }
+}
@@ -0,0 +1,239 @@
+package raytracing.rendering;
+
+import raytracing.maths.BoundingBox;
+import raytracing.maths.Vec3d;
+import raytracing.solids.Solid;
+import raytracing.utils.Color;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
+
+/**
+ * Renders a scene tile by tile and keeps, for each tile, the solids and lights its ray trees depended on.
+ * After an edit of the scene made through this renderer, only the tiles the edit can affect are traced again.
+ * <p>
+ * A tile depends on a solid when one of its rays hit it or when it hid a light source, and on every light
+ * it shaded a point with. The tile also keeps conservative bounding volumes of its rays : a moved solid whose
+ * old or new bounding volume crosses them may be hit by one of the rays, so the tile is traced again.
+ * The rays are gathered in bundles (rays of each generation, shadow rays of each light) : the bundles of
+ * segments are bounded by capsules, the bundles of rays escaping the scene by cones.
+ * @author Mathieu Niord
+ */
+public class IncrementalRenderer {
+
+    private final Scene scene;
+    private final Camera camera;
+    private final int depth;
+    private final byte[] buffer;
+    private final List<Tile> tiles;
+    private final Dependencies[] dependencies;
+
+    /**
+     * @param scene The scene to render.
+     * @param camera The viewport of the image {@link Camera}.
+     * @param depth The maximum ray depth.
+     */
+    public IncrementalRenderer(Scene scene, Camera camera, int depth) {
+        this.scene = scene;
+        this.camera = camera;
+        this.depth = depth;
+        this.buffer = new byte[3 * camera.getWidth() * camera.getHeight()];
+        this.tiles = Tile.split(camera.getWidth(), camera.getHeight(), Tile.DEFAULT_SIZE);
+        this.dependencies = new Dependencies[tiles.size()];
+    }
+
+    /**
+     * @return The image buffer, 3 bytes per pixel ordered Blue, Green, Red.
+     */
+    public byte[] getBuffer() {
+        return buffer;
+    }
+
+    /**
+     * Render the whole frame.
+     * @return The number of traced tiles.
+     */
+    public int render() {
+        return retrace(deps -> true);
+    }
+
+    /**
+     * Replace a solid of the scene (for instance to move it) and trace again the tiles it affects.
+     * @param old The solid to replace.
+     * @param replacement The new solid.
+     * @return The number of traced tiles.
+     */
+    public int replaceObject(Solid old, Solid replacement) {
+        scene.replaceObject(old, replacement);
+        final BoundingBox oldBounds = old.getBounds(), newBounds = replacement.getBounds();
+        return retrace(deps -> deps.solids.contains(old) || deps.mayHit(oldBounds) || deps.mayHit(newBounds));
+    }
+
+    /**
+     * Replace a light of the scene and trace again the tiles it affects.
+     * @param old The light to replace.
+     * @param replacement The new light.
+     * @return The number of traced tiles.
+     */
+    public int replaceLight(Light old, Light replacement) {
+        scene.replaceLight(old, replacement);
+        return retrace(deps -> deps.lights.contains(old));
+    }
+
+    /**
+     * Change the ambient light of the scene. Every pixel depends on it, so the whole frame is traced again.
+     * @param ambientLight The new ambient light color.
+     * @return The number of traced tiles.
+     */
+    public int setAmbientLight(Color ambientLight) {
+        scene.setAmbientLight(ambientLight);
+        return render();
+    }
+
+    /**
+     * Trace again, in parallel, the tiles whose (previous) dependencies match a predicate.
+     * Tiles never rendered are always traced.
+     */
+    private int retrace(Predicate<Dependencies> dirty) {
+        return tiles.parallelStream()
+                .filter(tile -> dependencies[tile.index] == null || dirty.test(dependencies[tile.index]))
+                .mapToInt(tile -> {
+                    renderTile(tile);
+                    return 1;
+                })
+                .sum();
+    }
+
+    private void renderTile(Tile tile) {
+
+        Dependencies deps = new Dependencies(depth);
+        final int width = camera.getWidth();
+
+        for (int row = tile.y; row < tile.y + tile.height; ++row)
+            for (int col = tile.x; col < tile.x + tile.width; ++col) {
+
+                final int index = 3 * ((row * width) + col);
+                Color color = scene.getRayColor(camera.getOrigin(), camera.getDirection(col, row), depth, deps);
+
+                buffer[index] = (byte)color.getBlue();      // Blue
+                buffer[index+1] = (byte)color.getGreen();   // Green
+                buffer[index+2] = (byte)color.getRed();     // Red
+            }
+
+        dependencies[tile.index] = deps;
+    }
+
+    /**
+     * The dependencies of a tile, collected while tracing it.
+     */
+    private static class Dependencies implements RayObserver {
+
+        final Set<Solid> solids = Collections.newSetFromMap(new IdentityHashMap<>());
+        final Set<Light> lights = Collections.newSetFromMap(new IdentityHashMap<>());
+
+        // Rays of each generation (indexed by remaining depth) and shadow rays of each light
+        private final Bundle[] segments, escaping;
+        private final Map<Light, Bundle> shadows = new IdentityHashMap<>();
+
+        Dependencies(int depth) {
+            this.segments = new Bundle[depth + 1];
+            this.escaping = new Bundle[depth + 1];
+        }
+
+        @Override
+        public void onRay(Vec3d P, Vec3d v, int depth, Solid hit, double t) {
+            if (hit == null) {
+                if (escaping[depth] == null) escaping[depth] = new Bundle();
+                escaping[depth].addRay(P, v);
+            }
+            else {
+                solids.add(hit);
+                if (segments[depth] == null) segments[depth] = new Bundle();
+                segments[depth].addSegment(P, P.add(v.scale(t)));
+            }
+        }
+
+        @Override
+        public void onShadowRay(Vec3d I, Vec3d IS, Light light, Solid occluder) {
+            lights.add(light);
+            if (occluder != null) solids.add(occluder);
+            shadows.computeIfAbsent(light, l -> new Bundle()).addSegment(I, I.add(IS));
+        }
+
+        /**
+         * Tell if a solid within the given bounds may cross one of the rays of the tile.
+         */
+        boolean mayHit(BoundingBox bounds) {
+            if (bounds.isEmpty()) return false;
+            if (bounds.isInfinite()) return true;
+            final Vec3d center = bounds.getCenter();
+            final double radius = bounds.getRadius();
+            for (int depth = 0; depth < segments.length; ++depth) {
+                if (segments[depth] != null && segments[depth].mayHitSegments(center, radius)) return true;
+                if (escaping[depth] != null && escaping[depth].mayHitRays(center, radius)) return true;
+            }
+            for (Bundle bundle : shadows.values()) if (bundle.mayHitSegments(center, radius)) return true;
+            return false;
+        }
+    }
+
+    /**
+     * A bundle of rays, bounded by the box of their origins and either the box of their ends (segments)
+     * or the box of their normalized directions (half-lines).
+     */
+    private static class Bundle {
+
+        private final BoundingBox origins = new BoundingBox(), ends = new BoundingBox();
+
+        void addSegment(Vec3d P, Vec3d Q) {
+            origins.expand(P);
+            ends.expand(Q);
+        }
+
+        void addRay(Vec3d P, Vec3d v) {
+            origins.expand(P);
+            ends.expand(v.normalize());
+        }
+
+        /**
+         * Any point (1-s).P + s.Q of a segment lies within the largest of the radii of the balls bounding
+         * the origins P and the ends Q from the segment joining the centers of those balls.
+         */
+        boolean mayHitSegments(Vec3d center, double radius) {
+            final Vec3d A = origins.getCenter(), B = ends.getCenter();
+            final double reach = radius + Math.max(origins.getRadius(), ends.getRadius());
+
+            // Distance from the center to the segment [A, B]
+            final Vec3d AB = B.sub(A);
+            final double lengthSquare = AB.lengthSquare();
+            final double s = (lengthSquare == 0.0D) ? 0.0D : Math.max(0.0D, Math.min(1.0D, center.sub(A).dot(AB) / lengthSquare));
+            return center.sub(A.add(AB.scale(s))).lengthSquare() <= reach * reach;
+        }
+
+        /**
+         * The half-lines lie within the cone whose apex is the center of the origins, whose axis is the center
+         * of the directions and whose aperture is the one of the ball bounding the directions, once inflated by
+         * the radius of the ball bounding the origins.
+         */
+        boolean mayHitRays(Vec3d center, double radius) {
+            final Vec3d apex = origins.getCenter(), axis = ends.getCenter();
+            final double reach = radius + origins.getRadius();
+            final double spread = ends.getRadius(), axisLength = axis.length();
+            if (spread >= axisLength) return true; // Directions all around
+
+            final Vec3d w = center.sub(apex);
+            final double distance = w.length();
+            if (distance <= reach) return true;
+
+            final double aperture = Math.asin(spread / axisLength);
+            final double angle = Math.acos(Math.max(-1.0D, Math.min(1.0D, w.dot(axis) / (distance * axisLength))));
+            if (angle <= aperture) return true;
+            if (angle - aperture >= Math.PI / 2.0D) return false;
+            return distance * Math.sin(angle - aperture) <= reach;
+        }
+    }
+}
@@ -20,6 +20,11 @@ public class Light {
         this.intensity = intensity;
     }
 
+    /**
+     * @return The position of the light source {@link Vec3d}.
+     */
+    public Vec3d getPosition() { return new Vec3d(position); }
+
     public Color getSpecularLight() { return spec; }
 
     public Color getDiffuseLight() { return diff; }
@@ -0,0 +1,240 @@
+package raytracing.rendering;
+
+import raytracing.maths.BoundingBox;
+import raytracing.maths.Vec3d;
+import raytracing.solids.Plane;
+import raytracing.solids.Solid;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A cube map around a point light giving, for each cell of directions, the solids that may lie in it sorted by
+ * their nearest distance from the light.
+ * <p>
+ * A shadow ray from a point toward the light only crosses the cell of the direction of the point, and only up to
+ * the distance of the point : a solid lying outside the cell, or farther than the point, cannot hide the light.
+ * A shadow query is thus resolved by a lookup when the point is nearer than the nearest solid of its cell, and
+ * otherwise traced exactly against the few solids of the cell nearer than the point. The solids are bounded by
+ * the spheres around their {@link Solid#getBounds() bounding boxes}, and the planes by the half of the directions
+ * heading toward them, so that the answer is always the one of a shadow ray traced against every solid.
+ * <p>
+ * The map is only valid for the position of the light and the solids it was built with.
+ * @author Mathieu Niord
+ */
+public class OcclusionMap {
+
+    /**
+     * Default number of cells along each side of a face of the cube.
+     */
+    public static final int DEFAULT_RESOLUTION = 32;
+
+    /**
+     * Angular margin added to the cells, covering the rounding of the directions near their boundaries.
+     */
+    private static final double ANGLE_MARGIN = 1e-6D;
+
+    /**
+     * Relative margin on the distances, covering the rounding of the points on the shadow rays.
+     */
+    private static final double DISTANCE_MARGIN = 1e-9D;
+
+    private final int resolution;
+
+    // The solids of cell c are solids[offsets[c]] to solids[offsets[c + 1] - 1], nearest first
+    private final int[] offsets;
+    private final Solid[] solids;
+    private final int[] indices; // Index in the scene of each solid
+    private final double[] distances;
+
+    /**
+     * Build the map of a light.
+     * @param position The position of the light {@link Vec3d}.
+     * @param objects The solids of the scene.
+     * @param resolution The number of cells along each side of a face of the cube.
+     */
+    public OcclusionMap(Vec3d position, List<Solid> objects, int resolution) {
+
+        if (resolution < 1) throw new IllegalArgumentException("An occlusion map needs at least one cell per face");
+        this.resolution = resolution;
+
+        // Bounding cone of each solid seen from the light, and its nearest distance
+        final int n = objects.size();
+        final Vec3d[] axes = new Vec3d[n];
+        final double[] apertures = new double[n], nearest = new double[n];
+        for (int k = 0; k < n; ++k) {
+
+            if (objects.get(k) instanceof Plane) {
+                // A plane is only seen in the half of the directions heading toward it
+                final Plane plane = (Plane) objects.get(k);
+                final Vec3d normal = plane.getPlaneNormal();
+                final double length = normal.length(), side = normal.dot(position) + plane.getDistance();
+                nearest[k] = Math.abs(side) / length;
+                if (side == 0.0D) apertures[k] = Math.PI;
+                else {
+                    axes[k] = normal.scale(-Math.signum(side) / length);
+                    apertures[k] = Math.PI / 2.0D;
+                }
+                continue;
+            }
+
+            final BoundingBox bounds = objects.get(k).getBounds();
+            if (bounds.isEmpty()) {
+                nearest[k] = Double.POSITIVE_INFINITY;
+                continue;
+            }
+            nearest[k] = bounds.distance(position);
+            if (bounds.isInfinite()) {
+                apertures[k] = Math.PI; // Seen in every direction
+                continue;
+            }
+            final Vec3d toCenter = bounds.getCenter().sub(position);
+            final double distance = toCenter.length(), radius = bounds.getRadius();
+            nearest[k] = Math.max(nearest[k], distance - radius);
+            if (distance <= radius) apertures[k] = Math.PI; // The light lies within the bounding sphere
+            else {
+                axes[k] = toCenter.scale(1.0D / distance);
+                apertures[k] = Math.asin(radius / distance);
+            }
+        }
+
+        // Gather the solids of each cell, sorted by nearest distance
+        final int cells = 6 * resolution * resolution;
+        this.offsets = new int[cells + 1];
+        final List<Integer> gathered = new ArrayList<>();
+        for (int cell = 0; cell < cells; ++cell) {
+
+            final int face = cell / (resolution * resolution);
+            final int i = (cell / resolution) % resolution, j = cell % resolution;
+            final Vec3d axis = cellDirection(face, (i + 0.5D) / resolution, (j + 0.5D) / resolution).normalize();
+            double radius = 0.0D;
+            for (int corner = 0; corner < 4; ++corner) {
+                final Vec3d c = cellDirection(face, (double) (i + (corner & 1)) / resolution, (double) (j + (corner >> 1)) / resolution).normalize();
+                radius = Math.max(radius, angle(axis, c));
+            }
+            radius += ANGLE_MARGIN;
+
+            final int start = gathered.size();
+            for (int k = 0; k < n; ++k) {
+                if (nearest[k] == Double.POSITIVE_INFINITY) continue;
+                if (apertures[k] >= Math.PI || angle(axis, axes[k]) <= radius + apertures[k]) {
+                    int at = gathered.size(); // Insertion sort, the cells hold few solids
+                    gathered.add(k);
+                    while (at > start && nearest[gathered.get(at - 1)] > nearest[k]) {
+                        gathered.set(at, gathered.get(at - 1));
+                        --at;
+                    }
+                    gathered.set(at, k);
+                }
+            }
+            offsets[cell + 1] = gathered.size();
+        }
+
+        this.solids = new Solid[gathered.size()];
+        this.indices = new int[gathered.size()];
+        this.distances = new double[gathered.size()];
+        for (int m = 0; m < gathered.size(); ++m) {
+            solids[m] = objects.get(gathered.get(m));
+            indices[m] = gathered.get(m);
+            distances[m] = nearest[gathered.get(m)];
+        }
+    }
+
+    public int getResolution() {
+        return resolution;
+    }
+
+    /**
+     * @param direction A direction from the light {@link Vec3d}.
+     * @return The index of the cell holding the direction.
+     */
+    public int getCell(Vec3d direction) {
+        return getCell(direction.x, direction.y, direction.z);
+    }
+
+    /**
+     * @return The index of the cell holding the direction (x, y, z) from the light.
+     */
+    public int getCell(double x, double y, double z) {
+
+        final double ax = Math.abs(x), ay = Math.abs(y), az = Math.abs(z);
+        final int face;
+        final double u, v;
+        if (ax >= ay && ax >= az) {
+            face = (x > 0.0D) ? 0 : 1;
+            u = y / ax;
+            v = z / ax;
+        }
+        else if (ay >= az) {
+            face = (y > 0.0D) ? 2 : 3;
+            u = x / ay;
+            v = z / ay;
+        }
+        else {
+            face = (z > 0.0D) ? 4 : 5;
+            u = x / az;
+            v = y / az;
+        }
+
+        final int i = Math.min(resolution - 1, (int) ((u + 1.0D) * 0.5D * resolution));
+        final int j = Math.min(resolution - 1, (int) ((v + 1.0D) * 0.5D * resolution));
+        return (face * resolution + i) * resolution + j;
+    }
+
+    /**
+     * @param cell The index of a cell.
+     * @return The nearest distance from the light of the solids of the cell, infinite if the cell holds none.
+     */
+    public double getNearestDistance(int cell) {
+        return (offsets[cell] == offsets[cell + 1]) ? Double.POSITIVE_INFINITY : distances[offsets[cell]];
+    }
+
+    /**
+     * @param cell The index of a cell.
+     * @param distance The distance from the light of a point whose direction lies in the cell.
+     * @return The number of solids of the cell that may lie between the point and the light, 0 when the lookup
+     * proves the light visible from the point.
+     */
+    public int getOccluderCount(int cell, double distance) {
+        final double limit = distance * (1.0D + DISTANCE_MARGIN);
+        int count = 0;
+        for (int m = offsets[cell]; m < offsets[cell + 1] && distances[m] <= limit; ++m) ++count;
+        return count;
+    }
+
+    /**
+     * @param cell The index of a cell.
+     * @param rank The rank of the solid in the cell, nearest first.
+     * @return The solid {@link Solid}.
+     */
+    public Solid getOccluder(int cell, int rank) {
+        return solids[offsets[cell] + rank];
+    }
+
+    /**
+     * @param cell The index of a cell.
+     * @param rank The rank of the solid in the cell, nearest first.
+     * @return The index of the solid in the scene the map was built from.
+     */
+    public int getOccluderIndex(int cell, int rank) {
+        return indices[offsets[cell] + rank];
+    }
+
+    /**
+     * The direction (not normalized) of the point (u, v) of a face of the cube, u and v being between 0 and 1.
+     * The faces are ordered +x, -x, +y, -y, +z, -z, as in {@link #getCell(Vec3d)}.
+     */
+    private static Vec3d cellDirection(int face, double u, double v) {
+        final double a = 2.0D * u - 1.0D, b = 2.0D * v - 1.0D;
+        final double sign = (face % 2 == 0) ? 1.0D : -1.0D;
+        switch (face / 2) {
+            case 0 : return new Vec3d(sign, a, b);
+            case 1 : return new Vec3d(a, sign, b);
+            default : return new Vec3d(a, b, sign);
+        }
+    }
+
+    private static double angle(Vec3d a, Vec3d b) {
+        return Math.acos(Math.max(-1.0D, Math.min(1.0D, a.dot(b))));
+    }
+}
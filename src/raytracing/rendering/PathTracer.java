@@ -0,0 +1,250 @@
+package raytracing.rendering;
+
+import raytracing.maths.Vec3d;
+import raytracing.solids.Solid;
+import raytracing.utils.Color;
+
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * Monte Carlo path tracer, an alternative to the Whitted tracing of {@link Scene#getRayColor} gathering the diffuse
+ * light bounced between the solids instead of the constant ambient light.
+ * <p>
+ * A path starts from a random point of the pixel. At each intersection, the direct light of the light sources is
+ * added (the shaders of the scene, shadows included), then the path carries on along one of the components of the
+ * material, chosen at random : a diffuse bounce (cosine weighted around the normal), the reflection or the
+ * refraction, each weighted by its coefficient. When the coefficients sum to less than 1, the path may also stop
+ * there (Russian roulette). A path leaving the scene receives the ambient light of the scene, the sky : an open
+ * diffuse surface then gets the ambient term of the Whitted tracing, and a surface hidden from the sky gets less.
+ * <p>
+ * Each pixel is sampled by batches until the standard error of the mean of its luminance falls below a target, or a
+ * maximum number of samples is reached : the samples go to the noisy pixels (penumbrae, indirect light) rather than
+ * to the smooth ones. The tiles are traced in parallel, each with its own {@link SplittableRandom} stream split in
+ * the order of the tiles from a seed, so that a frame does not depend on the threads which traced it.
+ * @author Mathieu Niord
+ */
+public class PathTracer {
+
+    /**
+     * Default standard error of the mean luminance of a pixel below which its sampling stops, in 8-bit levels.
+     */
+    public static final double DEFAULT_TARGET_ERROR = 1.0D;
+
+    /**
+     * Default minimum number of samples of a pixel, before its error is first estimated.
+     */
+    public static final int DEFAULT_MIN_SAMPLES = 16;
+
+    /**
+     * Default maximum number of samples of a pixel.
+     */
+    public static final int DEFAULT_MAX_SAMPLES = 1024;
+
+    private static final int BATCH = 8;
+
+    private final Scene scene;
+    private final Camera camera;
+    private final int depth;
+    private long seed = 0L;
+    private double targetError = DEFAULT_TARGET_ERROR;
+    private int minSamples = DEFAULT_MIN_SAMPLES, maxSamples = DEFAULT_MAX_SAMPLES;
+    private long samples = 0L;
+
+    /**
+     * @param scene The scene to render.
+     * @param camera The viewport of the image {@link Camera}.
+     * @param depth The maximum number of intersections of a path.
+     */
+    public PathTracer(Scene scene, Camera camera, int depth) {
+        this.scene = scene;
+        this.camera = camera;
+        this.depth = depth;
+    }
+
+    /**
+     * @param seed The seed of the random streams : the same seed renders the same frame.
+     */
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+    /**
+     * @param targetError The standard error of the mean luminance of a pixel below which its sampling stops,
+     * in 8-bit levels.
+     */
+    public void setTargetError(double targetError) {
+        if (!(targetError > 0.0D)) throw new IllegalArgumentException("The target error must be positive");
+        this.targetError = targetError;
+    }
+
+    /**
+     * @param minSamples The minimum number of samples of a pixel.
+     * @param maxSamples The maximum number of samples of a pixel.
+     */
+    public void setSampleRange(int minSamples, int maxSamples) {
+        if (minSamples < 2 || maxSamples < minSamples) throw new IllegalArgumentException("Invalid sample range : " + minSamples + " to " + maxSamples);
+        this.minSamples = minSamples;
+        this.maxSamples = maxSamples;
+    }
+
+    /**
+     * @return The number of paths traced by the last render.
+     */
+    public long getSampleCount() {
+        return samples;
+    }
+
+    /**
+     * Path trace the frame.
+     * @param framebuffer The framebuffer receiving the frame, of the size of the camera {@link HdrFramebuffer}.
+     */
+    public void render(HdrFramebuffer framebuffer) {
+
+        final List<Tile> tiles = Tile.split(camera.getWidth(), camera.getHeight(), Tile.DEFAULT_SIZE);
+
+        // Split in the order of the tiles, before the parallel part
+        final SplittableRandom root = new SplittableRandom(seed);
+        final SplittableRandom[] randoms = new SplittableRandom[tiles.size()];
+        for (int i = 0; i < randoms.length; ++i) randoms[i] = root.split();
+
+        samples = tiles.parallelStream().mapToLong(tile -> traceTile(tile, randoms[tile.index], framebuffer)).sum();
+    }
+
+    /**
+     * Sample every pixel of a tile until it converges.
+     * @return The number of paths traced.
+     */
+    private long traceTile(Tile tile, SplittableRandom random, HdrFramebuffer framebuffer) {
+
+        final Vec3d origin = camera.getOrigin();
+        final double[] radiance = new double[3];
+        long traced = 0L;
+
+        for (int row = tile.y; row < tile.y + tile.height; ++row) {
+            for (int col = tile.x; col < tile.x + tile.width; ++col) {
+
+                double sumB = 0.0D, sumG = 0.0D, sumR = 0.0D;
+                double mean = 0.0D, m2 = 0.0D; // Running mean and sum of squared deviations of the luminance
+                int n = 0;
+
+                while (n < maxSamples) {
+                    for (int k = 0; k < BATCH && n < maxSamples; ++k) {
+                        final Vec3d dir = camera.getDirection(col + random.nextDouble() - 0.5D, row + random.nextDouble() - 0.5D);
+                        trace(origin, dir, random, radiance);
+                        sumB += radiance[0];
+                        sumG += radiance[1];
+                        sumR += radiance[2];
+
+                        final double luminance = 0.0722D * radiance[0] + 0.7152D * radiance[1] + 0.2126D * radiance[2];
+                        final double delta = luminance - mean;
+                        mean += delta / ++n;
+                        m2 += delta * (luminance - mean);
+                    }
+                    if (n >= minSamples && m2 / ((double) (n - 1) * n) <= targetError * targetError) break;
+                }
+
+                framebuffer.set(col, row, (float) (sumB / n), (float) (sumG / n), (float) (sumR / n));
+                traced += n;
+            }
+        }
+        return traced;
+    }
+
+    /**
+     * Trace a path.
+     * @param P The origin of the path.
+     * @param v The direction of the first ray.
+     * @param random The random stream of the tile.
+     * @param radiance Receives the light brought by the path, Blue, Green, Red.
+     */
+    private void trace(Vec3d P, Vec3d v, SplittableRandom random, double[] radiance) {
+
+        double weightB = 1.0D, weightG = 1.0D, weightR = 1.0D;
+        radiance[0] = radiance[1] = radiance[2] = 0.0D;
+
+        for (int bounce = 0; bounce < depth; ++bounce) {
+
+            final Scene.Hit hit = scene.nearest(P, v, null, 0);
+            final Solid nearest = hit.solid;
+            final double t = hit.t;
+
+            if (nearest == null) { // The sky
+                final Color sky = scene.getAmbientLight();
+                radiance[0] += weightB * sky.getBlue();
+                radiance[1] += weightG * sky.getGreen();
+                radiance[2] += weightR * sky.getRed();
+                return;
+            }
+
+            final Vec3d I = P.add(v.scale(t));
+            Vec3d normal = nearest.getNormal(I);
+            final boolean inside = v.dot(normal) > 0.0D;
+            if (inside) normal = normal.scale(-1.0D);
+
+            final Color surface = nearest.getColor(I, t * v.length() * scene.getPixelSpread());
+            final Color direct = scene.directLight(I, v, normal, nearest, surface);
+            radiance[0] += weightB * direct.getBlue();
+            radiance[1] += weightG * direct.getGreen();
+            radiance[2] += weightR * direct.getRed();
+
+            // Choose the component carrying the path on, the probabilities of the three summing to at most 1
+            final double diffuse = (surface.getBlue() + surface.getGreen() + surface.getRed()) / (3.0D * 255.0D);
+            final double reflection = Math.max(Math.min(nearest.getReflection(), 1.0D), 0.0D);
+            final double transmission = (nearest.getRefractionIndex() > 0.0D) ? Math.max(Math.min(nearest.getTransmission(), 1.0D), 0.0D) : 0.0D;
+            final double total = Math.max(diffuse + reflection + transmission, 1.0D);
+            final double u = random.nextDouble() * total;
+
+            if (u < diffuse) {
+                weightB *= surface.getBlue() / 255.0D * total / diffuse;
+                weightG *= surface.getGreen() / 255.0D * total / diffuse;
+                weightR *= surface.getRed() / 255.0D * total / diffuse;
+                v = cosineDirection(normal, random);
+            }
+            else if (u < diffuse + reflection) {
+                // The coefficient and its probability cancel out, up to the normalisation
+                weightB *= total;
+                weightG *= total;
+                weightR *= total;
+                v = reflect(v, normal);
+            }
+            else if (u < diffuse + reflection + transmission) {
+                weightB *= total;
+                weightG *= total;
+                weightR *= total;
+                final double eta = (inside) ? nearest.getRefractionIndex() : (1.0D / nearest.getRefractionIndex());
+                final double c1 = -normal.dot(v) / v.length();
+                final double k = 1.0D - eta * eta * (1.0D - c1 * c1);
+                if (k < 0.0D) v = reflect(v, normal); // Total internal reflection
+                else {
+                    v = v.normalize().scale(eta).add(normal.scale(eta * c1 - Math.sqrt(k)));
+                    v.setNormalize();
+                }
+            }
+            else return; // Absorbed
+
+            P = I;
+        }
+    }
+
+    /**
+     * Mirror a direction about a normal.
+     */
+    private static Vec3d reflect(Vec3d v, Vec3d normal) {
+        return v.sub(normal.scale(2.0D * normal.dot(v)));
+    }
+
+    /**
+     * Draw a direction of the hemisphere around a normal, with a density proportional to the cosine to the normal :
+     * the density cancels the cosine of the diffuse reflection, whose estimator is then the albedo.
+     */
+    private static Vec3d cosineDirection(Vec3d normal, SplittableRandom random) {
+
+        final Vec3d tangent = normal.cross((Math.abs(normal.x) > 0.9D) ? new Vec3d(0, 1, 0) : new Vec3d(1, 0, 0));
+        tangent.setNormalize();
+        final Vec3d bitangent = normal.cross(tangent);
+
+        final double phi = 2.0D * Math.PI * random.nextDouble(), r2 = random.nextDouble(), r = Math.sqrt(r2);
+        return tangent.scale(Math.cos(phi) * r).add(bitangent.scale(Math.sin(phi) * r)).add(normal.scale(Math.sqrt(1.0D - r2)));
+    }
+}
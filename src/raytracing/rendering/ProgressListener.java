@@ -0,0 +1,17 @@
+package raytracing.rendering;
+
+/**
+ * Receives the progress of a render of a {@link Renderer}.
+ * @author Mathieu Niord
+ */
+@FunctionalInterface
+public interface ProgressListener {
+
+    /**
+     * Called each time a tile is complete, by the rendering thread which completed it.
+     * The calls of concurrent threads may arrive out of order.
+     * @param completedTiles The number of tiles completed so far.
+     * @param totalTiles The number of tiles of the frame.
+     */
+    void onProgress(int completedTiles, int totalTiles);
+}
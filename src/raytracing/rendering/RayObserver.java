@@ -0,0 +1,32 @@
+package raytracing.rendering;
+
+import raytracing.maths.Vec3d;
+import raytracing.solids.Solid;
+
+/**
+ * Receives the rays traced by {@link Scene#getRayColor(Vec3d, Vec3d, int, RayObserver)}.
+ * The callbacks of a pixel are made by the thread computing it, in tracing order : the first call to
+ * {@link #onRay} of a pixel is its primary ray.
+ * @author Mathieu Niord
+ */
+public interface RayObserver {
+
+    /**
+     * Called for each traced ray once its nearest intersection is known.
+     * @param P The origin of the ray {@link Vec3d}.
+     * @param v The direction of the ray {@link Vec3d}.
+     * @param depth The remaining number of recursive calls.
+     * @param hit The nearest solid intersected, null if the ray escapes the scene {@link Solid}.
+     * @param t The root value of the intersection (undefined when there is no hit).
+     */
+    default void onRay(Vec3d P, Vec3d v, int depth, Solid hit, double t) {}
+
+    /**
+     * Called for each shadow ray cast from an intersection point toward a light source.
+     * @param I The intersection point {@link Vec3d}.
+     * @param IS The vector from the intersection point to the light source {@link Vec3d}.
+     * @param light The light source {@link Light}.
+     * @param occluder The solid hiding the light source, null if no solid hides it {@link Solid}.
+     */
+    default void onShadowRay(Vec3d I, Vec3d IS, Light light, Solid occluder) {}
+}
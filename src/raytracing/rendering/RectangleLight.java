@@ -0,0 +1,37 @@
+package raytracing.rendering;
+
+import raytracing.maths.Vec3d;
+import raytracing.utils.Color;
+
+/**
+ * A rectangular area light, spanned by two edges from its center.
+ * @author Mathieu Niord
+ */
+public class RectangleLight extends AreaLight {
+
+    private final Vec3d center, halfEdgeU, halfEdgeV;
+
+    /**
+     * @param center The center of the rectangle.
+     * @param halfEdgeU Half of the first edge of the rectangle.
+     * @param halfEdgeV Half of the second edge of the rectangle.
+     * @param specular The specular color of the light.
+     * @param diffuse The diffuse color of the light.
+     * @param intensity The intensity of the light.
+     * @param samples The number of stratified samples along each edge, used in the penumbra.
+     */
+    public RectangleLight(
+            Vec3d center, Vec3d halfEdgeU, Vec3d halfEdgeV,
+            Color specular, Color diffuse, double intensity, int samples
+    ) {
+        super(center, specular, diffuse, intensity, samples);
+        this.center = new Vec3d(center);
+        this.halfEdgeU = new Vec3d(halfEdgeU);
+        this.halfEdgeV = new Vec3d(halfEdgeV);
+    }
+
+    @Override
+    public Vec3d getPoint(double s, double t) {
+        return center.add(halfEdgeU.scale(2.0D * s - 1.0D)).add(halfEdgeV.scale(2.0D * t - 1.0D));
+    }
+}
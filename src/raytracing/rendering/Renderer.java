@@ -0,0 +1,248 @@
+package raytracing.rendering;
+
+import raytracing.maths.Vec3d;
+import raytracing.maths.Vec3f;
+import raytracing.utils.Color;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Renders frames asynchronously, to embed the ray tracer in an application rather than running it as a program.
+ * <p>
+ * A render cuts the frame into tiles, which a few workers submitted to an {@link Executor} pull one after the
+ * other. It returns at once a {@link CompletableFuture} completed with the image buffer once every tile is
+ * traced and the frame is handed to the {@link FrameSink}. The progress is reported after each tile. The tiles are
+ * claimed in row-major order, or along a space-filling curve ({@link TileOrder}).
+ * Cancelling the future stops the render : the workers check it before each row of a tile and give up.
+ * <p>
+ * The scene must not be edited while it is being rendered. Several frames may be rendered concurrently.
+ * @author Mathieu Niord
+ */
+public class Renderer {
+
+    private final Scene scene;
+    private final Camera camera;
+    private final int depth;
+    private final Executor executor;
+    private final int parallelism;
+    private boolean singlePrecision = false;
+    private int tileSize = Tile.DEFAULT_SIZE;
+    private TileOrder tileOrder = TileOrder.ROW_MAJOR;
+
+    /**
+     * Constructs a renderer running on the common fork-join pool.
+     * @param scene The scene to render.
+     * @param camera The viewport of the image {@link Camera}.
+     * @param depth The maximum ray depth.
+     */
+    public Renderer(Scene scene, Camera camera, int depth) {
+        this(scene, camera, depth, ForkJoinPool.commonPool(), ForkJoinPool.getCommonPoolParallelism());
+    }
+
+    /**
+     * @param scene The scene to render.
+     * @param camera The viewport of the image {@link Camera}.
+     * @param depth The maximum ray depth.
+     * @param executor The executor running the workers {@link Executor}.
+     * @param parallelism The number of workers of a render.
+     */
+    public Renderer(Scene scene, Camera camera, int depth, Executor executor, int parallelism) {
+        if (parallelism < 1) throw new IllegalArgumentException("A render needs at least one worker");
+        this.scene = scene;
+        this.camera = camera;
+        this.depth = depth;
+        this.executor = executor;
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Use the single-precision (float) rendering kernel.
+     * @param singlePrecision true to trace the rays in single precision.
+     */
+    public void setSinglePrecision(boolean singlePrecision) {
+        this.singlePrecision = singlePrecision;
+    }
+
+    /**
+     * @param tileSize The side of the tiles the frame is cut into.
+     */
+    public void setTileSize(int tileSize) {
+        if (tileSize < 1) throw new IllegalArgumentException("The tile size must be at least 1");
+        this.tileSize = tileSize;
+    }
+
+    /**
+     * @param tileOrder The order in which the tiles are traced {@link TileOrder}.
+     */
+    public void setTileOrder(TileOrder tileOrder) {
+        this.tileOrder = tileOrder;
+    }
+
+    public Camera getCamera() {
+        return camera;
+    }
+
+    /**
+     * Start the render of a frame.
+     * @param sink The sink of the frame, may be null {@link FrameSink}.
+     * @param progress The listener of the progress, may be null {@link ProgressListener}.
+     * @return The future image buffer, 3 bytes per pixel ordered Blue, Green, Red. Cancel it to stop the render.
+     */
+    public CompletableFuture<byte[]> render(FrameSink sink, ProgressListener progress) {
+        return render(sink, progress, null, null);
+    }
+
+    /**
+     * Start the render of a frame, recording its completed tiles in a checkpoint : the tiles the checkpoint already
+     * holds are not traced again.
+     * @param sink The sink of the frame, may be null {@link FrameSink}.
+     * @param progress The listener of the progress, may be null {@link ProgressListener}.
+     * @param checkpoint The checkpoint of the frame, may be null {@link Checkpoint}.
+     * @param buffer The image buffer holding the pixels of the tiles of the checkpoint, may be null without one.
+     * @return The future image buffer, 3 bytes per pixel ordered Blue, Green, Red. Cancel it to stop the render.
+     * @throws IllegalArgumentException If the checkpoint was not taken on the frame and tiles of this renderer.
+     */
+    public CompletableFuture<byte[]> render(FrameSink sink, ProgressListener progress, Checkpoint checkpoint, byte[] buffer) {
+
+        if (checkpoint != null && !checkpoint.matches(camera.getWidth(), camera.getHeight(), tileSize))
+            throw new IllegalArgumentException("The checkpoint does not match the frame or the tiles");
+
+        final Frame frame = new Frame(sink, progress, checkpoint, buffer);
+        if (frame.getTileCount() == 0) frame.complete();
+        final int workers = Math.min(parallelism, frame.getTileCount());
+        for (int i = 0; i < workers; ++i) {
+            try {
+                executor.execute(() -> {
+                    int tile;
+                    while ((tile = frame.claim()) >= 0) frame.trace(tile);
+                });
+            }
+            catch (RuntimeException e) {
+                frame.future.completeExceptionally(e);
+                break;
+            }
+        }
+        return frame.future;
+    }
+
+    /**
+     * Prepare the render of a frame, whose tiles are then claimed and traced by the caller
+     * (for instance a {@link BatchRenderer} scheduling the tiles of several frames).
+     * @param sink The sink of the frame, may be null {@link FrameSink}.
+     * @param progress The listener of the progress, may be null {@link ProgressListener}.
+     * @return The frame to trace.
+     */
+    Frame prepare(FrameSink sink, ProgressListener progress) {
+        return new Frame(sink, progress, null, null);
+    }
+
+    /**
+     * The state of a render, shared by its workers.
+     */
+    class Frame {
+
+        final List<Tile> tiles = Tile.split(camera.getWidth(), camera.getHeight(), tileSize);
+        final byte[] buffer;
+        final CompletableFuture<byte[]> future = new CompletableFuture<>();
+        final AtomicInteger next = new AtomicInteger(), completed = new AtomicInteger();
+        final FrameSink sink;
+        final ProgressListener progress;
+        final Checkpoint checkpoint;
+        final int[] pending; // The indices of the tiles to trace, in the tile order
+        final int resumed;
+
+        Frame(FrameSink sink, ProgressListener progress, Checkpoint checkpoint, byte[] buffer) {
+            this.sink = sink;
+            this.progress = progress;
+            this.checkpoint = checkpoint;
+            this.buffer = (buffer != null) ? buffer : new byte[3 * camera.getWidth() * camera.getHeight()];
+            this.pending = Arrays.stream(tileOrder.order(tiles, tileSize)).filter(i -> checkpoint == null || !checkpoint.isCompleted(i)).toArray();
+            this.resumed = tiles.size() - pending.length;
+        }
+
+        /**
+         * @return The number of tiles to trace.
+         */
+        int getTileCount() {
+            return pending.length;
+        }
+
+        /**
+         * @return The index of the next tile to trace, -1 if none is left or the render is over (cancelled or failed).
+         */
+        int claim() {
+            if (future.isDone()) return -1;
+            final int index = next.getAndIncrement();
+            return (index < pending.length) ? pending[index] : -1;
+        }
+
+        /**
+         * Trace a claimed tile and report it, completing the frame after its last tile.
+         * @param index The index of the tile.
+         */
+        void trace(int index) {
+            try {
+                final Tile tile = tiles.get(index);
+                if (!renderTile(tile)) return;
+
+                if (checkpoint != null) checkpoint.append(tile, buffer);
+                if (sink != null) sink.onTile(tile, buffer);
+                final int done = completed.incrementAndGet();
+                if (progress != null) progress.onProgress(resumed + done, tiles.size());
+
+                if (done == pending.length) complete();
+            }
+            catch (Throwable e) {
+                future.completeExceptionally(e);
+            }
+        }
+
+        /**
+         * Hand the frame to the sink and complete it.
+         */
+        void complete() {
+            try {
+                if (sink != null) sink.accept(buffer, camera.getWidth(), camera.getHeight());
+                future.complete(buffer);
+            }
+            catch (Throwable e) {
+                future.completeExceptionally(e);
+            }
+        }
+
+        /**
+         * @return false if the render was stopped before the end of the tile.
+         */
+        boolean renderTile(Tile tile) {
+
+            final int width = camera.getWidth();
+            final Vec3d origin = camera.getOrigin();
+            final Vec3f originF = new Vec3f(origin);
+
+            for (int row = tile.y; row < tile.y + tile.height; ++row) {
+
+                if (future.isDone()) return false;
+
+                for (int col = tile.x; col < tile.x + tile.width; ++col) {
+
+                    final int index = 3 * ((row * width) + col);
+                    final Vec3d dir = camera.getDirection(col, row);
+
+                    Color color = (singlePrecision)
+                            ? scene.getRayColor(originF, new Vec3f(dir), depth)
+                            : scene.getRayColor(origin, dir, depth);
+
+                    buffer[index] = (byte)color.getBlue();      // Blue
+                    buffer[index+1] = (byte)color.getGreen();   // Green
+                    buffer[index+2] = (byte)color.getRed();     // Red
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -2,10 +2,15 @@ package raytracing.rendering;
 
 import raytracing.utils.Color;
 import raytracing.maths.Vec3d;
+import raytracing.maths.Vec3f;
 import raytracing.solids.*;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 
 /**
  * The scene in where planes, objects and lights are placed (in other words "what is showed").
@@ -16,6 +21,27 @@ public class Scene {
     private final ArrayList<Solid> objects = new ArrayList<>();
     private final ArrayList<Light> lights = new ArrayList<>();
     private Color ambientLight;
+    private boolean highDynamicRange = false;
+    private double pixelSpread = 0.0D;
+    private int shadowSamples = 0;
+    private Map<Light, OcclusionMap> occlusionMaps = null; // Dropped by any edit of the solids or lights
+    private BoundingVolumeHierarchy hierarchy = null;
+    private boolean hierarchyStale = false; // Set by any edit of the solids, until the hierarchy is updated
+    private FloatGeometry floatGeometry = null; // Packed on the first float ray, dropped by any edit of the solids or lights
+
+    /**
+     * The nearest intersection of a ray, and the scratch of the traversal of the hierarchy : one per thread, so that
+     * tracing a ray allocates nothing. Its fields are only valid until the next ray traced by the thread.
+     */
+    static final class Hit {
+        int index;      // Index in the scene of the nearest solid, -1 if none
+        Solid solid;    // The nearest solid, null if none
+        double t;       // Root value of the intersection, Double.MAX_VALUE if none
+        final int[] stack = new int[BoundingVolumeHierarchy.STACK_SIZE];
+        final float[] normal = new float[3]; // Normal at the intersection of the float kernel
+    }
+
+    private static final ThreadLocal<Hit> HITS = ThreadLocal.withInitial(Hit::new);
 
     public Scene() {
         ambientLight = Color.BLACK;
@@ -29,12 +55,153 @@ public class Scene {
         this.ambientLight = ambientLight;
     }
 
+    /**
+     * Enable or disable the high dynamic range shading : the colors are no longer clamped to 255 while they are
+     * accumulated, and the intensity of the lights may exceed 1. The colors must then be tone mapped.
+     * @param highDynamicRange true to enable the high dynamic range shading.
+     */
+    public void setHighDynamicRange(boolean highDynamicRange) {
+        this.highDynamicRange = highDynamicRange;
+    }
+
+    public boolean isHighDynamicRange() {
+        return highDynamicRange;
+    }
+
+    /**
+     * Set the angle seen by a pixel, from which the footprint of the pixels on the solids is estimated to filter
+     * their textures ({@link Camera#getPixelSpread()}). With the default 0, the textures are not filtered.
+     * @param pixelSpread The angle seen by a pixel, in radians.
+     */
+    public void setPixelSpread(double pixelSpread) {
+        this.pixelSpread = pixelSpread;
+    }
+
+    public double getPixelSpread() {
+        return pixelSpread;
+    }
+
+    /**
+     * Cap the number of stratified samples of the area lights, trading the smoothness of the penumbrae for speed.
+     * With the default 0, each light uses its own {@link AreaLight#getSamples() number of samples}.
+     * @param shadowSamples The maximum number of samples along each axis of an area light, 0 for no cap.
+     */
+    public void setShadowSamples(int shadowSamples) {
+        if (shadowSamples < 0) throw new IllegalArgumentException("The shadow samples cannot be negative");
+        this.shadowSamples = shadowSamples;
+    }
+
+    public int getShadowSamples() {
+        return shadowSamples;
+    }
+
+    /**
+     * @return The ambient light color of the scene.
+     */
+    public Color getAmbientLight() {
+        return ambientLight;
+    }
+
+    /**
+     * @return A read-only view of the solids of the scene.
+     */
+    public List<Solid> getObjects() {
+        return Collections.unmodifiableList(objects);
+    }
+
+    /**
+     * @return A read-only view of the lights of the scene.
+     */
+    public List<Light> getLights() {
+        return Collections.unmodifiableList(lights);
+    }
+
+    /**
+     * Replace a solid of the scene, for instance to move it.
+     * @param old The solid to replace.
+     * @param replacement The new solid.
+     * @throws IllegalArgumentException If the solid is not part of the scene.
+     */
+    public void replaceObject(Solid old, Solid replacement) {
+        final int index = objects.indexOf(old);
+        if (index < 0) throw new IllegalArgumentException("The solid is not part of the scene");
+        objects.set(index, replacement);
+        occlusionMaps = null;
+        floatGeometry = null;
+        hierarchyStale = true;
+    }
+
+    /**
+     * Replace a light of the scene, for instance to move it or change its colors.
+     * @param old The light to replace.
+     * @param replacement The new light.
+     * @throws IllegalArgumentException If the light is not part of the scene.
+     */
+    public void replaceLight(Light old, Light replacement) {
+        final int index = lights.indexOf(old);
+        if (index < 0) throw new IllegalArgumentException("The light is not part of the scene");
+        lights.set(index, replacement);
+        occlusionMaps = null;
+        floatGeometry = null;
+    }
+
+    /**
+     * Precompute the {@link OcclusionMap} of each point light, which then resolves most shadow rays by a lookup.
+     * The maps are dropped by any later edit of the solids or lights of the scene, and must be built again.
+     * @param resolution The number of cells along each side of a face of the cube maps.
+     */
+    public void buildOcclusionMaps(int resolution) {
+        Map<Light, OcclusionMap> maps = new IdentityHashMap<>();
+        for (Light light : lights)
+            if (!(light instanceof AreaLight)) maps.put(light, new OcclusionMap(light.getPosition(), objects, resolution));
+        occlusionMaps = maps;
+    }
+
+    /**
+     * Build a {@link BoundingVolumeHierarchy} over the solids, which then resolves the rays of both kernels.
+     * After an edit of the solids (for instance moving them by {@link #replaceObject}), the hierarchy is
+     * ignored until {@link #updateHierarchy()} refits it.
+     * @param rebuildThreshold The ratio of the SAH cost of the tree to its cost at build time beyond which it is
+     * rebuilt, {@link BoundingVolumeHierarchy#DEFAULT_REBUILD_THRESHOLD} by default.
+     */
+    public void buildHierarchy(double rebuildThreshold) {
+        hierarchy = new BoundingVolumeHierarchy(objects, rebuildThreshold);
+        hierarchyStale = false;
+    }
+
+    /**
+     * Refit the hierarchy to the edits of the solids, once per frame of an animation, rebuilding it if its quality
+     * degraded. Does nothing if no hierarchy was built.
+     */
+    public void updateHierarchy() {
+        if (hierarchy == null || !hierarchyStale) return;
+        hierarchy.update(objects);
+        hierarchyStale = false;
+    }
+
+    /**
+     * @return The hierarchy of the solids, null if none was built {@link BoundingVolumeHierarchy}.
+     */
+    public BoundingVolumeHierarchy getHierarchy() {
+        return hierarchy;
+    }
+
+    /**
+     * @return Whether the occlusion maps of the point lights are built.
+     */
+    public boolean hasOcclusionMaps() {
+        return occlusionMaps != null;
+    }
+
     /**
      * Add an iherited object from {@link Solid} to the scene.
      * @param object The object to add.
      */
     public void addObject(Solid object) {
         objects.add(object);
+        occlusionMaps = null;
+        floatGeometry = null;
+        hierarchyStale = true;
     }
 
     /**
@@ -43,6 +210,8 @@ public class Scene {
      */
     public void addLight(Light light) {
         this.lights.add(light);
+        occlusionMaps = null;
+        floatGeometry = null;
     }
 
     /**
@@ -68,6 +237,9 @@ public class Scene {
                     radius, center, color, specularColor, shininess, reflexivity, transparency, refractionIndex
                 )
         );
+        occlusionMaps = null;
+        floatGeometry = null;
+        hierarchyStale = true;
     }
 
     /**
@@ -93,6 +265,9 @@ public class Scene {
                     distance, normal, color, specularColor, shininess, reflexivity, transparency, refractionIndex
                 )
         );
+        occlusionMaps = null;
+        floatGeometry = null;
+        hierarchyStale = true;
     }
 
     /**
@@ -117,6 +292,9 @@ public class Scene {
                     distance, normal, specularColor, shininess, reflexivity, transparency, refractionIndex
                 )
         );
+        occlusionMaps = null;
+        floatGeometry = null;
+        hierarchyStale = true;
     }
 
     /**
@@ -143,6 +321,9 @@ public class Scene {
                     distance, normal, primary, secondary, specularColor, shininess, reflexivity, transparency, refractionIndex
                 )
         );
+        occlusionMaps = null;
+        floatGeometry = null;
+        hierarchyStale = true;
     }
 
     /**
@@ -154,27 +335,84 @@ public class Scene {
      * @author Mathieu Niord
      */
     public Color getRayColor(Vec3d P, Vec3d v, int depth) {
+        return getRayColor(P, v, depth, null);
+    }
+
+    /**
+     * Compute the color of the pixel at the given coordinates, reporting the traced rays to an observer.
+     * @param P The origin of the ray.
+     * @param v The direction of the ray.
+     * @param depth The number of recursive calls.
+     * @param observer The observer of the traced rays, may be null {@link RayObserver}.
+     * @return The color of the pixel at the given coordinates.
+     */
+    public Color getRayColor(Vec3d P, Vec3d v, int depth, RayObserver observer) {
 
         // If the depth is not 0, return (recursive stop)
         if (depth == 0) return ambientLight;
 
-        boolean hit = false;
-        double t = Double.MAX_VALUE;
-        Solid nearestSolid = null;
-        Color col;
+        // Retrieve the nearest solid, read before shading traces the next rays
+        final Hit hit = nearest(P, v, null, 0);
+        final Solid nearestSolid = hit.solid;
+        final double t = hit.t;
 
-        // Retrieve the nearest solid by computing the intersection of the ray with all the solids
-        for (Solid solid : objects) {
-            double delta = solid.getIntersection(P, v);
-            if (delta > 0.0D && delta < t) { // Hit!
-                hit = true;
-                t = delta;
-                nearestSolid = solid;
+        if (observer != null) observer.onRay(P, v, depth, nearestSolid, t);
+
+        // If there is no intersection, return the ambient light
+        if (nearestSolid == null) return ambientLight;
+
+        return shade(P, v, t, nearestSolid, depth, observer);
+    }
+
+    /**
+     * Find the nearest intersection of a ray : the solids whose box the ray crosses when the scene has an up to date
+     * hierarchy, all the solids otherwise. The ties resolve to the first solid in the order of the scene.
+     * @param P The origin of the ray {@link Vec3d}.
+     * @param v The direction of the ray {@link Vec3d}.
+     * @param candidates The indices of the only solids to test, in the order of the scene, null to test them all.
+     * The hierarchy is not used with candidates.
+     * @param count The number of candidates.
+     * @return The hit holder of the calling thread, valid until its next ray {@link Hit}.
+     */
+    Hit nearest(Vec3d P, Vec3d v, int[] candidates, int count) {
+
+        final Hit hit = HITS.get();
+        final BoundingVolumeHierarchy bvh = (hierarchyStale) ? null : hierarchy;
+        if (candidates == null && bvh != null) hit.index = bvh.nearest(P, v, hit);
+        else {
+            double t = Double.MAX_VALUE;
+            int nearest = -1;
+            final int size = (candidates == null) ? objects.size() : count;
+            for (int c = 0; c < size; ++c) {
+                final int index = (candidates == null) ? c : candidates[c];
+                final double delta = objects.get(index).getIntersection(P, v);
+                if (delta > 0.0D && delta < t) { // Hit!
+                    t = delta;
+                    nearest = index;
+                }
             }
+            hit.index = nearest;
+            hit.t = t;
         }
+        hit.solid = (hit.index < 0) ? null : objects.get(hit.index);
+        return hit;
+    }
 
-        // If there is no intersection, return the ambient light
-        if (!hit) return ambientLight;
+    /**
+     * Compute the color seen along a ray whose nearest intersection is already known : the shaders at the
+     * intersection point plus the reflected and refracted rays. Used by {@link #getRayColor} and by the deferred
+     * renderers, which keep the primary intersections of a frame.
+     * @param P The origin of the ray.
+     * @param v The direction of the ray.
+     * @param t The root value of the nearest intersection.
+     * @param nearestSolid The nearest solid intersected {@link Solid}.
+     * @param depth The number of recursive calls (at least 1).
+     * @param observer The observer of the traced rays, may be null {@link RayObserver}.
+     * @return The color seen along the ray.
+     */
+    public Color shade(Vec3d P, Vec3d v, double t, Solid nearestSolid, int depth, RayObserver observer) {
+
+        Color col;
 
         final Vec3d I = P.add(v.scale(t));  // Intersection point
         Vec3d nI = nearestSolid.getNormal(I); // Normal at intersection point
@@ -186,10 +424,13 @@ public class Scene {
             inside = true;
         }
 
-        col = (nearestSolid.getColor(I)).multiply(ambientLight);
+        // Color of the solid, filtered over the area the pixel sees at the distance of the intersection
+        final Color surface = nearestSolid.getColor(I, t * v.length() * pixelSpread);
+        col = surface.multiply(ambientLight);
+        if (highDynamicRange) col = col.toHdr();
 
         // Compute the new color of the object implementing shaders (Phong's model)
-        computeShaders(I, v, nI, nearestSolid, col);
+        computeShaders(I, v, nI, nearestSolid, surface, col, observer);
 
         if (nearestSolid.getReflection() > 0.0D || nearestSolid.getTransmission() > 0.0D) {
 
@@ -197,7 +438,7 @@ public class Scene {
             if (nearestSolid.getReflection() > 0.0D) {
                 final Vec3d reflectDir = I.sub(nI.scale(2.0D * nI.dot(I)));
                 Color reflectedColor =
-                        getRayColor(I, reflectDir, depth - 1)
+                        getRayColor(I, reflectDir, depth - 1, observer)
                         .scale(Math.max(Math.min(nearestSolid.getReflection(), 1.0D), 0.0D))
                 ;
 
@@ -214,7 +455,7 @@ public class Scene {
                 refractDir.setNormalize();
 
                 Color refractedColor =
-                        getRayColor(I, refractDir, depth - 1)
+                        getRayColor(I, refractDir, depth - 1, observer)
                         .scale(Math.max(Math.min(nearestSolid.getTransmission(), 1.0D), 0.0D))
                 ;
 
@@ -225,30 +466,156 @@ public class Scene {
         return col;
     }
 
+    /**
+     * Single precision variant of {@link #getRayColor(Vec3d, Vec3d, int)}, tracing the rays on the
+     * {@link FloatGeometry} of the scene : the solids whose box the ray crosses when the scene has an up to date
+     * hierarchy, all the solids otherwise. The vectors of the rays are kept as scalar components.
+     * @param P The origin of the ray.
+     * @param v The direction of the ray.
+     * @param depth The number of recursive calls.
+     * @return The color of the pixel at the given coordinates.
+     */
+    public Color getRayColor(Vec3f P, Vec3f v, int depth) {
+        FloatGeometry geometry = floatGeometry;
+        if (geometry == null) floatGeometry = geometry = new FloatGeometry(objects, lights); // Final fields : safely shared
+        return getRayColor(geometry, P.x, P.y, P.z, v.x, v.y, v.z, depth);
+    }
+
+    private Color getRayColor(FloatGeometry g, float px, float py, float pz, float vx, float vy, float vz, int depth) {
+
+        // If the depth is not 0, return (recursive stop)
+        if (depth == 0) return ambientLight;
+
+        // Retrieve the nearest solid, read before shading traces the next rays
+        final Hit hit = HITS.get();
+        final int nearest = nearest(g, px, py, pz, vx, vy, vz, hit);
+
+        // If there is no intersection, return the ambient light
+        if (nearest < 0) return ambientLight;
+
+        final Solid nearestSolid = objects.get(nearest);
+        final float t = (float) hit.t;
+        Color col;
+
+        final float ix = px + vx * t, iy = py + vy * t, iz = pz + vz * t; // Intersection point
+        g.normal(nearest, ix, iy, iz, hit.normal);
+        float nx = hit.normal[0], ny = hit.normal[1], nz = hit.normal[2]; // Normal at intersection point
+        boolean inside = false;
+
+        // Flip normal if the ray is coming from the inside of the solid
+        if (vx * nx + vy * ny + vz * nz > 0.0F) {
+            nx = -nx;
+            ny = -ny;
+            nz = -nz;
+            inside = true;
+        }
+
+        // Color of the solid, filtered over the area the pixel sees at the distance of the intersection
+        final float length = (float) Math.sqrt(vx * vx + vy * vy + vz * vz);
+        final Color surface = nearestSolid.getColor(new Vec3f(ix, iy, iz), t * length * (float) pixelSpread);
+        col = surface.multiply(ambientLight);
+        if (highDynamicRange) col = col.toHdr();
+
+        // Compute the new color of the object implementing shaders (Phong's model)
+        computeShaders(g, ix, iy, iz, vx, vy, vz, nx, ny, nz, nearestSolid, surface, col);
+
+        if (nearestSolid.getReflection() > 0.0D || nearestSolid.getTransmission() > 0.0D) {
+
+            // Reflection
+            if (nearestSolid.getReflection() > 0.0D) {
+                final float k = 2.0F * (nx * ix + ny * iy + nz * iz);
+                Color reflectedColor =
+                        getRayColor(g, ix, iy, iz, ix - nx * k, iy - ny * k, iz - nz * k, depth - 1)
+                        .scale(Math.max(Math.min(nearestSolid.getReflection(), 1.0D), 0.0D))
+                ;
+
+                col.setAdd(reflectedColor);
+            }
+
+            // Refraction
+            if (nearestSolid.getTransmission() > 0.0D && nearestSolid.getRefractionIndex() > 0.0D) {
+
+                final float eta = (float) ((inside) ? nearestSolid.getRefractionIndex() : (1.0D / nearestSolid.getRefractionIndex()));
+                final float c1 = -nx * vx + -ny * vy + -nz * vz;
+                final float c2 = (float) Math.sqrt(1.0F - eta * eta * (1.0F - c1 * c1));
+                final float k = eta * c1 - c2;
+                float rx = vx * eta + nx * k, ry = vy * eta + ny * k, rz = vz * eta + nz * k;
+                final float scale = 1.0F / (float) Math.sqrt(rx * rx + ry * ry + rz * rz);
+                rx *= scale;
+                ry *= scale;
+                rz *= scale;
+
+                Color refractedColor =
+                        getRayColor(g, ix, iy, iz, rx, ry, rz, depth - 1)
+                        .scale(Math.max(Math.min(nearestSolid.getTransmission(), 1.0D), 0.0D))
+                ;
+
+                col.setAdd(refractedColor);
+            }
+        }
+
+        return col;
+    }
+
+    /**
+     * Single precision variant of {@link #nearest(Vec3d, Vec3d, int[], int)}, over every solid.
+     * @return The index in the scene of the nearest solid, -1 if none, its root value being left in the hit holder.
+     */
+    private int nearest(FloatGeometry g, float px, float py, float pz, float vx, float vy, float vz, Hit hit) {
+
+        if (hierarchy != null && !hierarchyStale) return hierarchy.nearest(g, px, py, pz, vx, vy, vz, hit);
+
+        float t = Float.MAX_VALUE;
+        int nearest = -1;
+        for (int k = 0; k < g.size(); ++k) {
+            final float delta = g.intersect(k, px, py, pz, vx, vy, vz);
+            if (delta > 0.0F && delta < t) { // Hit!
+                t = delta;
+                nearest = k;
+            }
+        }
+        hit.t = t;
+        return nearest;
+    }
+
+    /**
+     * Compute the light received directly from the light sources at an intersection point : the shaders without the
+     * ambient light, for the {@link PathTracer} which gathers the indirect light itself.
+     * @param I intersection point {@link Vec3d}
+     * @param v direction of the ray {@link Vec3d}
+     * @param normal normal at the intersection point, facing the ray {@link Vec3d}
+     * @param nearest solid intersected {@link Solid}
+     * @param surface color of the solid at the intersection point {@link Color}
+     * @return The high dynamic range color of the direct light {@link Color}.
+     */
+    Color directLight(Vec3d I, Vec3d v, Vec3d normal, Solid nearest, Color surface) {
+        final Color color = Color.hdr(0F, 0F, 0F);
+        computeShaders(I, v, normal, nearest, surface, color, null);
+        return color;
+    }
+
     /**
      * Compute the shaders of the given intersection point thanks the Phong's model
      * @param I intersection point {@link Vec3d}
      * @param v direction of the ray {@link Vec3d}
      * @param nearest solid intersected {@link Solid}
+     * @param surface color of the solid at the intersection point {@link Color}
+     * @param observer observer of the shadow rays, may be null {@link RayObserver}
      * @author Mathieu Niord
      */
-    private void computeShaders(Vec3d I, Vec3d v, Vec3d normal, Solid nearest, Color color) {
+    private void computeShaders(Vec3d I, Vec3d v, Vec3d normal, Solid nearest, Color surface, Color color, RayObserver observer) {
 
         // Shaders (Phong's model)
         for (Light light : lights) {
 
-            boolean visible = (light.getIntensity() > 0.0D);
             Vec3d IS = light.getDirection(I); // Vector from intersection point to light source
+            double visibility = 0.0D;
 
-            // Check if the light source is visible from the intersection point
-            Iterator<Solid> iterator = objects.iterator();
-            while (visible && iterator.hasNext()) {
-                Solid neighbor = iterator.next();
-                double deltaObj = neighbor.getIntersection(I, IS);   // Intersection with the light source
-                visible = !(deltaObj > 0.0D && deltaObj < 1.0D);    // Visibility test
-            }
+            // Check which fraction of the light source is visible from the intersection point
+            if (light.getIntensity() > 0.0D) visibility = getVisibility(I, IS.x, IS.y, IS.z, light, observer);
+            else if (observer != null) observer.onShadowRay(I, IS, light, null);
 
-            if (visible) {
+            if (visibility > 0.0D) {
 
                 IS.setNormalize();              // Normalized vector from intersection point to light source
                 Vec3d view = v.normalize();     // Normalized vector from intersection point to camera
@@ -257,16 +624,16 @@ public class Scene {
                 final Vec3d r = IS.sub(normal.scale(weight * 2.0D));
 
                 // Computation of the diffuse color
-                Color diff = light.getDiffuseLight()
-                        .multiply(nearest.getColor(I))
+                Color diff = lightColor(light.getDiffuseLight())
+                        .multiply(surface)
                         .scale(weight)
-                        .scale(Math.min(light.getIntensity(), 1.0D));
+                        .scale(lightIntensity(light) * visibility);
 
                 // Computation of the specular color
-                Color spec = light.getSpecularLight()
+                Color spec = lightColor(light.getSpecularLight())
                         .multiply(nearest.getSpecular())
                         .scale(Math.pow(Math.max(r.dot(view), 0.0D), nearest.getShininess()))
-                        .scale(Math.min(light.getIntensity(), 1.0D));
+                        .scale(lightIntensity(light) * visibility);
 
                 // The final color is the sum of the diffuse and specular colors
                 color.setAdd(diff.add(spec));
@@ -274,4 +641,206 @@ public class Scene {
         }
     }
 
+    /**
+     * Single precision variant of {@link #computeShaders(Vec3d, Vec3d, Vec3d, Solid, Color, Color, RayObserver)},
+     * the intersection point, the direction of the ray and the normal being given by their components.
+     * @param nearest solid intersected {@link Solid}
+     * @param surface color of the solid at the intersection point {@link Color}
+     */
+    private void computeShaders(
+            FloatGeometry g, float ix, float iy, float iz, float vx, float vy, float vz, float nx, float ny, float nz,
+            Solid nearest, Color surface, Color color
+    ) {
+
+        // Shaders (Phong's model)
+        for (int l = 0; l < lights.size(); ++l) {
+
+            final Light light = lights.get(l);
+
+            // Vector from intersection point to light source
+            float sx = g.lights[3 * l] - ix, sy = g.lights[3 * l + 1] - iy, sz = g.lights[3 * l + 2] - iz;
+
+            // Check which fraction of the light source is visible from the intersection point
+            final double visibility = (light.getIntensity() > 0.0D) ? getVisibility(g, ix, iy, iz, sx, sy, sz, light) : 0.0D;
+
+            if (visibility > 0.0D) {
+
+                // Normalized vector from intersection point to light source
+                final float inverse = 1.0F / (float) Math.sqrt(sx * sx + sy * sy + sz * sz);
+                sx *= inverse;
+                sy *= inverse;
+                sz *= inverse;
+
+                // Normalized vector from intersection point to camera
+                final float square = vx * vx + vy * vy + vz * vz;
+                final float scale = (square == 0.0F) ? 1.0F : 1.0F / (float) Math.sqrt(square);
+
+                final float weight = Math.max(nx * sx + ny * sy + nz * sz, 0.0F);
+                final float rx = sx - nx * (weight * 2.0F), ry = sy - ny * (weight * 2.0F), rz = sz - nz * (weight * 2.0F);
+
+                // Computation of the diffuse color
+                Color diff = lightColor(light.getDiffuseLight())
+                        .multiply(surface)
+                        .scale(weight)
+                        .scale(lightIntensity(light) * visibility);
+
+                // Computation of the specular color
+                Color spec = lightColor(light.getSpecularLight())
+                        .multiply(nearest.getSpecular())
+                        .scale(Math.pow(Math.max(rx * (vx * scale) + ry * (vy * scale) + rz * (vz * scale), 0.0F), nearest.getShininess()))
+                        .scale(lightIntensity(light) * visibility);
+
+                // The final color is the sum of the diffuse and specular colors
+                color.setAdd(diff.add(spec));
+            }
+        }
+    }
+
+    /**
+     * Estimate the fraction of a light source visible from a point. A point light is either visible or hidden.
+     * The visibility of an {@link AreaLight} is first probed toward its rim and its center : if the probes all agree
+     * the point is fully lit or fully shadowed, otherwise it lies in the penumbra and the stratified samples of the
+     * light give the visible fraction. The shadow rays are given by their components, so that they do not escape
+     * the shaders when the visibility is not inlined.
+     * @param I The point {@link Vec3d}.
+     * @param sx The vector from the point to the position of the light.
+     * @param light The light source {@link Light}.
+     * @param observer The observer of the shadow rays, may be null {@link RayObserver}.
+     * @return The visible fraction of the light, between 0 and 1.
+     */
+    private double getVisibility(Vec3d I, double sx, double sy, double sz, Light light, RayObserver observer) {
+
+        if (!(light instanceof AreaLight)) return isVisible(I, sx, sy, sz, light, observer) ? 1.0D : 0.0D;
+
+        final AreaLight area = (AreaLight) light;
+        int visibleProbes = 0;
+        for (double[] probe : AreaLight.PROBES) {
+            final Vec3d S = area.getPoint(probe[0], probe[1]);
+            if (isVisible(I, S.x - I.x, S.y - I.y, S.z - I.z, light, observer)) ++visibleProbes;
+        }
+
+        if (visibleProbes == AreaLight.PROBES.length) return 1.0D;
+        if (visibleProbes == 0) return 0.0D;
+
+        // Penumbra : one jittered sample in each stratum of the light
+        final int n = (shadowSamples > 0) ? Math.min(shadowSamples, area.getSamples()) : area.getSamples();
+        final long seed = Double.doubleToLongBits(I.x) ^ Long.rotateLeft(Double.doubleToLongBits(I.y), 21) ^ Long.rotateLeft(Double.doubleToLongBits(I.z), 42);
+        int visibleSamples = 0;
+        for (int i = 0; i < n; ++i)
+            for (int j = 0; j < n; ++j) {
+                final int index = i * n + j;
+                final Vec3d S = area.getPoint((i + AreaLight.jitter(seed, 2 * index)) / n, (j + AreaLight.jitter(seed, 2 * index + 1)) / n);
+                if (isVisible(I, S.x - I.x, S.y - I.y, S.z - I.z, light, observer)) ++visibleSamples;
+            }
+        return (double) visibleSamples / (n * n);
+    }
+
+    /**
+     * Cast a shadow ray, given to the solids by its components.
+     * @param I The origin of the shadow ray {@link Vec3d}.
+     * @param sx The vector from the origin to the point of the light source.
+     * @param light The light source {@link Light}.
+     * @param observer The observer of the shadow rays, may be null {@link RayObserver}.
+     * @return Whether no solid lies between the origin and the point of the light source.
+     */
+    private boolean isVisible(Vec3d I, double sx, double sy, double sz, Light light, RayObserver observer) {
+
+        Solid occluder = null;
+        final OcclusionMap map = (occlusionMaps == null) ? null : occlusionMaps.get(light);
+
+        if (map != null) {
+            // Only the solids of the cell of the shadow ray nearer than its origin may hide the light
+            final int cell = map.getCell(-sx, -sy, -sz);
+            final int count = map.getOccluderCount(cell, Math.sqrt(sx * sx + sy * sy + sz * sz));
+            for (int rank = 0; occluder == null && rank < count; ++rank) {
+                Solid neighbor = map.getOccluder(cell, rank);
+                double deltaObj = neighbor.getIntersection(I.x, I.y, I.z, sx, sy, sz);   // Intersection with the light source
+                if (deltaObj > 0.0D && deltaObj < 1.0D) occluder = neighbor; // Visibility test
+            }
+        }
+        else if (hierarchy != null && !hierarchyStale) occluder = hierarchy.occluder(I.x, I.y, I.z, sx, sy, sz, HITS.get().stack);
+        else {
+            Iterator<Solid> iterator = objects.iterator();
+            while (occluder == null && iterator.hasNext()) {
+                Solid neighbor = iterator.next();
+                double deltaObj = neighbor.getIntersection(I.x, I.y, I.z, sx, sy, sz);   // Intersection with the light source
+                if (deltaObj > 0.0D && deltaObj < 1.0D) occluder = neighbor; // Visibility test
+            }
+        }
+
+        if (observer != null) observer.onShadowRay(I, new Vec3d(sx, sy, sz), light, occluder);
+        return occluder == null;
+    }
+
+    /**
+     * Single precision variant of {@link #getVisibility(Vec3d, double, double, double, Light, RayObserver)}.
+     */
+    private double getVisibility(FloatGeometry g, float ix, float iy, float iz, float sx, float sy, float sz, Light light) {
+
+        if (!(light instanceof AreaLight)) return isVisible(g, ix, iy, iz, sx, sy, sz, light) ? 1.0D : 0.0D;
+
+        final AreaLight area = (AreaLight) light;
+        int visibleProbes = 0;
+        for (double[] probe : AreaLight.PROBES) {
+            final Vec3d S = area.getPoint(probe[0], probe[1]);
+            if (isVisible(g, ix, iy, iz, (float) S.x - ix, (float) S.y - iy, (float) S.z - iz, light)) ++visibleProbes;
+        }
+
+        if (visibleProbes == AreaLight.PROBES.length) return 1.0D;
+        if (visibleProbes == 0) return 0.0D;
+
+        // Penumbra : one jittered sample in each stratum of the light
+        final int n = (shadowSamples > 0) ? Math.min(shadowSamples, area.getSamples()) : area.getSamples();
+        final long seed = Float.floatToIntBits(ix) ^ ((long) Float.floatToIntBits(iy) << 21) ^ ((long) Float.floatToIntBits(iz) << 42);
+        int visibleSamples = 0;
+        for (int i = 0; i < n; ++i)
+            for (int j = 0; j < n; ++j) {
+                final int index = i * n + j;
+                final Vec3d S = area.getPoint((i + AreaLight.jitter(seed, 2 * index)) / n, (j + AreaLight.jitter(seed, 2 * index + 1)) / n);
+                if (isVisible(g, ix, iy, iz, (float) S.x - ix, (float) S.y - iy, (float) S.z - iz, light)) ++visibleSamples;
+            }
+        return (double) visibleSamples / (n * n);
+    }
+
+    /**
+     * Single precision variant of {@link #isVisible(Vec3d, double, double, double, Light, RayObserver)} : through the occlusion map
+     * of the light, or the hierarchy, as the double precision kernel.
+     */
+    private boolean isVisible(FloatGeometry g, float ix, float iy, float iz, float sx, float sy, float sz, Light light) {
+
+        final OcclusionMap map = (occlusionMaps == null) ? null : occlusionMaps.get(light);
+        if (map != null) {
+            // Only the solids of the cell of the shadow ray nearer than its origin may hide the light
+            final int cell = map.getCell(-sx, -sy, -sz);
+            final int count = map.getOccluderCount(cell, (float) Math.sqrt(sx * sx + sy * sy + sz * sz));
+            for (int rank = 0; rank < count; ++rank) {
+                final float deltaObj = g.intersect(map.getOccluderIndex(cell, rank), ix, iy, iz, sx, sy, sz);
+                if (deltaObj > 0.0F && deltaObj < 1.0F) return false;
+            }
+            return true;
+        }
+
+        if (hierarchy != null && !hierarchyStale) return !hierarchy.occluded(g, ix, iy, iz, sx, sy, sz, HITS.get().stack);
+
+        for (int k = 0; k < g.size(); ++k) {
+            final float deltaObj = g.intersect(k, ix, iy, iz, sx, sy, sz);   // Intersection with the light source
+            if (deltaObj > 0.0F && deltaObj < 1.0F) return false; // Visibility test
+        }
+        return true;
+    }
+
+    /**
+     * @return The color of a light, turned into a high dynamic range color when the scene is.
+     */
+    private Color lightColor(Color color) {
+        return (highDynamicRange) ? color.toHdr() : color;
+    }
+
+    /**
+     * @return The intensity of a light, clamped to 1 unless the scene is high dynamic range.
+     */
+    private double lightIntensity(Light light) {
+        return (highDynamicRange) ? light.getIntensity() : Math.min(light.getIntensity(), 1.0D);
+    }
+
 }
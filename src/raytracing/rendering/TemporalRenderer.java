@@ -0,0 +1,231 @@
+package raytracing.rendering;
+
+import raytracing.maths.Vec3d;
+import raytracing.solids.Solid;
+import raytracing.utils.Color;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.stream.IntStream;
+
+/**
+ * Renders the frames of a camera animation by reprojecting the previous frame into the new camera.
+ * <p>
+ * The renderer keeps the primary hit point and the color of each pixel. For a new frame, every kept hit point is
+ * projected into the new camera and its color splatted onto the nearest pixel (nearest hit first). The hits on view
+ * dependent solids are splatted too, so that they keep hiding what is behind them. Then only these pixels are
+ * traced :
+ * <ul>
+ *     <li>pixels nothing was reprojected onto (disocclusions, borders, magnification holes);</li>
+ *     <li>pixels lying on a depth discontinuity, where a background may leak through a foreground;</li>
+ *     <li>pixels whose hit is invalidated : misses and view dependent solids (reflective or transparent),
+ *     whose color changes with the camera;</li>
+ *     <li>a rotating fraction 1 / refreshPeriod of the pixels, bounding the age (and the error) of any color.</li>
+ * </ul>
+ * The hit points are projected in parallel, by rows of the previous frame : each pixel keeps the nearest point
+ * projected onto it by an atomic minimum, the ties going to the first pixel of the previous frame, so that the frame
+ * does not depend on the scheduling of the threads.
+ * <p>
+ * The reprojection only pays off when enough of the previous frame is reusable. When less than
+ * {@link #MIN_REUSABLE_SHARE} of its pixels are, the next frame is traced in full without reprojecting anything :
+ * this is the case of scenes 0, 1 and 4, whose reflective checkerboard and sky (misses, which hold no point to
+ * reproject) cover the frame, and of scene 2, whose spheres are reflective. The reprojection helps on scene 3,
+ * whose walls are neither reflective nor transparent.
+ * @author Mathieu Niord
+ */
+public class TemporalRenderer {
+
+    public static final int DEFAULT_REFRESH_PERIOD = 16;
+
+    /**
+     * Relative depth difference with a neighbor beyond which a reprojected pixel is traced again.
+     */
+    private static final double DEPTH_TOLERANCE = 0.05D;
+
+    /**
+     * Share of the reusable pixels of a frame below which the next frame is traced in full.
+     */
+    public static final double MIN_REUSABLE_SHARE = 0.25D;
+
+    private static final long NONE = Long.MAX_VALUE; // Key of a pixel nothing was projected onto
+
+    private final Scene scene;
+    private final int width, height, depth, refreshPeriod;
+
+    private byte[] buffer;
+    private float[] hits; // 3 coordinates per pixel, NaN when the primary ray of the pixel escaped the scene
+    private boolean[] reusable; // whether the color of the pixel can be reprojected
+    private int frame = 0;
+    private int tracedPixels = 0;
+    private double reusableShare = 0.0D;
+
+    /**
+     * @param scene The scene to render.
+     * @param width The width of the frames in pixels.
+     * @param height The height of the frames in pixels.
+     * @param depth The maximum ray depth.
+     * @param refreshPeriod Each pixel is traced at least once every refreshPeriod frames.
+     */
+    public TemporalRenderer(Scene scene, int width, int height, int depth, int refreshPeriod) {
+        if (refreshPeriod < 1) throw new IllegalArgumentException("The refresh period must be at least 1");
+        this.scene = scene;
+        this.width = width;
+        this.height = height;
+        this.depth = depth;
+        this.refreshPeriod = refreshPeriod;
+    }
+
+    /**
+     * @return The number of pixels traced for the last frame.
+     */
+    public int getTracedPixels() {
+        return tracedPixels;
+    }
+
+    /**
+     * @return The share of the pixels of the last frame whose color can be reprojected into the next one.
+     */
+    public double getReusableShare() {
+        return reusableShare;
+    }
+
+    /**
+     * Render the next frame of the animation.
+     * @param camera The camera of the frame, whose size must be the one of the renderer {@link Camera}.
+     * @return The image buffer, 3 bytes per pixel ordered Blue, Green, Red.
+     */
+    public byte[] render(Camera camera) {
+
+        if (camera.getWidth() != width || camera.getHeight() != height)
+            throw new IllegalArgumentException("The camera size differs from the frame size");
+
+        final int n = width * height;
+        final byte[] colors = new byte[3 * n];
+        final float[] nextHits = new float[3 * n];
+        final boolean[] nextReusable = new boolean[n];
+        final double[] distances = new double[n];
+        Arrays.fill(nextHits, Float.NaN);
+        Arrays.fill(distances, Double.POSITIVE_INFINITY);
+
+        // Without reprojection no pixel is reusable : every pixel is traced
+        if (hits != null && reusableShare >= MIN_REUSABLE_SHARE) reproject(camera, colors, nextHits, nextReusable, distances);
+
+        // Select the pixels to trace
+        final boolean[] trace = new boolean[n];
+        final int currentFrame = frame;
+        IntStream.range(0, height).parallel().forEach(row -> {
+            for (int col = 0; col < width; ++col) {
+                final int i = row * width + col;
+                trace[i] = !nextReusable[i]
+                        || Math.floorMod(scramble(i) + currentFrame, refreshPeriod) == 0
+                        || isDiscontinuous(distances, col, row);
+            }
+        });
+
+        // Trace them
+        tracedPixels = IntStream.range(0, height).parallel().map(row -> {
+            FirstHit firstHit = new FirstHit();
+            int traced = 0;
+            for (int col = 0; col < width; ++col) {
+                final int i = row * width + col;
+                if (!trace[i]) continue;
+
+                final Vec3d origin = camera.getOrigin(), dir = camera.getDirection(col, row);
+                firstHit.reset();
+                Color color = scene.getRayColor(origin, dir, depth, firstHit);
+
+                colors[3 * i] = (byte)color.getBlue();      // Blue
+                colors[3 * i + 1] = (byte)color.getGreen(); // Green
+                colors[3 * i + 2] = (byte)color.getRed();   // Red
+
+                // View dependent solids are kept as occluders of the next frame but their color is not reused
+                final Solid solid = firstHit.solid;
+                if (solid != null) {
+                    nextHits[3 * i] = (float) (origin.x + firstHit.t * dir.x);
+                    nextHits[3 * i + 1] = (float) (origin.y + firstHit.t * dir.y);
+                    nextHits[3 * i + 2] = (float) (origin.z + firstHit.t * dir.z);
+                    nextReusable[i] = solid.getReflection() <= 0.0D && solid.getTransmission() <= 0.0D;
+                }
+                else {
+                    nextHits[3 * i] = Float.NaN;
+                    nextReusable[i] = false;
+                }
+                ++traced;
+            }
+            return traced;
+        }).sum();
+
+        buffer = colors;
+        hits = nextHits;
+        reusable = nextReusable;
+        reusableShare = (double) IntStream.range(0, n).parallel().filter(i -> nextReusable[i]).count() / n;
+        ++frame;
+        return buffer;
+    }
+
+    /**
+     * Splat the kept hit points of the previous frame into the new camera, the nearest one winning : the points are
+     * projected in parallel by source row, each pixel keeping the minimum of the keys of the points projected onto it
+     * (their depth, then their index), then the winners are copied in parallel by target row.
+     */
+    private void reproject(Camera camera, byte[] colors, float[] nextHits, boolean[] nextReusable, double[] distances) {
+
+        final int n = width * height;
+        final double[] depths = new double[n];
+        final AtomicLongArray nearest = new AtomicLongArray(n);
+        IntStream.range(0, height).parallel().forEach(row -> {
+            for (int j = row * width; j < (row + 1) * width; ++j) nearest.set(j, NONE);
+        });
+
+        IntStream.range(0, height).parallel().forEach(row -> {
+            final double[] pixel = new double[2];
+            final Vec3d point = new Vec3d();
+            for (int i = row * width; i < (row + 1) * width; ++i) {
+                if (Float.isNaN(hits[3 * i])) continue;
+
+                point.x = hits[3 * i];
+                point.y = hits[3 * i + 1];
+                point.z = hits[3 * i + 2];
+                final double s = camera.project(point, pixel);
+                if (s < 0.0D) continue;
+
+                final long col = Math.round(pixel[0]), r = Math.round(pixel[1]);
+                if (col < 0 || col >= width || r < 0 || r >= height) continue;
+
+                // The bits of a positive float sort as the float : the key sorts by depth, then by source pixel
+                depths[i] = s;
+                final long key = ((long) Float.floatToIntBits((float) s) << 32) | i;
+                nearest.accumulateAndGet((int) (r * width + col), key, Math::min);
+            }
+        });
+
+        IntStream.range(0, height).parallel().forEach(row -> {
+            for (int j = row * width; j < (row + 1) * width; ++j) {
+                final long key = nearest.get(j);
+                if (key == NONE) continue;
+
+                final int i = (int) key; // The low bits hold the source pixel
+                distances[j] = depths[i];
+                System.arraycopy(buffer, 3 * i, colors, 3 * j, 3);
+                System.arraycopy(hits, 3 * i, nextHits, 3 * j, 3);
+                nextReusable[j] = reusable[i];
+            }
+        });
+    }
+
+    private boolean isDiscontinuous(double[] distances, int col, int row) {
+        final double limit = distances[row * width + col] * (1.0D - DEPTH_TOLERANCE);
+        return (col > 0 && distances[row * width + col - 1] < limit)
+                || (col < width - 1 && distances[row * width + col + 1] < limit)
+                || (row > 0 && distances[(row - 1) * width + col] < limit)
+                || (row < height - 1 && distances[(row + 1) * width + col] < limit);
+    }
+
+    /**
+     * Spread the refreshed pixels over the image rather than along lines.
+     */
+    private static int scramble(int i) {
+        int h = i * 0x9E3779B1;
+        return (h ^ (h >>> 16)) & Integer.MAX_VALUE;
+    }
+}
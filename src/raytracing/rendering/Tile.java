@@ -0,0 +1,41 @@
+package raytracing.rendering;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A rectangular block of pixels of the output image, the unit of work of the tile based renderers.
+ * @author Mathieu Niord
+ */
+public class Tile {
+
+    /**
+     * Default size in pixels of the side of a tile.
+     */
+    public static final int DEFAULT_SIZE = 32;
+
+    public final int index, x, y, width, height;
+
+    public Tile(int index, int x, int y, int width, int height) {
+        this.index = index;
+        this.x = x;
+        this.y = y;
+        this.width = width;
+        this.height = height;
+    }
+
+    /**
+     * Cut an image into tiles, in row-major order.
+     * @param imageWidth The width of the image.
+     * @param imageHeight The height of the image.
+     * @param size The side of a tile (tiles of the last row and column may be smaller).
+     * @return The list of tiles, the index of a tile being its position in the list.
+     */
+    public static List<Tile> split(int imageWidth, int imageHeight, int size) {
+        List<Tile> tiles = new ArrayList<>();
+        for (int y = 0; y < imageHeight; y += size)
+            for (int x = 0; x < imageWidth; x += size)
+                tiles.add(new Tile(tiles.size(), x, y, Math.min(size, imageWidth - x), Math.min(size, imageHeight - y)));
+        return tiles;
+    }
+}
@@ -0,0 +1,117 @@
+package raytracing.rendering;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Orders in which the tiles of a frame are handed to the workers of a {@link Renderer}.
+ * <p>
+ * Along a space-filling curve, the tiles traced one after the other, and the tiles traced at the same time by the
+ * workers, are neighbours in the image : their rays see the same solids, texture tiles and occlusion map cells,
+ * which are then still in the caches. In row-major order, a worker jumps from the end of a row of tiles to the
+ * other side of the image.
+ * @author Mathieu Niord
+ */
+public enum TileOrder {
+
+    /**
+     * Rows of tiles from the bottom of the image, each from left to right.
+     */
+    ROW_MAJOR {
+        @Override
+        long key(int x, int y, int order) {
+            return 0L; // Sorted by index alone : the order of Tile.split
+        }
+    },
+
+    /**
+     * Z-order curve, interleaving the bits of the tile coordinates : cheap, with a few long jumps between quadrants.
+     */
+    MORTON {
+        @Override
+        long key(int x, int y, int order) {
+            return spread(x) | (spread(y) << 1);
+        }
+
+        /**
+         * Insert a 0 bit between the (16 lower) bits of a coordinate.
+         */
+        private long spread(int coordinate) {
+            long v = coordinate & 0xFFFFL;
+            v = (v | (v << 8)) & 0x00FF00FFL;
+            v = (v | (v << 4)) & 0x0F0F0F0FL;
+            v = (v | (v << 2)) & 0x33333333L;
+            v = (v | (v << 1)) & 0x55555555L;
+            return v;
+        }
+    },
+
+    /**
+     * Hilbert curve, whose consecutive tiles are always adjacent (within the square covering the frame).
+     */
+    HILBERT {
+        @Override
+        long key(int x, int y, int order) {
+            long d = 0L;
+            for (int s = order >> 1; s > 0; s >>= 1) {
+                final int rx = ((x & s) != 0) ? 1 : 0, ry = ((y & s) != 0) ? 1 : 0;
+                d += (long) s * s * ((3 * rx) ^ ry);
+                // Rotate the quadrant so that the curve of the next level connects
+                if (ry == 0) {
+                    if (rx == 1) {
+                        x = s - 1 - x;
+                        y = s - 1 - y;
+                    }
+                    final int swap = x;
+                    x = y;
+                    y = swap;
+                }
+            }
+            return d;
+        }
+    };
+
+    /**
+     * @param x The column of the tile.
+     * @param y The row of the tile.
+     * @param order The side of the square grid covering the tiles, a power of two.
+     * @return The position of the tile along the curve.
+     */
+    abstract long key(int x, int y, int order);
+
+    /**
+     * Order the tiles of a frame.
+     * @param tiles The tiles of the frame, cut by {@link Tile#split(int, int, int)}.
+     * @param tileSize The side of the tiles.
+     * @return The indices of the tiles, in the order of the curve.
+     */
+    public int[] order(List<Tile> tiles, int tileSize) {
+
+        int side = 1;
+        for (Tile tile : tiles) side = Math.max(side, Math.max(tile.x, tile.y) / tileSize + 1);
+        final int order = Math.max(1, Integer.highestOneBit(side - 1) << 1);
+
+        // Sort the indices by key, packed in the same long (there are far less than 2^24 tiles)
+        final long[] keys = new long[tiles.size()];
+        for (Tile tile : tiles)
+            keys[tile.index] = (key(tile.x / tileSize, tile.y / tileSize, order) << 24) | tile.index;
+        Arrays.sort(keys);
+
+        final int[] indices = new int[keys.length];
+        for (int i = 0; i < keys.length; ++i) indices[i] = (int) (keys[i] & 0xFFFFFFL);
+        return indices;
+    }
+
+    /**
+     * Find an order from its (case insensitive) name, the underscore being optional.
+     * @param name The name of the order.
+     * @return The order.
+     * @throws IllegalArgumentException If no order has this name.
+     */
+    public static TileOrder fromName(String name) {
+        for (TileOrder tileOrder : values())
+            if (tileOrder.name().equalsIgnoreCase(name) || tileOrder.name().replace("_", "").equalsIgnoreCase(name))
+                return tileOrder;
+        throw new IllegalArgumentException("Unknown tile order : " + name);
+    }
+}
@@ -0,0 +1,60 @@
+package raytracing.rendering;
+
+/**
+ * Operators turning a high dynamic range channel (0 to +infinity, 255 being the white of the 8-bit output)
+ * into an 8-bit channel.
+ * @author Mathieu Niord
+ */
+public enum ToneMapping {
+
+    /**
+     * Scale by the exposure and clamp to 255 : the low dynamic range look.
+     */
+    CLAMP {
+        @Override
+        public int map(float channel, double exposure) {
+            return (int) Math.min(channel * exposure, 255.0D);
+        }
+    },
+
+    /**
+     * Reinhard operator x / (1 + x), compressing the highlights instead of saturating them.
+     */
+    REINHARD {
+        @Override
+        public int map(float channel, double exposure) {
+            final double x = channel * exposure / 255.0D;
+            return (int) (255.0D * x / (1.0D + x));
+        }
+    },
+
+    /**
+     * Exponential operator 1 - exp(-x).
+     */
+    EXPONENTIAL {
+        @Override
+        public int map(float channel, double exposure) {
+            return (int) (255.0D * (1.0D - Math.exp(-channel * exposure / 255.0D)));
+        }
+    };
+
+    /**
+     * Map a channel.
+     * @param channel The high dynamic range channel.
+     * @param exposure The exposure, multiplying the channel before mapping.
+     * @return The 8-bit channel, between 0 and 255.
+     */
+    public abstract int map(float channel, double exposure);
+
+    /**
+     * Find an operator from its (case insensitive) name.
+     * @param name The name of the operator.
+     * @return The operator.
+     * @throws IllegalArgumentException If no operator has this name.
+     */
+    public static ToneMapping fromName(String name) {
+        for (ToneMapping toneMapping : values())
+            if (toneMapping.name().equalsIgnoreCase(name)) return toneMapping;
+        throw new IllegalArgumentException("Unknown tone mapping : " + name);
+    }
+}
@@ -2,6 +2,7 @@ package raytracing.solids;
 
 import raytracing.utils.Color;
 import raytracing.maths.Vec3d;
+import raytracing.maths.Vec3f;
 
 /**
  * Inherited class from {@link Plane} which permits the generation of a checkerboard pattern.
@@ -10,6 +11,7 @@ import raytracing.maths.Vec3d;
 public class Checkerboard extends Plane {
 
     private static final double SIZE = 150.0D;
+    private static final float SIZE_F = (float) SIZE;
     private final Color primary, secondary;
 
     public Checkerboard(
@@ -43,4 +45,12 @@ public class Checkerboard extends Plane {
         if ((x < SIZE / 2 && z >= SIZE / 2) || (x >= SIZE / 2 && z < SIZE / 2)) return secondary;
         return primary;
     }
+
+    @Override
+    public Color getColor(final Vec3f point) {
+        final float x = point.x - (float) Math.floor(point.x / SIZE_F) * SIZE_F;
+        final float z = point.z - (float) Math.floor(point.z / SIZE_F) * SIZE_F;
+        if ((x < SIZE_F / 2 && z >= SIZE_F / 2) || (x >= SIZE_F / 2 && z < SIZE_F / 2)) return secondary;
+        return primary;
+    }
 }
@@ -0,0 +1,100 @@
+package raytracing.solids;
+
+import raytracing.utils.Color;
+
+/**
+ * The surface of a solid : its colors and its coefficients in the Phong model, reflection and refraction.
+ * <p>
+ * A material is compared by value, so that the solids of identical parameters share a single instance through the
+ * {@link MaterialTable}. Its colors are copies of the given ones, returned without a copy to keep the shading free
+ * of allocations : as {@link Color} is mutable, the colors returned by {@link #getColor()} and {@link #getSpecular()}
+ * are shared by every solid of the material and must not be modified.
+ * @author Mathieu Niord
+ */
+public final class Material {
+
+    private final Color color, specular;
+    private final double shininess, reflexivity, transmission, refractIndex;
+    private final int hash;
+
+    /**
+     * @param color The color of the surface {@link Color}.
+     * @param specular The specular color of the surface {@link Color}.
+     * @param shininess The shininess (Phong exponent).
+     * @param reflexivity The fraction of the light reflected.
+     * @param transmission The fraction of the light refracted.
+     * @param refractIndex The refraction index.
+     */
+    public Material(Color color, Color specular, double shininess, double reflexivity, double transmission, double refractIndex) {
+        this.color = copy(color);
+        this.specular = copy(specular);
+        this.shininess = shininess;
+        this.reflexivity = reflexivity;
+        this.transmission = transmission;
+        this.refractIndex = refractIndex;
+
+        int h = hash(this.color);
+        h = 31 * h + hash(this.specular);
+        h = 31 * h + Double.hashCode(shininess);
+        h = 31 * h + Double.hashCode(reflexivity);
+        h = 31 * h + Double.hashCode(transmission);
+        h = 31 * h + Double.hashCode(refractIndex);
+        this.hash = h;
+    }
+
+    /**
+     * @return The color of the surface, shared : it must not be modified {@link Color}.
+     */
+    public Color getColor() { return color; }
+
+    /**
+     * @return The specular color of the surface, shared : it must not be modified {@link Color}.
+     */
+    public Color getSpecular() { return specular; }
+
+    public double getShininess() { return shininess; }
+
+    public double getReflection() { return reflexivity; }
+
+    public double getTransmission() { return transmission; }
+
+    public double getRefractionIndex() { return refractIndex; }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof Material)) return false;
+        final Material other = (Material) o;
+        return hash == other.hash && equal(color, other.color) && equal(specular, other.specular)
+                && Double.compare(shininess, other.shininess) == 0 && Double.compare(reflexivity, other.reflexivity) == 0
+                && Double.compare(transmission, other.transmission) == 0 && Double.compare(refractIndex, other.refractIndex) == 0;
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    /**
+     * Copy a color, the colors being mutable.
+     */
+    private static Color copy(Color color) {
+        if (color == null) return null;
+        return color.isHdr() ? Color.hdr(color.getBlue(), color.getGreen(), color.getRed())
+                : new Color(color.getBlue(), color.getGreen(), color.getRed());
+    }
+
+    private static boolean equal(Color a, Color b) {
+        if (a == null || b == null) return a == b;
+        return a.isHdr() == b.isHdr() && Float.compare(a.getBlue(), b.getBlue()) == 0
+                && Float.compare(a.getGreen(), b.getGreen()) == 0 && Float.compare(a.getRed(), b.getRed()) == 0;
+    }
+
+    private static int hash(Color color) {
+        if (color == null) return 0;
+        int h = Float.hashCode(color.getBlue());
+        h = 31 * h + Float.hashCode(color.getGreen());
+        h = 31 * h + Float.hashCode(color.getRed());
+        return 31 * h + (color.isHdr() ? 1 : 0);
+    }
+}
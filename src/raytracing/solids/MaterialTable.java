@@ -0,0 +1,62 @@
+package raytracing.solids;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * The interned materials of the solids : the solids of identical parameters share one {@link Material}, so that a
+ * solid only keeps a reference to it (as compact as an int index with compressed references) instead of two
+ * colors and four doubles.
+ * <p>
+ * The table holds its materials weakly : the entry of a material is released once no solid references it any
+ * more, so that a long running process rendering many scenes does not keep their materials. The table is split in
+ * stripes by hash, each with its own lock, so that the solids built concurrently seldom wait for each other ;
+ * reading the material of a solid takes no lock.
+ * @author Mathieu Niord
+ */
+public final class MaterialTable {
+
+    private static final int STRIPES = 16;
+    private static final List<Map<Material, WeakReference<Material>>> stripes = new ArrayList<>(STRIPES);
+
+    static {
+        for (int i = 0; i < STRIPES; ++i) stripes.add(new WeakHashMap<>());
+    }
+
+    private MaterialTable() {}
+
+    /**
+     * Find the shared instance of a material, adding it if it is new (or was released).
+     * @param material The material {@link Material}.
+     * @return The shared material, equal to the given one {@link Material}.
+     */
+    public static Material intern(Material material) {
+
+        final Map<Material, WeakReference<Material>> stripe = stripe(material);
+        synchronized (stripe) {
+            final WeakReference<Material> entry = stripe.get(material);
+            final Material shared = (entry != null) ? entry.get() : null;
+            if (shared != null) return shared;
+            stripe.put(material, new WeakReference<>(material)); // The value must not hold its key strongly
+            return material;
+        }
+    }
+
+    /**
+     * @return The number of distinct materials held, the released ones being counted until they are collected.
+     */
+    public static int size() {
+        int size = 0;
+        for (Map<Material, WeakReference<Material>> stripe : stripes)
+            synchronized (stripe) { size += stripe.size(); }
+        return size;
+    }
+
+    private static Map<Material, WeakReference<Material>> stripe(Material material) {
+        final int hash = material.hashCode();
+        return stripes.get((hash ^ (hash >>> 16)) & (STRIPES - 1));
+    }
+}
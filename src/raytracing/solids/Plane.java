@@ -23,10 +23,30 @@ public class Plane extends Solid {
         this.normal = normal;
     }
 
+    /**
+     * @return The normal of the plane, whose points P verify normal.P + distance = 0 {@link Vec3d}.
+     */
+    public Vec3d getPlaneNormal() {
+        return new Vec3d(normal);
+    }
+
+    /**
+     * @return The distance term of the equation of the plane, normal.P + distance = 0.
+     */
+    public double getDistance() {
+        return distance;
+    }
+
     @Override
     public double getIntersection(Vec3d P, Vec3d v) {
-        final double t = (normal.dot(v) != 0.0D) ? (-(normal.dot(P)) - distance) / (normal.dot(v)) : -1.0D;
-        return (t > 0.0001D) ? t : -1.0D;
+        return getIntersection(P.x, P.y, P.z, v.x, v.y, v.z);
+    }
+
+    @Override
+    public double getIntersection(double px, double py, double pz, double vx, double vy, double vz) {
+        final double nv = normal.x * vx + normal.y * vy + normal.z * vz;
+        final double t = (nv != 0.0D) ? (-(normal.x * px + normal.y * py + normal.z * pz) - distance) / nv : -1.0D;
+        return (t > EPSILON) ? t : -1.0D;
     }
 
     @Override
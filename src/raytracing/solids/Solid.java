@@ -1,7 +1,9 @@
 package raytracing.solids;
 
 import raytracing.utils.Color;
+import raytracing.maths.BoundingBox;
 import raytracing.maths.Vec3d;
+import raytracing.maths.Vec3f;
 
 /**
  * A solid is a 3D object that can be intersected by a ray.
@@ -9,33 +11,49 @@ import raytracing.maths.Vec3d;
  */
 public abstract class Solid {
 
-    protected Color color, spec;
-    protected double shininess, reflexivity, transmission, refractIndex;
+    /**
+     * Minimal root value accepted by the double precision kernel to avoid self-intersections.
+     */
+    protected static final double EPSILON = 0.0001D;
+
+    /**
+     * Material of the solid, shared through the {@link MaterialTable}.
+     */
+    protected final Material material;
 
     Solid(
             Color color, Color specular,
             double shininess, double reflexivity,
             double transmission, double refractIndex
     ) {
-        this.color = color;
-        this.spec = specular;
-        this.shininess = shininess;
-        this.reflexivity = reflexivity;
-        this.transmission = transmission;
-        this.refractIndex = refractIndex;
+        this.material = MaterialTable.intern(new Material(color, specular, shininess, reflexivity, transmission, refractIndex));
     }
 
-    public Color getColor(Vec3d p) { return color; }
+    /**
+     * @return The material of the solid, shared with the solids of the same parameters {@link Material}.
+     */
+    public Material getMaterial() { return material; }
+
+    public Color getColor(Vec3d p) { return material.getColor(); }
+
+    /**
+     * Returns the color of the solid at the given point, filtered over the area seen by a pixel.
+     * Only the textured solids filter their color, the others return {@link #getColor(Vec3d)}.
+     * @param p The point {@link Vec3d}.
+     * @param footprint The size in world units of the area of the solid seen by the pixel, 0 if unknown.
+     * @return The color {@link Color}.
+     */
+    public Color getColor(Vec3d p, double footprint) { return getColor(p); }
 
-    public Color getSpecular() { return spec; }
+    public Color getSpecular() { return material.getSpecular(); }
 
-    public double getShininess() { return shininess; }
+    public double getShininess() { return material.getShininess(); }
 
-    public double getReflection() { return reflexivity; }
+    public double getReflection() { return material.getReflection(); }
 
-    public double getTransmission() { return transmission; }
+    public double getTransmission() { return material.getTransmission(); }
 
-    public double getRefractionIndex() { return refractIndex; }
+    public double getRefractionIndex() { return material.getRefractionIndex(); }
 
     /**
      * Returns the intersection point between the ray and the solid.
@@ -45,6 +63,16 @@ public abstract class Solid {
      */
     public double getIntersection(Vec3d P, Vec3d v) { return 0; }
 
+    /**
+     * Returns the intersection between the ray and the solid, the ray being given by its components : a caller whose
+     * calls to the solids cannot be inlined (the traversal of a bounding volume hierarchy) does not make its ray
+     * escape. The solids of the scenes override it without any vector.
+     * @return The root value of intersection, or -1.0D if there is no intersection {@code Double}.
+     */
+    public double getIntersection(double px, double py, double pz, double vx, double vy, double vz) {
+        return getIntersection(new Vec3d(px, py, pz), new Vec3d(vx, vy, vz));
+    }
+
     /**
      * Returns the normal vector at the given point.
      * @param P The point {@link Vec3d}.
@@ -52,4 +80,17 @@ public abstract class Solid {
      */
     public Vec3d getNormal(Vec3d P) { return new Vec3d(); }
 
+    /**
+     * Returns a box containing the solid.
+     * @return The bounding box, infinite for unbounded solids {@link BoundingBox}.
+     */
+    public BoundingBox getBounds() { return BoundingBox.infinite(); }
+
+    public Color getColor(Vec3f p) { return material.getColor(); }
+
+    /**
+     * Single precision variant of {@link #getColor(Vec3d, double)}.
+     */
+    public Color getColor(Vec3f p, float footprint) { return getColor(p); }
+
 }
@@ -1,6 +1,7 @@
 package raytracing.solids;
 
 import raytracing.utils.Color;
+import raytracing.maths.BoundingBox;
 import raytracing.maths.Vec3d;
 
 /**
@@ -9,8 +10,8 @@ import raytracing.maths.Vec3d;
  */
 public class Sphere extends Solid {
 
-    private final Vec3d center;
-    private final double radius;
+    protected final Vec3d center;
+    protected final double radius;
 
     public Sphere(
             double radius, Vec3d center,
@@ -23,6 +24,13 @@ public class Sphere extends Solid {
         this.radius = radius;
     }
 
+    /**
+     * @return A copy of the center of the sphere {@link Vec3d}.
+     */
+    public Vec3d getCenter() { return new Vec3d(center); }
+
+    public double getRadius() { return radius; }
+
     /**
      * Get intersection discriminant between ray and the sphere
      * @param P Start point of our ray source
@@ -31,13 +39,18 @@ public class Sphere extends Solid {
      */
     @Override
     public double getIntersection(Vec3d P, Vec3d v) {
+        return getIntersection(P.x, P.y, P.z, v.x, v.y, v.z);
+    }
 
-        Vec3d L = P.sub(center);
+    @Override
+    public double getIntersection(double px, double py, double pz, double vx, double vy, double vz) {
+
+        final double lx = px - center.x, ly = py - center.y, lz = pz - center.z;
 
         double
-                a = (v.dot(v)),
-                b = (v.scale(2.0D).dot(L)),
-                c = (L.dot(L) - (radius * radius));
+                a = (vx * vx + vy * vy + vz * vz),
+                b = ((vx * 2.0D) * lx + (vy * 2.0D) * ly + (vz * 2.0D) * lz),
+                c = ((lx * lx + ly * ly + lz * lz) - (radius * radius));
 
         double delta = (b * b) - (4.0D * a * c);
 
@@ -51,8 +64,8 @@ public class Sphere extends Solid {
         else if (delta > 0.0D) {
             double t1 = (-b - Math.sqrt(delta)) / (2.0D * a);
             double t2 = (-b + Math.sqrt(delta)) / (2.0D * a);
-            if (t1 < 0.0001D && t2 > 0.0001D) return t2;
-            else if (t1 > 0.0001D && t1 < t2) return t1;
+            if (t1 < EPSILON && t2 > EPSILON) return t2;
+            else if (t1 > EPSILON && t1 < t2) return t1;
         }
 
         return -1.0D;
@@ -63,4 +76,12 @@ public class Sphere extends Solid {
         return P.sub(center).normalize();
     }
 
+    @Override
+    public BoundingBox getBounds() {
+        return new BoundingBox(
+                new Vec3d(center.x - radius, center.y - radius, center.z - radius),
+                new Vec3d(center.x + radius, center.y + radius, center.z + radius)
+        );
+    }
+
 }
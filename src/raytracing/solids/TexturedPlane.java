@@ -0,0 +1,66 @@
+package raytracing.solids;
+
+import raytracing.maths.Vec3d;
+import raytracing.maths.Vec3f;
+import raytracing.utils.Color;
+import raytracing.utils.Texture;
+
+/**
+ * Inherited class from {@link Plane} whose color is read from an image {@link Texture}, repeated over the plane.
+ * @author Mathieu Niord
+ */
+public class TexturedPlane extends Plane {
+
+    private final Texture texture;
+    private final double size;
+    private final Vec3d axisU, axisV;
+
+    /**
+     * @param distance The distance term of the equation of the plane.
+     * @param normal The normal of the plane.
+     * @param texture The texture {@link Texture}.
+     * @param size The size in world units of a repetition of the texture.
+     * @param specular The specular color of the plane.
+     * @param shininess The shininess of the plane.
+     * @param reflectivity The reflexivity of the plane.
+     * @param transmission The transparency of the plane.
+     * @param refractIndex The refraction index of the plane.
+     */
+    public TexturedPlane(
+            double distance, Vec3d normal,
+            Texture texture, double size,
+            Color specular,
+            double shininess, double reflectivity,
+            double transmission, double refractIndex
+    ) {
+        super(distance, normal, Color.WHITE, specular, shininess, reflectivity, transmission, refractIndex);
+        this.texture = texture;
+        this.size = size;
+
+        // Two axes spanning the plane
+        final Vec3d n = normal.normalize();
+        final Vec3d helper = (Math.abs(n.x) < 0.9D) ? new Vec3d(1.0D, 0.0D, 0.0D) : new Vec3d(0.0D, 1.0D, 0.0D);
+        this.axisU = n.cross(helper).normalize();
+        this.axisV = n.cross(this.axisU);
+    }
+
+    @Override
+    public Color getColor(Vec3d point) {
+        return getColor(point, 0.0D);
+    }
+
+    @Override
+    public Color getColor(Vec3d point, double footprint) {
+        return texture.sample(point.dot(axisU) / size, point.dot(axisV) / size, footprint * texture.getWidth() / size);
+    }
+
+    @Override
+    public Color getColor(Vec3f point) {
+        return getColor(point, 0.0F);
+    }
+
+    @Override
+    public Color getColor(Vec3f point, float footprint) {
+        return getColor(new Vec3d(point.x, point.y, point.z), footprint);
+    }
+}
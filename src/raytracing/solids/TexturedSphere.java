@@ -0,0 +1,60 @@
+package raytracing.solids;
+
+import raytracing.maths.Vec3d;
+import raytracing.maths.Vec3f;
+import raytracing.utils.Color;
+import raytracing.utils.Texture;
+
+/**
+ * Inherited class from {@link Sphere} whose color is read from an image {@link Texture}, wrapped around the sphere
+ * by an equirectangular mapping (the longitude along the width of the image, the latitude along its height).
+ * @author Mathieu Niord
+ */
+public class TexturedSphere extends Sphere {
+
+    private final Texture texture;
+
+    /**
+     * @param radius The radius of the sphere.
+     * @param center The center of the sphere.
+     * @param texture The texture {@link Texture}.
+     * @param specular The specular color of the sphere.
+     * @param shininess The shininess of the sphere.
+     * @param reflectivity The reflexivity of the sphere.
+     * @param transmission The transparency of the sphere.
+     * @param refractIndex The refraction index of the sphere.
+     */
+    public TexturedSphere(
+            double radius, Vec3d center,
+            Texture texture,
+            Color specular,
+            double shininess, double reflectivity,
+            double transmission, double refractIndex
+    ) {
+        super(radius, center, Color.WHITE, specular, shininess, reflectivity, transmission, refractIndex);
+        this.texture = texture;
+    }
+
+    @Override
+    public Color getColor(Vec3d point) {
+        return getColor(point, 0.0D);
+    }
+
+    @Override
+    public Color getColor(Vec3d point, double footprint) {
+        final Vec3d d = point.sub(center);
+        final double u = 0.5D + Math.atan2(d.z, d.x) / (2.0D * Math.PI);
+        final double v = 0.5D + Math.asin(Math.max(-1.0D, Math.min(1.0D, d.y / radius))) / Math.PI;
+        return texture.sample(u, v, footprint * texture.getWidth() / (2.0D * Math.PI * radius));
+    }
+
+    @Override
+    public Color getColor(Vec3f point) {
+        return getColor(point, 0.0F);
+    }
+
+    @Override
+    public Color getColor(Vec3f point, float footprint) {
+        return getColor(new Vec3d(point.x, point.y, point.z), footprint);
+    }
+}
@@ -0,0 +1,83 @@
+package raytracing.utils;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Loads a manifest of render jobs : one job per line, made of key=value fields separated by spaces, for instance
+ * <pre>
+ *     # Thumbnails first
+ *     scene=1 width=320 height=180 zoom=-1.5 output=thumb1.png priority=1
+ *     scene=3 width=1080 height=1080 depth=5 zoom=-0.2 output=hero3.png
+ * </pre>
+ * The keys are scene, width, height, depth, zoom, output and priority ; all of them but output are optional and
+ * default to the ones of the main program. Empty lines and lines starting with '#' are ignored.
+ * @author Mathieu Niord
+ */
+public class BatchManifest {
+
+    /**
+     * A job of the manifest.
+     */
+    public static class Entry {
+        public int scene = 0, width = 1920, height = 1080, depth = 5, priority = 0;
+        public double zoom = -0.5D;
+        public String output;
+    }
+
+    public final List<Entry> entries = new ArrayList<>();
+
+    /**
+     * @param filename The name of the manifest file.
+     * @throws IOException If the file cannot be read.
+     * @throws IllegalArgumentException If a line is malformed.
+     */
+    public BatchManifest(String filename) throws IOException {
+
+        try (BufferedReader reader = new BufferedReader(new FileReader(filename))) {
+            String line;
+            int number = 0;
+            while ((line = reader.readLine()) != null) {
+                ++number;
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) continue;
+
+                try { entries.add(parseEntry(line)); }
+                catch (IllegalArgumentException e) {
+                    throw new IllegalArgumentException(filename + ", line " + number + " : " + e.getMessage(), e);
+                }
+            }
+        }
+    }
+
+    private static Entry parseEntry(String line) {
+
+        Entry entry = new Entry();
+        for (String field : line.split("\\s+")) {
+
+            final int equal = field.indexOf('=');
+            if (equal <= 0) throw new IllegalArgumentException("Field without value : " + field);
+            final String key = field.substring(0, equal), value = field.substring(equal + 1);
+
+            switch (key) {
+                case "scene" : entry.scene = Integer.parseInt(value); break;
+                case "width" : entry.width = Integer.parseInt(value); break;
+                case "height" : entry.height = Integer.parseInt(value); break;
+                case "depth" : entry.depth = Integer.parseInt(value); break;
+                case "zoom" : entry.zoom = Double.parseDouble(value); break;
+                case "priority" : entry.priority = Integer.parseInt(value); break;
+                case "output" :
+                    entry.output = ImageWriter.isSupported(value) ? value : value + ImageWriter.TGA;
+                break;
+                default : throw new IllegalArgumentException("Unknown field : " + key);
+            }
+        }
+
+        if (entry.output == null) throw new IllegalArgumentException("The job has no output");
+        if (entry.width < 1 || entry.height < 1) throw new IllegalArgumentException("The image size must be positive");
+        return entry;
+    }
+}
@@ -29,14 +29,49 @@ public class Color {
 
     private float blue, green, red;
 
+    // High dynamic range colors are not clamped to 255 (nor floored when scaled)
+    private final boolean hdr;
+
     public Color() {
         this(0F, 0F, 0F);
     }
 
     public Color(float b, float g, float r) {
-        this.blue = (b < 0F) ? 0F : Math.min(b, 255F);
-        this.green = (g < 0F) ? 0F : Math.min(g, 255F);
-        this.red = (r < 0F) ? 0F : Math.min(r, 255F);
+        this(b, g, r, false);
+    }
+
+    private Color(float b, float g, float r, boolean hdr) {
+        this.hdr = hdr;
+        this.blue = (b < 0F) ? 0F : clamp(b);
+        this.green = (g < 0F) ? 0F : clamp(g);
+        this.red = (r < 0F) ? 0F : clamp(r);
+    }
+
+    /**
+     * Create a high dynamic range color, whose channels may exceed 255.
+     * Arithmetics involving a high dynamic range color give high dynamic range colors.
+     * @param b The blue channel {@code float}
+     * @param g The green channel {@code float}
+     * @param r The red channel {@code float}
+     * @return The color {@code Color}
+     */
+    public static Color hdr(float b, float g, float r) {
+        return new Color(b, g, r, true);
+    }
+
+    /**
+     * @return A high dynamic range copy of the current color {@code Color}
+     */
+    public Color toHdr() {
+        return new Color(this.blue, this.green, this.red, true);
+    }
+
+    public boolean isHdr() {
+        return this.hdr;
+    }
+
+    private float clamp(float channel) {
+        return (hdr) ? channel : Math.min(channel, 255F);
     }
 
     public float getBlue() {
@@ -58,7 +93,7 @@ public class Color {
         float g = (this.green * other.green) / 255F;
         float r = (this.red * other.red) / 255F;
 
-        return new Color(b, g, r);
+        return new Color(b, g, r, this.hdr || other.hdr);
     }
 
     /**
@@ -68,6 +103,8 @@ public class Color {
      */
     public Color scale(double scalar) {
 
+        if (hdr) return new Color((float) (this.blue * scalar), (float) (this.green * scalar), (float) (this.red * scalar), true);
+
         float b = Math.min((float)Math.floor(this.blue *  scalar), 255F);
         float g = Math.min((float)Math.floor(this.green * scalar), 255F);
         float r = Math.min((float)Math.floor(this.red *   scalar), 255F);
@@ -78,17 +115,18 @@ public class Color {
     // Add two colors together
     public Color add(Color other) {
 
-        float b = Math.min(other.blue + this.blue, 255F);
-        float g = Math.min(other.green + this.green, 255F);
-        float r = Math.min(other.red + this.red, 255F);
+        final boolean hdr = this.hdr || other.hdr;
+        float b = other.blue + this.blue;
+        float g = other.green + this.green;
+        float r = other.red + this.red;
 
-        return new Color(b, g, r);
+        return (hdr) ? new Color(b, g, r, true) : new Color(Math.min(b, 255F), Math.min(g, 255F), Math.min(r, 255F));
     }
 
     public void setAdd(Color other) {
-        this.blue = Math.min(other.blue + this.blue, 255F);
-        this.green = Math.min(other.green + this.green, 255F);
-        this.red = Math.min(other.red + this.red, 255F);
+        this.blue = clamp(other.blue + this.blue);
+        this.green = clamp(other.green + this.green);
+        this.red = clamp(other.red + this.red);
     }
 
     // Subtract two colors
@@ -98,6 +136,6 @@ public class Color {
         float g = Math.max(this.green - other.green, 0F);
         float r = Math.max(this.red - other.red, 0F);
 
-        return new Color(b, g, r);
+        return new Color(b, g, r, this.hdr || other.hdr);
     }
 }
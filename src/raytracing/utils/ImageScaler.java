@@ -0,0 +1,116 @@
+package raytracing.utils;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * Resizes image buffers (3 bytes per pixel ordered Blue, Green, Red) with a {@link ResampleFilter}, for instance to
+ * derive the thumbnails of a frame from the frame itself instead of tracing them again.
+ * <p>
+ * The filter is separable : the rows are first resized horizontally into a float buffer, then the columns
+ * vertically, each pass processing its rows in parallel. The weights of a pass are computed once per output column
+ * (or row), the kernel being widened by the shrinking ratio so that every source pixel contributes.
+ * @author Mathieu Niord
+ */
+public class ImageScaler {
+
+    private ImageScaler() {}
+
+    /**
+     * The weights of the source pixels of each output pixel along an axis : a window of consecutive source pixels
+     * starting at first[o], of count[o] pixels, whose weights (summing to 1) are stored from o * taps.
+     */
+    private static class Kernel {
+        final int taps;
+        final int[] first, count;
+        final float[] weights;
+
+        Kernel(int size, int targetSize, ResampleFilter filter) {
+
+            final double scale = (double) size / targetSize, filterScale = Math.max(scale, 1.0D);
+            final double support = filter.getSupport() * filterScale;
+            taps = 2 * (int) Math.ceil(support) + 1;
+            first = new int[targetSize];
+            count = new int[targetSize];
+            weights = new float[targetSize * taps];
+
+            final double[] window = new double[taps];
+            for (int o = 0; o < targetSize; ++o) {
+
+                final double center = (o + 0.5D) * scale - 0.5D;
+                final int lo = (int) Math.ceil(center - support), hi = (int) Math.floor(center + support);
+                final int start = Math.max(0, Math.min(lo, size - 1)), end = Math.min(size - 1, Math.max(hi, 0));
+
+                // The pixels beyond the edges are the edge pixels
+                Arrays.fill(window, 0.0D);
+                double sum = 0.0D;
+                for (int i = lo; i <= hi; ++i) {
+                    final double w = filter.weight((i - center) / filterScale);
+                    window[Math.max(0, Math.min(i, size - 1)) - start] += w;
+                    sum += w;
+                }
+                if (sum == 0.0D) { // Narrower than a source pixel : the nearest one
+                    window[Math.max(0, Math.min((int) Math.round(center), size - 1)) - start] = 1.0D;
+                    sum = 1.0D;
+                }
+
+                first[o] = start;
+                count[o] = end - start + 1;
+                for (int k = 0; k < count[o]; ++k) weights[o * taps + k] = (float) (window[k] / sum);
+            }
+        }
+    }
+
+    /**
+     * Resize an image.
+     * @param buffer The image buffer, 3 bytes per pixel ordered Blue, Green, Red.
+     * @param width The width of the image.
+     * @param height The height of the image.
+     * @param targetWidth The width of the resized image.
+     * @param targetHeight The height of the resized image.
+     * @param filter The filter weighting the source pixels {@link ResampleFilter}.
+     * @return The buffer of the resized image, rows in the order of the source buffer.
+     * @throws IllegalArgumentException If a size is not positive.
+     */
+    public static byte[] scale(byte[] buffer, int width, int height, int targetWidth, int targetHeight, ResampleFilter filter) {
+
+        if (targetWidth < 1 || targetHeight < 1)
+            throw new IllegalArgumentException("Invalid image size : " + targetWidth + "x" + targetHeight);
+
+        final Kernel columns = new Kernel(width, targetWidth, filter), rows = new Kernel(height, targetHeight, filter);
+
+        // Horizontal pass : every row resized to the target width
+        final float[] resized = new float[3 * targetWidth * height];
+        IntStream.range(0, height).parallel().forEach(row -> {
+            final int in = 3 * row * width, out = 3 * row * targetWidth;
+            for (int x = 0; x < targetWidth; ++x) {
+                float b = 0.0F, g = 0.0F, r = 0.0F;
+                for (int k = 0, p = in + 3 * columns.first[x]; k < columns.count[x]; ++k, p += 3) {
+                    final float w = columns.weights[x * columns.taps + k];
+                    b += w * (buffer[p] & 0xFF);
+                    g += w * (buffer[p + 1] & 0xFF);
+                    r += w * (buffer[p + 2] & 0xFF);
+                }
+                resized[out + 3 * x] = b;
+                resized[out + 3 * x + 1] = g;
+                resized[out + 3 * x + 2] = r;
+            }
+        });
+
+        // Vertical pass : the resized rows blended into the target rows
+        final byte[] target = new byte[3 * targetWidth * targetHeight];
+        final int stride = 3 * targetWidth;
+        IntStream.range(0, targetHeight).parallel().forEach(y -> {
+            final float[] line = new float[stride];
+            for (int k = 0; k < rows.count[y]; ++k) {
+                final float w = rows.weights[y * rows.taps + k];
+                final int in = (rows.first[y] + k) * stride;
+                for (int i = 0; i < stride; ++i) line[i] += w * resized[in + i];
+            }
+            // The negative lobes of a filter may overshoot the range of a channel
+            for (int i = 0; i < stride; ++i) target[y * stride + i] = (byte) Math.max(0, Math.min(255, Math.round(line[i])));
+        });
+
+        return target;
+    }
+}
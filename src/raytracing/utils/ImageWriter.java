@@ -0,0 +1,48 @@
+package raytracing.utils;
+
+import java.io.IOException;
+
+/**
+ * Saves an image buffer in the format given by the extension of the output file name :
+ * <ul>
+ *     <li>{@code .png} : PNG, filtered and compressed in parallel ({@link PngEncoder});</li>
+ *     <li>{@code .rle.tga} : run-length encoded TGA ({@link JavaTga#saveRleTGA(String, byte[], int, int)});</li>
+ *     <li>{@code .tga} : uncompressed TGA ({@link JavaTga#saveTGA(String, byte[], int, int)}).</li>
+ * </ul>
+ * @author Mathieu Niord
+ */
+public class ImageWriter {
+
+    public static final String PNG = ".png", RLE_TGA = ".rle.tga", TGA = ".tga";
+
+    private ImageWriter() {}
+
+    /**
+     * Tell if the extension of a file name is handled by the writer.
+     * @param filename The file name.
+     * @return true if the file name ends with a supported extension.
+     */
+    public static boolean isSupported(String filename) {
+        final String name = filename.toLowerCase();
+        return name.endsWith(PNG) || name.endsWith(TGA);
+    }
+
+    /**
+     * Save the image.
+     * @param filename name of the final file, its extension selects the format.
+     * @param buffer buffer that contains the image. 3 bytes per pixel ordered this way : Blue, Green, Red
+     * @param width Width of the image
+     * @param height Height of the image
+     * @throws IOException If the file cannot be written
+     * @throws IllegalArgumentException If the extension is not supported
+     */
+    public static void save(String filename, byte[] buffer, int width, int height) throws IOException {
+
+        final String name = filename.toLowerCase();
+
+        if (name.endsWith(PNG)) PngEncoder.savePNG(filename, buffer, width, height);
+        else if (name.endsWith(RLE_TGA)) JavaTga.saveRleTGA(filename, buffer, width, height);
+        else if (name.endsWith(TGA)) JavaTga.saveTGA(filename, buffer, width, height);
+        else throw new IllegalArgumentException("Unsupported image format : " + filename);
+    }
+}
@@ -1,16 +1,23 @@
 package raytracing.utils;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
+import java.util.stream.IntStream;
 
 /**
  * @author P. Meseure based on a Java Adaptation of a C code by B. Debouchages (M1, 2018-2019)
  */
 public class JavaTga
 {
+    /**
+     * Number of scanlines encoded by a single task when compressing in parallel.
+     */
+    private static final int RLE_ROWS_PER_TASK = 64;
+
     /**
      *
      * @param fOut : output file stream
@@ -35,9 +42,59 @@ public class JavaTga
 
         FileOutputStream fOut = new FileOutputStream(filename);
 
+        writeHeader(fOut, 2, width, height); // Image type 2 : uncompressed true-color
+
+        /* Write the buffer */
+        fOut.write(buffer);
+
+        fOut.close();
+    }
+
+    /**
+     * Same as {@link #saveTGA(String, byte[], int, int)} but the pixels are run-length encoded (image type 10).
+     * Scanlines are compressed in parallel; packets never cross a scanline as recommended by the TGA specification.
+     * @param filename name of final TGA file
+     * @param buffer buffer that contains the image. 3 bytes per pixel ordered this way : Blue, Green, Red
+     * @param width Width of the image
+     * @param height Height of the image
+     * @throws IOException If the file cannot be written
+     */
+    protected static void saveRleTGA(String filename, byte[] buffer, int width, int height) throws IOException {
+
+        final int tasks = (height + RLE_ROWS_PER_TASK - 1) / RLE_ROWS_PER_TASK;
+
+        /* Compress the scanlines, each task producing an independent sequence of packets */
+        final byte[][] chunks = IntStream.range(0, tasks).parallel()
+                .mapToObj(task -> {
+                    ByteArrayOutputStream packets = new ByteArrayOutputStream();
+                    final int end = Math.min(height, (task + 1) * RLE_ROWS_PER_TASK);
+                    for (int row = task * RLE_ROWS_PER_TASK; row < end; ++row)
+                        encodeRleRow(packets, buffer, row * width, width);
+                    return packets.toByteArray();
+                })
+                .toArray(byte[][]::new);
+
+        FileOutputStream fOut = new FileOutputStream(filename);
+
+        writeHeader(fOut, 10, width, height); // Image type 10 : run-length encoded true-color
+
+        /* Write the packets in scanline order */
+        for (byte[] chunk : chunks) fOut.write(chunk);
+
+        fOut.close();
+    }
+
+    /**
+     * Write the 18 bytes header of a 24bpp TGA file.
+     * @param fOut : output file stream
+     * @param type : TGA image type
+     * @param width : Width of the image
+     * @param height : Height of the image
+     */
+    private static void writeHeader(FileOutputStream fOut, int type, int width, int height) throws IOException {
         fOut.write(0); // Comment size, no comment
         fOut.write(0); // Colormap type: No colormap
-        fOut.write(2); // Image type
+        fOut.write(type); // Image type
         writeShort(fOut,0); // Origin
         writeShort(fOut,0); // Length
         fOut.write(0); // Depth
@@ -47,10 +104,44 @@ public class JavaTga
         writeShort(fOut,height); // Height of the image
         fOut.write(24); // Pixel size in bits (24bpp)
         fOut.write(0); // Descriptor
+    }
 
-        /* Write the buffer */
-        fOut.write(buffer);
+    /**
+     * Run-length encode one scanline : repeated pixels become a run packet, the others are grouped in raw packets.
+     * @param out : stream receiving the packets
+     * @param buffer : the image buffer
+     * @param first : index of the first pixel of the scanline
+     * @param width : number of pixels of the scanline
+     */
+    private static void encodeRleRow(ByteArrayOutputStream out, byte[] buffer, int first, int width) {
 
-        fOut.close();
+        int col = 0;
+        while (col < width) {
+
+            // Length of the run of identical pixels starting at col (a packet holds at most 128 pixels)
+            int run = 1;
+            while (col + run < width && run < 128 && samePixel(buffer, first + col, first + col + run)) ++run;
+
+            if (run > 1) {
+                out.write(0x80 | (run - 1));
+                out.write(buffer, 3 * (first + col), 3);
+                col += run;
+            }
+            else {
+                // Gather pixels until the next run of at least two identical pixels
+                int raw = 1;
+                while (col + raw < width && raw < 128
+                        && !(col + raw + 1 < width && samePixel(buffer, first + col + raw, first + col + raw + 1))) ++raw;
+                out.write(raw - 1);
+                out.write(buffer, 3 * (first + col), 3 * raw);
+                col += raw;
+            }
+        }
+    }
+
+    private static boolean samePixel(byte[] buffer, int a, int b) {
+        return buffer[3 * a] == buffer[3 * b]
+                && buffer[3 * a + 1] == buffer[3 * b + 1]
+                && buffer[3 * a + 2] == buffer[3 * b + 2];
     }
 }
\ No newline at end of file
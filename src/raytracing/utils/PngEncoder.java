@@ -0,0 +1,240 @@
+package raytracing.utils;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.stream.IntStream;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * .png generator whose scanline filtering and deflate compression run in parallel.
+ * The image is cut into blocks of scanlines that are filtered and compressed with independent {@link Deflater}s.
+ * Each block is flushed on a byte boundary so that the raw deflate streams can simply be concatenated
+ * into a single zlib stream, whose Adler-32 checksum is combined from the checksums of the blocks.
+ * @author Mathieu Niord
+ */
+public class PngEncoder {
+
+    private static final byte[] SIGNATURE = { (byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n' };
+
+    /**
+     * Approximate number of uncompressed bytes handled by a single task.
+     */
+    private static final int BLOCK_SIZE = 1 << 18;
+
+    private static final int ADLER_BASE = 65521;
+
+    private PngEncoder() {}
+
+    /**
+     * Save an image as a 24 bits RGB .png file.
+     * @param filename name of the final PNG file
+     * @param buffer buffer that contains the image, in the {@link JavaTga} layout :
+     *               3 bytes per pixel ordered Blue, Green, Red, first row at the bottom of the image
+     * @param width Width of the image
+     * @param height Height of the image
+     * @throws IOException If the file cannot be written
+     */
+    public static void savePNG(String filename, byte[] buffer, int width, int height) throws IOException {
+
+        final int stride = 3 * width + 1; // filter type byte + RGB samples
+        final int rowsPerBlock = Math.max(1, BLOCK_SIZE / stride);
+        final int blocks = (height + rowsPerBlock - 1) / rowsPerBlock;
+
+        final Block[] compressed = IntStream.range(0, blocks).parallel()
+                .mapToObj(b -> compressBlock(
+                        buffer, width, height,
+                        b * rowsPerBlock, Math.min(height, (b + 1) * rowsPerBlock),
+                        b == blocks - 1
+                ))
+                .toArray(Block[]::new);
+
+        long adler = 1L;
+        for (Block block : compressed) adler = combineAdler32(adler, block.adler, block.length);
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(filename)))) {
+
+            out.write(SIGNATURE);
+
+            ByteBuffer ihdr = ByteBuffer.allocate(13);
+            ihdr.putInt(width);
+            ihdr.putInt(height);
+            ihdr.put((byte) 8); // Bit depth
+            ihdr.put((byte) 2); // Color type : true-color RGB
+            ihdr.put((byte) 0); // Compression method : deflate
+            ihdr.put((byte) 0); // Filter method : adaptive
+            ihdr.put((byte) 0); // Interlace method : none
+            writeChunk(out, "IHDR", ihdr.array());
+
+            // One IDAT chunk per compressed block, the zlib header and trailer wrapping the whole sequence
+            for (int b = 0; b < blocks; ++b) {
+                byte[] header = (b == 0) ? new byte[] { 0x78, (byte) 0x9C } : new byte[0];
+                byte[] trailer = (b == blocks - 1)
+                        ? new byte[] { (byte) (adler >>> 24), (byte) (adler >>> 16), (byte) (adler >>> 8), (byte) adler }
+                        : new byte[0];
+                writeChunk(out, "IDAT", header, compressed[b].data, trailer);
+            }
+
+            writeChunk(out, "IEND");
+        }
+    }
+
+    /**
+     * Filter and compress a block of scanlines.
+     * @param buffer the image buffer
+     * @param width Width of the image
+     * @param height Height of the image
+     * @param from first scanline of the block (top-down, as stored in the PNG)
+     * @param to scanline following the last one of the block
+     * @param last whether this block ends the deflate stream
+     * @return the compressed block
+     */
+    private static Block compressBlock(byte[] buffer, int width, int height, int from, int to, boolean last) {
+
+        final int stride = 3 * width;
+        byte[] filtered = new byte[(to - from) * (stride + 1)];
+        byte[] previous = new byte[stride], current = new byte[stride], candidate = new byte[stride];
+
+        if (from > 0) readRow(buffer, width, height, from - 1, previous);
+
+        for (int line = from; line < to; ++line) {
+
+            readRow(buffer, width, height, line, current);
+            final int offset = (line - from) * (stride + 1);
+
+            // Adaptive filtering : keep the filter with the minimal sum of absolute differences
+            long bestScore = Long.MAX_VALUE;
+            for (int type = 0; type < 5; ++type) {
+                final long score = filterRow(type, current, previous, candidate);
+                if (score < bestScore) {
+                    bestScore = score;
+                    filtered[offset] = (byte) type;
+                    System.arraycopy(candidate, 0, filtered, offset + 1, stride);
+                }
+            }
+
+            byte[] swap = previous;
+            previous = current;
+            current = swap;
+        }
+
+        Adler32 adler = new Adler32();
+        adler.update(filtered, 0, filtered.length);
+
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        deflater.setInput(filtered);
+        if (last) deflater.finish();
+
+        ByteArrayOutputStream data = new ByteArrayOutputStream(filtered.length / 4 + 64);
+        byte[] tmp = new byte[1 << 16];
+        while (true) {
+            final int n = (last) ? deflater.deflate(tmp) : deflater.deflate(tmp, 0, tmp.length, Deflater.SYNC_FLUSH);
+            data.write(tmp, 0, n);
+            if (last ? deflater.finished() : n < tmp.length) break;
+        }
+        deflater.end();
+
+        return new Block(data.toByteArray(), adler.getValue(), filtered.length);
+    }
+
+    /**
+     * Copy a scanline of the TGA buffer (BGR, bottom-up) into a PNG scanline (RGB, top-down).
+     */
+    private static void readRow(byte[] buffer, int width, int height, int line, byte[] row) {
+        final int base = 3 * (height - 1 - line) * width;
+        for (int i = 0; i < 3 * width; i += 3) {
+            row[i] = buffer[base + i + 2];      // Red
+            row[i + 1] = buffer[base + i + 1];  // Green
+            row[i + 2] = buffer[base + i];      // Blue
+        }
+    }
+
+    /**
+     * Apply a PNG filter to a scanline.
+     * @return the sum of the absolute values of the filtered bytes (as signed bytes)
+     */
+    private static long filterRow(int type, byte[] row, byte[] previous, byte[] out) {
+        long score = 0;
+        for (int i = 0; i < row.length; ++i) {
+            final int x = row[i] & 0xFF;
+            final int a = (i >= 3) ? row[i - 3] & 0xFF : 0;
+            final int b = previous[i] & 0xFF;
+            final int c = (i >= 3) ? previous[i - 3] & 0xFF : 0;
+            final int predictor;
+            switch (type) {
+                case 1 : predictor = a; break;
+                case 2 : predictor = b; break;
+                case 3 : predictor = (a + b) >>> 1; break;
+                case 4 : predictor = paeth(a, b, c); break;
+                default : predictor = 0; break;
+            }
+            out[i] = (byte) (x - predictor);
+            score += Math.abs((int) out[i]);
+        }
+        return score;
+    }
+
+    private static int paeth(int a, int b, int c) {
+        final int p = a + b - c;
+        final int pa = Math.abs(p - a), pb = Math.abs(p - b), pc = Math.abs(p - c);
+        if (pa <= pb && pa <= pc) return a;
+        return (pb <= pc) ? b : c;
+    }
+
+    /**
+     * Combine the Adler-32 checksums of two consecutive byte sequences (port of zlib's adler32_combine).
+     * @param adler1 checksum of the first sequence
+     * @param adler2 checksum of the second sequence
+     * @param length2 length of the second sequence
+     * @return the checksum of the concatenation
+     */
+    static long combineAdler32(long adler1, long adler2, long length2) {
+        final long rem = length2 % ADLER_BASE;
+        long sum1 = adler1 & 0xFFFF;
+        long sum2 = (rem * sum1) % ADLER_BASE;
+        sum1 += (adler2 & 0xFFFF) + ADLER_BASE - 1;
+        sum2 += ((adler1 >>> 16) & 0xFFFF) + ((adler2 >>> 16) & 0xFFFF) + ADLER_BASE - rem;
+        if (sum1 >= ADLER_BASE) sum1 -= ADLER_BASE;
+        if (sum1 >= ADLER_BASE) sum1 -= ADLER_BASE;
+        if (sum2 >= (2L * ADLER_BASE)) sum2 -= (2L * ADLER_BASE);
+        if (sum2 >= ADLER_BASE) sum2 -= ADLER_BASE;
+        return (sum2 << 16) | sum1;
+    }
+
+    private static void writeChunk(DataOutputStream out, String type, byte[]... parts) throws IOException {
+        int length = 0;
+        for (byte[] part : parts) length += part.length;
+
+        CRC32 crc = new CRC32();
+        byte[] typeBytes = type.getBytes("US-ASCII");
+        crc.update(typeBytes);
+
+        out.writeInt(length);
+        out.write(typeBytes);
+        for (byte[] part : parts) {
+            crc.update(part);
+            out.write(part);
+        }
+        out.writeInt((int) crc.getValue());
+    }
+
+    /**
+     * A compressed block of scanlines.
+     */
+    private static class Block {
+        final byte[] data;
+        final long adler;
+        final long length;
+
+        Block(byte[] data, long adler, long length) {
+            this.data = data;
+            this.adler = adler;
+            this.length = length;
+        }
+    }
+}
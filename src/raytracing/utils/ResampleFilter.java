@@ -0,0 +1,61 @@
+package raytracing.utils;
+
+/**
+ * Filters weighting the pixels of an image when it is resized by the {@link ImageScaler}. The kernels are expressed
+ * in pixels of the smaller image, and widened by the {@link ImageScaler} when it shrinks an image.
+ * @author Mathieu Niord
+ */
+public enum ResampleFilter {
+
+    /**
+     * Average of the pixels covered by the output pixel : fast, but keeps a little aliasing.
+     */
+    BOX {
+        @Override
+        public double getSupport() { return 0.5D; }
+
+        @Override
+        public double weight(double x) {
+            return (x >= -0.5D && x < 0.5D) ? 1.0D : 0.0D;
+        }
+    },
+
+    /**
+     * Windowed sinc over 3 lobes : sharper and without aliasing, at the cost of a slight ringing along the edges.
+     */
+    LANCZOS {
+        @Override
+        public double getSupport() { return 3.0D; }
+
+        @Override
+        public double weight(double x) {
+            if (x == 0.0D) return 1.0D;
+            if (x <= -3.0D || x >= 3.0D) return 0.0D;
+            final double px = Math.PI * x;
+            return 3.0D * Math.sin(px) * Math.sin(px / 3.0D) / (px * px);
+        }
+    };
+
+    /**
+     * @return The half width of the kernel, the weight being 0 beyond.
+     */
+    public abstract double getSupport();
+
+    /**
+     * @param x The distance to the center of the kernel.
+     * @return The (not normalized) weight at this distance.
+     */
+    public abstract double weight(double x);
+
+    /**
+     * Find a filter from its (case insensitive) name.
+     * @param name The name of the filter.
+     * @return The filter.
+     * @throws IllegalArgumentException If no filter has this name.
+     */
+    public static ResampleFilter fromName(String name) {
+        for (ResampleFilter filter : values())
+            if (filter.name().equalsIgnoreCase(name)) return filter;
+        throw new IllegalArgumentException("Unknown resample filter : " + name);
+    }
+}
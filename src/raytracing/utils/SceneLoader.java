@@ -1,7 +1,10 @@
 package raytracing.utils;
 
 import raytracing.maths.Vec3d;
+import raytracing.rendering.AreaLight;
+import raytracing.rendering.DiskLight;
 import raytracing.rendering.Light;
+import raytracing.rendering.RectangleLight;
 import raytracing.rendering.Scene;
 
 /**
@@ -26,6 +29,9 @@ public class SceneLoader {
             case 3:
                 constructScene03();
             break;
+            case 4:
+                constructScene04();
+            break;
             default:
                 constructDefaultScene();
             break;
@@ -290,4 +296,47 @@ public class SceneLoader {
         );
     }
 
+    private void constructScene04() {
+
+        // LIGHTS (soft shadows)
+        scene.addLight(new RectangleLight(
+                new Vec3d(-300.0D, 500.0D, -1100.0D), new Vec3d(120.0D, 0.0D, 0.0D), new Vec3d(0.0D, 0.0D, 120.0D),
+                Color.LIGHT_GRAY, Color.WHITE, 0.8D, AreaLight.DEFAULT_SAMPLES
+        ));
+
+        scene.addLight(new DiskLight(
+                new Vec3d(450.0D, 300.0D, -1100.0D), new Vec3d(0.0D, -1.0D, 0.0D), 60.0D,
+                Color.LIGHT_GRAY, Color.WHITE, 0.4D, AreaLight.DEFAULT_SAMPLES
+        ));
+
+        // PLANE
+        scene.addCheckerboard(
+                100.0D, new Vec3d(0.0D, 1.0D, 0.0D),
+                Color.LIGHT_GRAY, 1000.0D, 0.3D,
+                0.0D, 1.0D
+        );
+
+        // SPHERES
+        scene.addSphere(
+                100.0D, new Vec3d(-220.0D, 0.0D, -800.0D),
+                Color.BLUE, Color.WHITE,
+                1000.0D, 0.6D,
+                0.0D, 1.0D
+        ); // Blue
+
+        scene.addSphere(
+                100.0D, new Vec3d(0.0D, 0.0D, -800.0D),
+                Color.GREEN, Color.WHITE,
+                1000.0D, 0.6D,
+                0.0D, 1.0D
+        ); // Green
+
+        scene.addSphere(
+                100.0D, new Vec3d(220.0D, 0.0D, -800.0D),
+                Color.RED, Color.WHITE,
+                1000.0D, 0.6D,
+                0.0D, 1.0D
+        ); // Red
+    }
+
 }
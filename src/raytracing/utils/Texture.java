@@ -0,0 +1,233 @@
+package raytracing.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An image texture, read from an uncompressed 24 bits TGA file, with its mipmap pyramid.
+ * <p>
+ * Nothing of the image is loaded on the heap : the file is memory mapped, and the smaller levels of the pyramid are
+ * computed once into a memory mapped temporary file. The texels are read by tiles of {@link #TILE_SIZE} pixels
+ * through a {@link TextureCache} bounding the memory used by the textures.
+ * <p>
+ * The texture coordinates (u, v) repeat over [0, 1[, (0, 0) being the bottom left corner of the image. The
+ * samples are filtered bilinearly within a level, and trilinearly across the levels of the pyramid.
+ * @author Mathieu Niord
+ */
+public class Texture {
+
+    /**
+     * Side in pixels of the tiles of the texture.
+     */
+    public static final int TILE_SIZE = 64;
+
+    private static final AtomicInteger ids = new AtomicInteger();
+
+    private final int id;
+    private final TextureCache cache;
+    private final Level[] levels;
+
+    /**
+     * A level of the pyramid : a memory mapped image, rows stored bottom-up unless told otherwise.
+     */
+    private static class Level {
+        final int width, height, tilesX;
+        final ByteBuffer pixels;
+        final boolean topDown;
+
+        Level(int width, int height, ByteBuffer pixels, boolean topDown) {
+            this.width = width;
+            this.height = height;
+            this.tilesX = (width + TILE_SIZE - 1) / TILE_SIZE;
+            this.pixels = pixels;
+            this.topDown = topDown;
+        }
+
+        int offset(int x, int y) {
+            return 3 * ((topDown ? height - 1 - y : y) * width + x);
+        }
+    }
+
+    private Texture(Level[] levels, TextureCache cache) {
+        this.id = ids.getAndIncrement();
+        this.levels = levels;
+        this.cache = cache;
+        if (id >= 1 << 16) throw new IllegalStateException("Too many textures");
+    }
+
+    /**
+     * Load a texture and build its mipmap pyramid.
+     * @param filename The name of an uncompressed 24 bits TGA file (image type 2), of at most 2 GB.
+     * @param cache The cache of the tiles {@link TextureCache}.
+     * @return The texture.
+     * @throws IOException If the file cannot be read or is not an uncompressed 24 bits TGA file.
+     */
+    public static Texture load(String filename, TextureCache cache) throws IOException {
+
+        try (FileChannel channel = new RandomAccessFile(filename, "r").getChannel()) {
+
+            ByteBuffer header = ByteBuffer.allocate(18).order(ByteOrder.LITTLE_ENDIAN);
+            while (header.hasRemaining()) if (channel.read(header) < 0) throw new IOException("Truncated TGA file : " + filename);
+            header.flip();
+
+            final int idLength = header.get(0) & 0xFF, colorMapType = header.get(1), imageType = header.get(2);
+            final int width = header.getShort(12) & 0xFFFF, height = header.getShort(14) & 0xFFFF;
+            final int bitsPerPixel = header.get(16), descriptor = header.get(17);
+            if (colorMapType != 0 || imageType != 2 || bitsPerPixel != 24 || width == 0 || height == 0)
+                throw new IOException("Not an uncompressed 24 bits TGA file : " + filename);
+
+            final long size = 3L * width * height;
+            if (channel.size() < 18 + idLength + size) throw new IOException("Truncated TGA file : " + filename);
+            MappedByteBuffer base = channel.map(FileChannel.MapMode.READ_ONLY, 18 + idLength, size);
+
+            return new Texture(buildPyramid(new Level(width, height, base, (descriptor & 0x20) != 0)), cache);
+        }
+    }
+
+    /**
+     * Compute the smaller levels of the pyramid by averaging the blocks of 2 x 2 pixels of the previous level,
+     * into a memory mapped temporary file.
+     */
+    private static Level[] buildPyramid(Level base) throws IOException {
+
+        int count = 1;
+        long size = 0;
+        for (int w = base.width, h = base.height; w > 1 || h > 1; ++count) {
+            w = Math.max(1, w / 2);
+            h = Math.max(1, h / 2);
+            size += 3L * w * h;
+        }
+
+        Level[] levels = new Level[count];
+        levels[0] = base;
+        if (count == 1) return levels;
+
+        File file = File.createTempFile("texture", ".mip");
+        file.deleteOnExit();
+        MappedByteBuffer pyramid;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(size);
+            pyramid = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+        file.delete(); // The mapping stays valid where the system allows it
+
+        int offset = 0;
+        for (int l = 1; l < count; ++l) {
+
+            final Level source = levels[l - 1];
+            final int width = Math.max(1, source.width / 2), height = Math.max(1, source.height / 2);
+            pyramid.position(offset);
+            ByteBuffer pixels = pyramid.slice();
+            pixels.limit(3 * width * height);
+
+            final byte[] row0 = new byte[3 * source.width], row1 = new byte[3 * source.width], row = new byte[3 * width];
+            final ByteBuffer reader = source.pixels.duplicate();
+            for (int y = 0; y < height; ++y) {
+                reader.position(source.offset(0, Math.min(2 * y, source.height - 1)));
+                reader.get(row0);
+                reader.position(source.offset(0, Math.min(2 * y + 1, source.height - 1)));
+                reader.get(row1);
+
+                for (int x = 0; x < width; ++x) {
+                    final int a = 3 * Math.min(2 * x, source.width - 1), b = 3 * Math.min(2 * x + 1, source.width - 1);
+                    for (int c = 0; c < 3; ++c)
+                        row[3 * x + c] = (byte) (((row0[a + c] & 0xFF) + (row0[b + c] & 0xFF) + (row1[a + c] & 0xFF) + (row1[b + c] & 0xFF) + 2) >> 2);
+                }
+                pixels.position(3 * y * width);
+                pixels.put(row);
+            }
+
+            levels[l] = new Level(width, height, pixels, false);
+            offset += 3 * width * height;
+        }
+        return levels;
+    }
+
+    public int getWidth() { return levels[0].width; }
+
+    public int getHeight() { return levels[0].height; }
+
+    public int getLevelCount() { return levels.length; }
+
+    /**
+     * Sample the texture.
+     * @param u The horizontal coordinate, repeating over [0, 1[.
+     * @param v The vertical coordinate, repeating over [0, 1[.
+     * @param footprint The size of the sampled area in pixels of the full resolution image (1 or less for the
+     * full resolution), which selects the levels of the pyramid.
+     * @return The filtered color {@link Color}.
+     */
+    public Color sample(double u, double v, double footprint) {
+
+        final double lod = (footprint > 1.0D) ? Math.min(Math.log(footprint) / Math.log(2.0D), levels.length - 1) : 0.0D;
+        final int level = (int) lod;
+        final float blend = (float) (lod - level);
+
+        // The channels are accumulated in locals : sampling a texture allocates its color only
+        float blue = 0.0F, green = 0.0F, red = 0.0F;
+        final int last = (blend > 0.0F) ? level + 1 : level;
+        for (int l = level; l <= last; ++l) {
+
+            final float weight = (l == level) ? 1.0F - blend : blend;
+
+            // Bilinear filter of the level, the corners being taken in the order x0 y0, x1 y0, x0 y1, x1 y1
+            final Level current = levels[l];
+            final double x = (u - Math.floor(u)) * current.width - 0.5D, y = (v - Math.floor(v)) * current.height - 0.5D;
+            final int x0 = (int) Math.floor(x), y0 = (int) Math.floor(y);
+            final float fx = (float) (x - x0), fy = (float) (y - y0);
+
+            for (int corner = 0; corner < 4; ++corner) {
+                final int dx = corner & 1, dy = corner >> 1;
+                final float w = weight * ((dx == 0) ? 1.0F - fx : fx) * ((dy == 0) ? 1.0F - fy : fy);
+                if (w == 0.0F) continue;
+
+                final int texel = texel(l, x0 + dx, y0 + dy);
+                blue += w * (texel & 0xFF);
+                green += w * ((texel >> 8) & 0xFF);
+                red += w * (texel >>> 16);
+            }
+        }
+        return new Color(blue, green, red);
+    }
+
+    /**
+     * Read a texel, wrapped around the edges of the level.
+     * @return The texel, packed as Blue | Green << 8 | Red << 16.
+     */
+    private int texel(int l, int x, int y) {
+
+        final Level level = levels[l];
+        x = Math.floorMod(x, level.width);
+        y = Math.floorMod(y, level.height);
+
+        final int tileX = x / TILE_SIZE, tileY = y / TILE_SIZE;
+        final long key = ((long) id << 48) | ((long) l << 42) | ((long) tileY * level.tilesX + tileX);
+        final byte[] tile = cache.get(key, k -> loadTile(level, tileX, tileY));
+
+        final int texel = 3 * ((y % TILE_SIZE) * TILE_SIZE + (x % TILE_SIZE));
+        return (tile[texel] & 0xFF) | (tile[texel + 1] & 0xFF) << 8 | (tile[texel + 2] & 0xFF) << 16;
+    }
+
+    /**
+     * Copy a tile out of the memory mapped level, rows bottom-up, 3 bytes per pixel ordered Blue, Green, Red.
+     */
+    private static byte[] loadTile(Level level, int tileX, int tileY) {
+
+        final byte[] tile = new byte[3 * TILE_SIZE * TILE_SIZE];
+        final int x = tileX * TILE_SIZE, y = tileY * TILE_SIZE;
+        final int width = Math.min(TILE_SIZE, level.width - x), height = Math.min(TILE_SIZE, level.height - y);
+
+        final ByteBuffer reader = level.pixels.duplicate();
+        for (int row = 0; row < height; ++row) {
+            reader.position(level.offset(x, y + row));
+            reader.get(tile, 3 * row * TILE_SIZE, 3 * width);
+        }
+        return tile;
+    }
+}
@@ -0,0 +1,104 @@
+package raytracing.utils;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongFunction;
+
+/**
+ * A bounded cache of texture tiles shared by the {@link Texture textures} of a scene, evicting the least recently
+ * used tiles. The tiles are read from memory mapped files on a miss, so that the textures of a scene may exceed the
+ * memory : only the cached tiles live on the heap.
+ * <p>
+ * The cache is split into segments, each one guarded by its own lock, so that the rendering threads rarely wait
+ * for each other. The least recently used order is kept per segment.
+ * @author Mathieu Niord
+ */
+public class TextureCache {
+
+    /**
+     * Default capacity in tiles (48 MB of 64 x 64 tiles).
+     */
+    public static final int DEFAULT_CAPACITY = 4096;
+
+    private static final int SEGMENTS = 16;
+
+    private final Segment[] segments = new Segment[SEGMENTS];
+    private final LongAdder hits = new LongAdder(), misses = new LongAdder(), evictions = new LongAdder();
+
+    /**
+     * The tiles of a segment, in least recently used order.
+     */
+    private class Segment extends LinkedHashMap<Long, byte[]> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int capacity;
+
+        Segment(int capacity) {
+            super(16, 0.75F, true);
+            this.capacity = capacity;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, byte[]> eldest) {
+            if (size() <= capacity) return false;
+            evictions.increment();
+            return true;
+        }
+    }
+
+    /**
+     * @param capacity The maximum number of cached tiles.
+     */
+    public TextureCache(int capacity) {
+        if (capacity < SEGMENTS) throw new IllegalArgumentException("The cache must hold at least " + SEGMENTS + " tiles");
+        for (int i = 0; i < SEGMENTS; ++i) segments[i] = new Segment(capacity / SEGMENTS);
+    }
+
+    /**
+     * Get a tile, loading it on a miss. The loading happens out of the locks : two threads missing the same tile
+     * at the same time may both load it.
+     * @param key The key of the tile, unique among the textures of the cache.
+     * @param loader Loads the tile from its key.
+     * @return The tile.
+     */
+    public byte[] get(long key, LongFunction<byte[]> loader) {
+
+        final Segment segment = segments[(int) ((key ^ (key >>> 29) ^ (key >>> 47)) & (SEGMENTS - 1))];
+        byte[] tile;
+        synchronized (segment) { tile = segment.get(key); }
+        if (tile != null) {
+            hits.increment();
+            return tile;
+        }
+
+        misses.increment();
+        tile = loader.apply(key);
+        synchronized (segment) { segment.put(key, tile); }
+        return tile;
+    }
+
+    public long getHits() { return hits.sum(); }
+
+    public long getMisses() { return misses.sum(); }
+
+    public long getEvictions() { return evictions.sum(); }
+
+    /**
+     * @return The fraction of the lookups found in the cache, 0 if there was no lookup.
+     */
+    public double getHitRate() {
+        final long h = hits.sum(), m = misses.sum();
+        return (h + m == 0) ? 0.0D : (double) h / (h + m);
+    }
+
+    /**
+     * Reset the hit, miss and eviction counters, for instance between two frames.
+     */
+    public void resetStatistics() {
+        hits.reset();
+        misses.reset();
+        evictions.reset();
+    }
+}